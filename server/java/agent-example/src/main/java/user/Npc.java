@@ -13,6 +13,12 @@ public class Npc {
 	private NpcMovement movement;
 	public String id;
 
+	// What the server was last sent, for dead reckoning
+	private Vector3 sentPosition = null;
+	private Vector3 sentDirection = null;
+	private double sentSpeed = 0;
+	private long sentAt = 0;
+
 	public Npc(String id, ClientGrid grid, double speedScale) {
 		this.grid = grid;
 		this.id = id;
@@ -46,6 +52,38 @@ public class Npc {
 		movement.setTarget(target);
 	}
 
+	public Vector3 getDirection() {
+		return movement.getDirection();
+	}
+
+	public double getSpeed() {
+		return movement.getSpeed();
+	}
+
+	/*
+	 * True when the server, extrapolating from what it was last sent, is more then maxError units off, the movement changed, or
+	 * maxAge ms passed since the last update.
+	 */
+	public boolean needsUpdate(double maxError, long maxAge, long now) {
+		if (sentPosition == null || (now - sentAt) >= maxAge) {
+			return true;
+		}
+		if (movement.getDirection() != sentDirection || movement.getSpeed() != sentSpeed) {
+			return true;
+		}
+		double seconds = (now - sentAt) / 1000d;
+		double dx = position.x - (sentPosition.x + sentDirection.x * sentSpeed * seconds);
+		double dy = position.y - (sentPosition.y + sentDirection.y * sentSpeed * seconds);
+		return (dx * dx + dy * dy) > maxError * maxError;
+	}
+
+	public void sent(long now) {
+		sentPosition = Vector3.from(position);
+		sentDirection = movement.getDirection();
+		sentSpeed = movement.getSpeed();
+		sentAt = now;
+	}
+
 	public void update() {
 		if (movement.hasTarget) {
 			if (movement.reachedTarget) {
@@ -6,6 +6,7 @@ public class NpcMovement {
 
 	private Vector3 target;
 	private Vector3 position;
+	private Vector3 direction = Vector3.zero();
 	private double distanceToTarget = 0;
 	private double lastMove = 0;
 	private double speedScale = 4f;
@@ -33,8 +34,20 @@ public class NpcMovement {
 		reachedTarget = true;
 	}
 
+	// Heading towards the current target, replaced (not changed) when the target changes
+	public Vector3 getDirection() {
+		return direction;
+	}
+
+	// Units per second, 0 once the target is reached
+	public double getSpeed() {
+		return (hasTarget && !reachedTarget) ? speedScale : 0;
+	}
+
 	public void setTarget(Vector3 newTarget) {
 		target = newTarget;
+		direction = new Vector3(target.x - position.x, target.y - position.y, 0);
+		direction.normalizeLocal();
 		lastMove = System.currentTimeMillis();
 		hasTarget = true;
 		reachedTarget = false;
@@ -6,6 +6,7 @@ import io.gamemachine.client.api.ApiMessage;
 import io.gamemachine.client.messages.AgentTrackData;
 import io.gamemachine.client.messages.TrackData;
 import io.gamemachine.client.messages.TrackData.EntityType;
+import io.gamemachine.client.messages.Vector3;
 import io.gamemachine.codeblocks.Codeblock;
 
 import java.util.ArrayList;
@@ -27,6 +28,12 @@ public class NpcAi implements Codeblock {
 	private double speedScale = 4f;
 	private int updateCount = 0;
 
+	// Only send positions the server can not predict.  Needs reckon set on the grid, see default.conf.  Enabled by starting the
+	// agent with -Dnpc_ai.dead_reckoning=true
+	private boolean deadReckoning = Boolean.getBoolean("npc_ai.dead_reckoning");
+	private double reckonError = 0.5d;
+	private long reckonMaxAge = 1000l;
+
 	@Override
 	public void awake(Object message) {
 		if (message instanceof CodeblockEnv) {
@@ -67,13 +74,27 @@ public class NpcAi implements Codeblock {
 			double x = npc.position.x;
 			double y = npc.position.y;
 			npc.update();
+			long now = System.currentTimeMillis();
+			if (deadReckoning && !Globals.npcResend.containsKey(npc.id) && !npc.needsUpdate(reckonError, reckonMaxAge, now)) {
+				continue;
+			}
 			GameEntity gameEntity = Globals.gameEntityFor(npc.id);
 
 			TrackData trackData = new TrackData();
 			trackData.setId(gameEntity.id);
 			trackData.setEntityType(gameEntity.entityType);
 
-			if (Globals.npcResend.containsKey(npc.id)) {
+			if (deadReckoning) {
+				Vector3 direction = new Vector3();
+				direction.setX((float) npc.getDirection().x);
+				direction.setY((float) npc.getDirection().y);
+				trackData.setX((int) Math.round(npc.position.x * 100));
+				trackData.setY((int) Math.round(npc.position.y * 100));
+				trackData.setDirection(direction);
+				trackData.setVelocity((float) npc.getSpeed());
+				Globals.npcResend.remove(npc.id);
+				npc.sent(now);
+			} else if (Globals.npcResend.containsKey(npc.id)) {
 				trackData.setX((int) Math.round(npc.position.x * 100));
 				trackData.setY((int) Math.round(npc.position.y * 100));
 				Globals.npcResend.remove(npc.id);
@@ -0,0 +1,92 @@
+package io.gamemachine.benchmarks;
+
+import io.gamemachine.client.api.ClientGrid;
+import io.gamemachine.client.messages.TrackData;
+import io.gamemachine.client.messages.TrackData.EntityType;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * Throughput of the ClientGrid agents keep of the world, with the same layouts as GridBenchmark.  ClientGrid works in world
+ * units, not scaled coordinates.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ClientGridBenchmark {
+
+	@Param({ "1000", "10000", "100000" })
+	public int entities;
+
+	@Param({ "uniform", "clustered" })
+	public String distribution;
+
+	private ClientGrid grid;
+	private Positions positions;
+	private String[] ids;
+
+	@State(Scope.Thread)
+	public static class Cursor {
+		int next;
+		int step;
+
+		@Setup(Level.Iteration)
+		public void setup() {
+			next = (int) (Thread.currentThread().getId() * 7919);
+		}
+	}
+
+	@Setup(Level.Trial)
+	public void setup() {
+		positions = new Positions(entities, distribution);
+		grid = new ClientGrid(Positions.WORLD, Positions.CELL_SIZE);
+		ids = new String[entities];
+		for (int i = 0; i < entities; i++) {
+			ids[i] = Positions.id(i);
+			grid.set(ids[i], (int) positions.xs[i], (int) positions.ys[i], 0, EntityType.NPC);
+		}
+	}
+
+	private int nextEntity(Cursor cursor) {
+		return (cursor.next++ & Integer.MAX_VALUE) % entities;
+	}
+
+	@Benchmark
+	public Boolean set(Cursor cursor) {
+		int i = nextEntity(cursor);
+		int step = cursor.step++ & (Positions.STEPS - 1);
+		float x = Positions.clamp(positions.xs[i] + positions.stepXs[step]);
+		float y = Positions.clamp(positions.ys[i] + positions.stepYs[step]);
+		return grid.set(ids[i], (int) x, (int) y, 0, EntityType.NPC);
+	}
+
+	@Benchmark
+	public Boolean removeAndSet(Cursor cursor) {
+		int i = nextEntity(cursor);
+		grid.remove(ids[i]);
+		return grid.set(ids[i], (int) positions.xs[i], (int) positions.ys[i], 0, EntityType.NPC);
+	}
+
+	@Benchmark
+	public List<TrackData> neighbors(Cursor cursor) {
+		int i = nextEntity(cursor);
+		return grid.neighbors(positions.xs[i], positions.ys[i], EntityType.NPC);
+	}
+}
@@ -0,0 +1,143 @@
+package io.gamemachine.benchmarks;
+
+import io.gamemachine.core.Grid;
+import io.gamemachine.messages.TrackData;
+import io.gamemachine.messages.TrackData.EntityType;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * Throughput of the server side Grid for every index type, unsharded and split into shardCells x shardCells blocks like
+ * sharded entity tracking uses.  The grid is shared by all benchmark threads, run with -t n to measure contention and -prof gc
+ * for allocation rates.  Each thread walks the entities from its own offset, so threads mostly touch different entities like
+ * entity tracking routees do.
+ *
+ * Coordinates are scaled by 100 like TrackData from clients.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class GridBenchmark {
+
+	@Param({ "1000", "10000", "100000" })
+	public int entities;
+
+	@Param({ "uniform", "clustered" })
+	public String distribution;
+
+	@Param({ "hash", "array", "hierarchical" })
+	public String index;
+
+	// 0 is a plain index, 8 is the default block size of sharded entity tracking
+	@Param({ "0", "8" })
+	public int shardCells;
+
+	private Grid grid;
+	private Positions positions;
+	private String[] ids;
+
+	@State(Scope.Thread)
+	public static class Cursor {
+		int next;
+		int step;
+
+		@Setup(Level.Iteration)
+		public void setup() {
+			next = (int) (Thread.currentThread().getId() * 7919);
+		}
+	}
+
+	@Setup(Level.Trial)
+	public void setup() {
+		positions = new Positions(entities, distribution);
+		grid = new Grid(Positions.WORLD, Positions.CELL_SIZE, index, entities * 2, shardCells);
+		ids = new String[entities];
+		for (int i = 0; i < entities; i++) {
+			ids[i] = Positions.id(i);
+			grid.set(trackData(ids[i], positions.xs[i], positions.ys[i]));
+		}
+	}
+
+	private static TrackData trackData(String id, float x, float y) {
+		TrackData trackData = new TrackData();
+		trackData.id = id;
+		trackData.x = Math.round(x * 100);
+		trackData.y = Math.round(y * 100);
+		trackData.entityType = EntityType.PLAYER;
+		trackData.setGetNeighbors(0);
+		return trackData;
+	}
+
+	private int nextEntity(Cursor cursor) {
+		return (cursor.next++ & Integer.MAX_VALUE) % entities;
+	}
+
+	// Full coordinate update to a nearby position
+	@Benchmark
+	public Boolean set(Cursor cursor) {
+		int i = nextEntity(cursor);
+		int step = cursor.step++ & (Positions.STEPS - 1);
+		float x = Positions.clamp(positions.xs[i] + positions.stepXs[step]);
+		float y = Positions.clamp(positions.ys[i] + positions.stepYs[step]);
+		return grid.set(trackData(ids[i], x, y));
+	}
+
+	// Delta update, as agents send for npcs
+	@Benchmark
+	public Boolean move(Cursor cursor) {
+		int i = nextEntity(cursor);
+		int step = cursor.step++ & (Positions.STEPS - 1);
+		TrackData delta = new TrackData();
+		delta.id = ids[i];
+		delta.ix = Math.round(positions.stepXs[step] * 100);
+		delta.iy = Math.round(positions.stepYs[step] * 100);
+		delta.setGetNeighbors(0);
+		return grid.set(delta);
+	}
+
+	// Remove and put back, so the population stays the same
+	@Benchmark
+	public Boolean removeAndSet(Cursor cursor) {
+		int i = nextEntity(cursor);
+		grid.remove(ids[i]);
+		return grid.set(trackData(ids[i], positions.xs[i], positions.ys[i]));
+	}
+
+	@Benchmark
+	public List<TrackData> neighborsFull(Cursor cursor) {
+		int i = nextEntity(cursor);
+		TrackData location = grid.get(ids[i]);
+		return grid.neighbors(ids[i], location.x, location.y, EntityType.PLAYER, Grid.NEIGHBORS_FULL);
+	}
+
+	@Benchmark
+	public List<TrackData> neighborsDelta(Cursor cursor) {
+		int i = nextEntity(cursor);
+		TrackData location = grid.get(ids[i]);
+		return grid.neighbors(ids[i], location.x, location.y, EntityType.PLAYER, Grid.NEIGHBORS_DELTA);
+	}
+
+	@Benchmark
+	public List<TrackData> neighborsRadius(Cursor cursor) {
+		int i = nextEntity(cursor);
+		TrackData location = grid.get(ids[i]);
+		return grid.neighbors(ids[i], location.x, location.y, EntityType.PLAYER, Grid.NEIGHBORS_RADIUS);
+	}
+}
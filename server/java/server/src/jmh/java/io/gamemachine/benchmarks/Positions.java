@@ -0,0 +1,69 @@
+package io.gamemachine.benchmarks;
+
+import java.util.Random;
+
+/*
+ * Starting positions and movement steps shared by the grid benchmarks, in world units.  Generated from a fixed seed so every
+ * run and every grid sees the same layout.
+ *
+ * uniform spreads entities evenly over the world.  clustered puts them in CLUSTERS gaussian clusters, the way players gather
+ * in towns, which is what makes a few cells crowded.
+ */
+public class Positions {
+
+	public static final int WORLD = 4000;
+	public static final int CELL_SIZE = 25;
+	public static final int CLUSTERS = 20;
+	public static final int STEPS = 1024;
+
+	public final float[] xs;
+	public final float[] ys;
+
+	// Small moves, in the range an entity covers between two updates
+	public final float[] stepXs = new float[STEPS];
+	public final float[] stepYs = new float[STEPS];
+
+	public Positions(int count, String distribution) {
+		Random random = new Random(42);
+		xs = new float[count];
+		ys = new float[count];
+
+		if (distribution.equals("clustered")) {
+			float[] centerXs = new float[CLUSTERS];
+			float[] centerYs = new float[CLUSTERS];
+			for (int i = 0; i < CLUSTERS; i++) {
+				centerXs[i] = WORLD * 0.1f + random.nextFloat() * WORLD * 0.8f;
+				centerYs[i] = WORLD * 0.1f + random.nextFloat() * WORLD * 0.8f;
+			}
+			float spread = WORLD / 50f;
+			for (int i = 0; i < count; i++) {
+				int cluster = random.nextInt(CLUSTERS);
+				xs[i] = clamp(centerXs[cluster] + (float) random.nextGaussian() * spread);
+				ys[i] = clamp(centerYs[cluster] + (float) random.nextGaussian() * spread);
+			}
+		} else {
+			for (int i = 0; i < count; i++) {
+				xs[i] = random.nextFloat() * (WORLD - 1);
+				ys[i] = random.nextFloat() * (WORLD - 1);
+			}
+		}
+
+		for (int i = 0; i < STEPS; i++) {
+			stepXs[i] = (random.nextFloat() - 0.5f) * 4f;
+			stepYs[i] = (random.nextFloat() - 0.5f) * 4f;
+		}
+	}
+
+	public static float clamp(float value) {
+		if (value < 0) {
+			return 0;
+		} else if (value >= WORLD - 1) {
+			return WORLD - 1;
+		}
+		return value;
+	}
+
+	public static String id(int i) {
+		return "entity" + i;
+	}
+}
@@ -0,0 +1,81 @@
+package io.gamemachine.benchmarks;
+
+import io.gamemachine.pathfinding.ProximityGrid;
+import io.gamemachine.pathfinding.ProximityGrid.GridValue;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * Throughput of the ProximityGrid used by pathfinding, with the same layouts as GridBenchmark.  There is no remove benchmark,
+ * ProximityGrid.remove takes a String while values are keyed by int id.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ProximityGridBenchmark {
+
+	@Param({ "1000", "10000", "100000" })
+	public int entities;
+
+	@Param({ "uniform", "clustered" })
+	public String distribution;
+
+	private ProximityGrid grid;
+	private Positions positions;
+
+	@State(Scope.Thread)
+	public static class Cursor {
+		int next;
+		int step;
+
+		@Setup(Level.Iteration)
+		public void setup() {
+			next = (int) (Thread.currentThread().getId() * 7919);
+		}
+	}
+
+	@Setup(Level.Trial)
+	public void setup() {
+		positions = new Positions(entities, distribution);
+		grid = new ProximityGrid(Positions.WORLD, Positions.CELL_SIZE);
+		for (int i = 0; i < entities; i++) {
+			grid.set(i, positions.xs[i], positions.ys[i], 0);
+		}
+	}
+
+	private int nextEntity(Cursor cursor) {
+		return (cursor.next++ & Integer.MAX_VALUE) % entities;
+	}
+
+	@Benchmark
+	public Boolean set(Cursor cursor) {
+		int i = nextEntity(cursor);
+		int step = cursor.step++ & (Positions.STEPS - 1);
+		float x = Positions.clamp(positions.xs[i] + positions.stepXs[step]);
+		float y = Positions.clamp(positions.ys[i] + positions.stepYs[step]);
+		return grid.set(i, x, y, 0);
+	}
+
+	@Benchmark
+	public List<GridValue> neighbors(Cursor cursor) {
+		int i = nextEntity(cursor);
+		return grid.neighbors(positions.xs[i], positions.ys[i]);
+	}
+}
@@ -1,6 +1,8 @@
 package io.gamemachine.config;
 
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import com.typesafe.config.Config;
 
@@ -37,6 +39,8 @@ public class AppConfig {
 	
 	public static class Client {
 		private static int idleTimeout;
+		private static int aggregateWindow = 0;
+		private static int aggregateBytes = 1200;
 
 		public static int getIdleTimeout() {
 			return idleTimeout;
@@ -46,18 +50,157 @@ public class AppConfig {
 			Client.idleTimeout = idleTimeout;
 		}
 
+		public static int getAggregateWindow() {
+			return aggregateWindow;
+		}
+
+		public static void setAggregateWindow(int aggregateWindow) {
+			Client.aggregateWindow = aggregateWindow;
+		}
+
+		public static int getAggregateBytes() {
+			return aggregateBytes;
+		}
+
+		public static void setAggregateBytes(int aggregateBytes) {
+			Client.aggregateBytes = aggregateBytes;
+		}
+
+	}
+	
+	public static class Tracking {
+		private static int routerSize = 30;
+		private static boolean sharded = false;
+
+		public static int getRouterSize() {
+			return routerSize;
+		}
+
+		public static void setRouterSize(int routerSize) {
+			Tracking.routerSize = routerSize;
+		}
+
+		public static boolean isSharded() {
+			return sharded;
+		}
+
+		public static void setSharded(boolean sharded) {
+			Tracking.sharded = sharded;
+		}
+
+	}
+	
+	public static class GridSnapshot {
+		private static int interval = 0;
+		private static long maxAge = 30000l;
+		private static String path;
+
+		public static int getInterval() {
+			return interval;
+		}
+
+		public static void setInterval(int interval) {
+			GridSnapshot.interval = interval;
+		}
+
+		public static long getMaxAge() {
+			return maxAge;
+		}
+
+		public static void setMaxAge(long maxAge) {
+			GridSnapshot.maxAge = maxAge;
+		}
+
+		public static String getPath() {
+			return path;
+		}
+
+		public static void setPath(String path) {
+			GridSnapshot.path = path;
+		}
+
+	}
+	
+	public static class Udp {
+		private static boolean epoll = true;
+		private static int threads = 0;
+		private static int flushMicros = 0;
+
+		public static boolean isEpoll() {
+			return epoll;
+		}
+
+		public static void setEpoll(boolean epoll) {
+			Udp.epoll = epoll;
+		}
+
+		public static int getThreads() {
+			return threads;
+		}
+
+		public static void setThreads(int threads) {
+			Udp.threads = threads;
+		}
+
+		public static int getFlushMicros() {
+			return flushMicros;
+		}
+
+		public static void setFlushMicros(int flushMicros) {
+			Udp.flushMicros = flushMicros;
+		}
+
+	}
+
+	public static class Movement {
+		private static int maxSpeed = 0;
+		private static boolean navigation = false;
+		private static String navigationPath;
+
+		public static int getMaxSpeed() {
+			return maxSpeed;
+		}
+
+		public static void setMaxSpeed(int maxSpeed) {
+			Movement.maxSpeed = maxSpeed;
+		}
+
+		public static boolean isNavigation() {
+			return navigation;
+		}
+
+		public static void setNavigation(boolean navigation) {
+			Movement.navigation = navigation;
+		}
+
+		public static String getNavigationPath() {
+			return navigationPath;
+		}
+
+		public static void setNavigationPath(String navigationPath) {
+			Movement.navigationPath = navigationPath;
+		}
+
 	}
 	
 	public static class GridConfig {
 		private final String name;
 		private final int gridSize;
 		private final int cellSize;
+		private final Map<String, String> options = new HashMap<String, String>();
 		
+		// gridSize, cellSize, updateFrequency followed by optional key=value options
 		public GridConfig(String name, String config) {
 			String[] parts = config.split(",");
 			this.name = name;
 			this.gridSize = Integer.parseInt(parts[0].trim());
 			this.cellSize = Integer.parseInt(parts[1].trim());
+			for (int i = 3; i < parts.length; i++) {
+				String[] option = parts[i].split("=");
+				if (option.length == 2) {
+					options.put(option[0].trim(), option[1].trim());
+				}
+			}
 		}
 
 		public String getName() {
@@ -71,6 +214,26 @@ public class AppConfig {
 		public int getCellSize() {
 			return cellSize;
 		}
+		
+		public String getIndexType() {
+			return getOption("index", "hash");
+		}
+		
+		public String getOption(String key, String defaultValue) {
+			if (options.containsKey(key)) {
+				return options.get(key);
+			} else {
+				return defaultValue;
+			}
+		}
+		
+		public int getIntOption(String key, int defaultValue) {
+			if (options.containsKey(key)) {
+				return Integer.parseInt(options.get(key));
+			} else {
+				return defaultValue;
+			}
+		}
 	}
 	
 	
@@ -0,0 +1,104 @@
+package io.gamemachine.core;
+
+import io.gamemachine.messages.TrackData;
+import io.gamemachine.messages.Vector3;
+import io.gamemachine.net.Connection;
+
+/*
+ * Decides per observer how often neighbor queries include each target.  A target is due once the error the observer could
+ * have accumulated since it was last sent, relative speed times elapsed time, passes a fraction of the distance between them.
+ * Far away or slow targets are sent less often, near and fast ones on every query, and nothing waits longer then
+ * maxInterval.
+ *
+ * Relative speed comes from TrackData velocity (or speed) and direction when both sides have them, from the sum of their
+ * speeds when only one has a direction, and from how far the target moved since it was last sent otherwise.
+ *
+ * With a bandwidth set, observers receiving more then bandwidth bytes per second get a proportionally larger error allowance
+ * and a minimum interval, so crowding does not push a client past its budget.
+ */
+public class AdaptiveRate {
+
+	private final int maxInterval;
+	private final float errorRatio;
+	private final int bandwidth;
+
+	// errorPercent is the allowed error as a percentage of distance, bandwidth is bytes per second per client, 0 ignores it
+	public AdaptiveRate(int maxInterval, int errorPercent, int bandwidth) {
+		this.maxInterval = maxInterval;
+		this.errorRatio = errorPercent / 100f;
+		this.bandwidth = bandwidth;
+	}
+
+	public int getMaxInterval() {
+		return maxInterval;
+	}
+
+	// How far over its bandwidth the observer is, 1 when within it
+	public float load(String playerId) {
+		if (bandwidth <= 0) {
+			return 1f;
+		}
+		Connection connection = Connection.getConnection(playerId);
+		if (connection == null) {
+			return 1f;
+		}
+		return Math.max(1f, connection.getBytesPerSecond() / (float) bandwidth);
+	}
+
+	/*
+	 * observer may be null.  distanceSquared, lastX and lastY are scaled like TrackData coordinates, lastX/lastY being where
+	 * the observer was last sent target, elapsed ms ago.
+	 */
+	public boolean isDue(TrackData observer, TrackData target, long distanceSquared, int lastX, int lastY, long elapsed,
+			float load, int scaleFactor) {
+		if (elapsed >= maxInterval) {
+			return true;
+		}
+		if (load > 1f && elapsed < maxInterval * (1f - 1f / load)) {
+			return false;
+		}
+
+		double speed = relativeSpeed(observer, target);
+		if (speed < 0) {
+			long dx = target.x - lastX;
+			long dy = target.y - lastY;
+			speed = Math.sqrt(dx * dx + dy * dy) * 1000d / Math.max(1, elapsed);
+		} else {
+			speed *= scaleFactor;
+		}
+		if (speed == 0) {
+			return false;
+		}
+		double allowedError = Math.sqrt(distanceSquared) * errorRatio * load;
+		return speed * elapsed / 1000d >= allowedError;
+	}
+
+	// Units per second, -1 when neither side reports a speed
+	private static double relativeSpeed(TrackData observer, TrackData target) {
+		Float targetSpeed = speedOf(target);
+		Float observerSpeed = (observer == null) ? null : speedOf(observer);
+		if (targetSpeed == null && observerSpeed == null) {
+			return -1;
+		}
+		float ts = (targetSpeed == null) ? 0f : targetSpeed;
+		float os = (observerSpeed == null) ? 0f : observerSpeed;
+
+		Vector3 td = target.direction;
+		Vector3 od = (observer == null) ? null : observer.direction;
+		if (td == null || od == null) {
+			return ts + os;
+		}
+		double dx = component(td.x) * ts - component(od.x) * os;
+		double dy = component(td.y) * ts - component(od.y) * os;
+		double dz = component(td.z) * ts - component(od.z) * os;
+		return Math.sqrt(dx * dx + dy * dy + dz * dz);
+	}
+
+	private static Float speedOf(TrackData trackData) {
+		return (trackData.velocity != null) ? trackData.velocity : trackData.speed;
+	}
+
+	private static float component(Float value) {
+		return (value == null) ? 0f : value;
+	}
+}
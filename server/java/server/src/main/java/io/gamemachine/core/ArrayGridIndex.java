@@ -0,0 +1,291 @@
+package io.gamemachine.core;
+
+import io.gamemachine.messages.TrackData;
+import io.gamemachine.messages.TrackData.EntityType;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/*
+ * Grid storage using primitive arrays instead of nested maps.
+ *
+ * Each id is mapped to a dense int slot the first time it is seen.  Positions and cells live in parallel int arrays indexed by slot,
+ * and the members of a cell are doubly linked lists threaded through the next/prev arrays, one per TypeBuckets bucket, starting at
+ * cellHeads[cell * TypeBuckets.COUNT + bucket].  Moving between cells is an unlink and a link, so once the arrays have grown to the
+ * working set set/remove/collect do not allocate.
+ *
+ * Cells outside of 0..cellCount are not linked into any cell.  Those entities can still be found with get and collectAll.
+ *
+ * A single read/write lock guards the arrays.
+ */
+public class ArrayGridIndex implements GridIndex {
+
+	private static final int NONE = -1;
+
+	private final int cellCount;
+	private final int[] cellHeads;
+
+	private HashMap<String, Integer> slots;
+	private String[] ids;
+	private TrackData[] trackDatas;
+	private int[] xs;
+	private int[] ys;
+	private int[] zs;
+	private int[] cellOf;
+	private int[] bucketOf;
+	private int[] next;
+	private int[] prev;
+
+	private int capacity;
+	private int highWater = 0;
+	private int freeHead = NONE;
+	private volatile int size = 0;
+
+	private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+	public ArrayGridIndex(int cellCount, int initialCapacity) {
+		this.cellCount = cellCount;
+		this.cellHeads = new int[cellCount * TypeBuckets.COUNT];
+		Arrays.fill(this.cellHeads, NONE);
+
+		this.capacity = Math.max(16, initialCapacity);
+		this.slots = new HashMap<String, Integer>(this.capacity * 2);
+		this.ids = new String[capacity];
+		this.trackDatas = new TrackData[capacity];
+		this.xs = new int[capacity];
+		this.ys = new int[capacity];
+		this.zs = new int[capacity];
+		this.cellOf = new int[capacity];
+		this.bucketOf = new int[capacity];
+		this.next = new int[capacity];
+		this.prev = new int[capacity];
+	}
+
+	private void grow() {
+		int newCapacity = capacity * 2;
+		ids = Arrays.copyOf(ids, newCapacity);
+		trackDatas = Arrays.copyOf(trackDatas, newCapacity);
+		xs = Arrays.copyOf(xs, newCapacity);
+		ys = Arrays.copyOf(ys, newCapacity);
+		zs = Arrays.copyOf(zs, newCapacity);
+		cellOf = Arrays.copyOf(cellOf, newCapacity);
+		bucketOf = Arrays.copyOf(bucketOf, newCapacity);
+		next = Arrays.copyOf(next, newCapacity);
+		prev = Arrays.copyOf(prev, newCapacity);
+		capacity = newCapacity;
+	}
+
+	private int allocateSlot() {
+		int slot;
+		if (freeHead != NONE) {
+			slot = freeHead;
+			freeHead = next[slot];
+		} else {
+			if (highWater == capacity) {
+				grow();
+			}
+			slot = highWater++;
+		}
+		cellOf[slot] = NONE;
+		next[slot] = NONE;
+		prev[slot] = NONE;
+		return slot;
+	}
+
+	private void freeSlot(int slot) {
+		ids[slot] = null;
+		trackDatas[slot] = null;
+		cellOf[slot] = NONE;
+		prev[slot] = NONE;
+		next[slot] = freeHead;
+		freeHead = slot;
+	}
+
+	private boolean validCell(int cell) {
+		return cell >= 0 && cell < cellCount;
+	}
+
+	private void link(int slot, int cell, int bucket) {
+		cellOf[slot] = cell;
+		bucketOf[slot] = bucket;
+		if (!validCell(cell)) {
+			next[slot] = NONE;
+			prev[slot] = NONE;
+			return;
+		}
+		int list = cell * TypeBuckets.COUNT + bucket;
+		int head = cellHeads[list];
+		next[slot] = head;
+		prev[slot] = NONE;
+		if (head != NONE) {
+			prev[head] = slot;
+		}
+		cellHeads[list] = slot;
+	}
+
+	private void unlink(int slot) {
+		int cell = cellOf[slot];
+		if (validCell(cell)) {
+			int n = next[slot];
+			int p = prev[slot];
+			if (p != NONE) {
+				next[p] = n;
+			} else {
+				cellHeads[cell * TypeBuckets.COUNT + bucketOf[slot]] = n;
+			}
+			if (n != NONE) {
+				prev[n] = p;
+			}
+		}
+		cellOf[slot] = NONE;
+		next[slot] = NONE;
+		prev[slot] = NONE;
+	}
+
+	@Override
+	public void set(TrackData trackData, int cell) {
+		lock.writeLock().lock();
+		try {
+			setSlot(trackData, cell);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	// Whole batch under one write lock
+	@Override
+	public void setBatch(TrackData[] batch, int[] cells, int count) {
+		lock.writeLock().lock();
+		try {
+			for (int i = 0; i < count; i++) {
+				setSlot(batch[i], cells[i]);
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	private void setSlot(TrackData trackData, int cell) {
+		Integer existing = slots.get(trackData.id);
+		int bucket = TypeBuckets.bucket(trackData.entityType);
+		int slot;
+		if (existing == null) {
+			slot = allocateSlot();
+			slots.put(trackData.id, slot);
+			ids[slot] = trackData.id;
+			size++;
+			link(slot, cell, bucket);
+		} else {
+			slot = existing;
+			if (cellOf[slot] != cell || bucketOf[slot] != bucket) {
+				unlink(slot);
+				link(slot, cell, bucket);
+			}
+		}
+
+		trackDatas[slot] = trackData;
+		xs[slot] = trackData.x;
+		ys[slot] = trackData.y;
+		zs[slot] = (trackData.z == null) ? 0 : trackData.z;
+	}
+
+	@Override
+	public TrackData remove(String id) {
+		lock.writeLock().lock();
+		try {
+			Integer slot = slots.remove(id);
+			if (slot == null) {
+				return null;
+			}
+			TrackData trackData = trackDatas[slot];
+			unlink(slot);
+			freeSlot(slot);
+			size--;
+			return trackData;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public TrackData get(String id) {
+		lock.readLock().lock();
+		try {
+			Integer slot = slots.get(id);
+			if (slot == null) {
+				return null;
+			}
+			return trackDatas[slot];
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public void collect(int cell, EntityType entityType, List<TrackData> result) {
+		collectWithinRadius(cell, entityType, 0, 0, -1, result);
+	}
+
+	// radiusSquared of -1 means no distance check
+	@Override
+	public void collectWithinRadius(int cell, EntityType entityType, int x, int y, long radiusSquared, List<TrackData> result) {
+		if (!validCell(cell)) {
+			return;
+		}
+		int first = cell * TypeBuckets.COUNT;
+		int last = first + TypeBuckets.COUNT - 1;
+		if (entityType != null) {
+			first += TypeBuckets.bucket(entityType);
+			last = first;
+		}
+
+		lock.readLock().lock();
+		try {
+			for (int list = first; list <= last; list++) {
+				for (int slot = cellHeads[list]; slot != NONE; slot = next[slot]) {
+					if (radiusSquared != -1) {
+						long dx = xs[slot] - x;
+						long dy = ys[slot] - y;
+						if (dx * dx + dy * dy > radiusSquared) {
+							continue;
+						}
+					}
+					result.add(trackDatas[slot]);
+				}
+			}
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public Collection<TrackData> cellMembers(int cell) {
+		List<TrackData> members = new ArrayList<TrackData>();
+		collect(cell, null, members);
+		return members.isEmpty() ? null : members;
+	}
+
+	@Override
+	public void collectAll(List<TrackData> result) {
+		lock.readLock().lock();
+		try {
+			for (int slot = 0; slot < highWater; slot++) {
+				if (ids[slot] != null) {
+					result.add(trackDatas[slot]);
+				}
+			}
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+}
@@ -0,0 +1,67 @@
+package io.gamemachine.core;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import scala.concurrent.duration.Duration;
+import akka.actor.UntypedActor;
+
+/*
+ * Moves a grid's dead reckoned entities every interval ms, see DeadReckoning.  Created by GameGrid for grids with reckon
+ * configured, and stops itself once the grid has been replaced or removed.
+ */
+public class DeadReckoner extends UntypedActor {
+
+	private static final Logger logger = LoggerFactory.getLogger(DeadReckoner.class);
+
+	private final String gameId;
+	private final String gridName;
+	private final Grid grid;
+	private final int interval;
+
+	public DeadReckoner(String gameId, String gridName, Grid grid, int interval) {
+		this.gameId = gameId;
+		this.gridName = gridName;
+		this.grid = grid;
+		this.interval = interval;
+	}
+
+	@Override
+	public void preStart() {
+		tick(interval, "reckon_tick");
+	}
+
+	@Override
+	public void onReceive(Object message) throws Exception {
+		if (message instanceof String) {
+			String msg = (String) message;
+			if (msg.equals("reckon_tick")) {
+				if (!isCurrentGrid()) {
+					logger.debug("Stopping dead reckoner for " + gameId + " " + gridName);
+					getContext().stop(getSelf());
+					return;
+				}
+				grid.advanceReckoned();
+				tick(interval, "reckon_tick");
+			}
+		} else {
+			unhandled(message);
+		}
+	}
+
+	private boolean isCurrentGrid() {
+		Map<String, Grid> grids = GameGrid.getGameGrids().get(gameId);
+		return (grids != null && grids.get(gridName) == grid);
+	}
+
+	public void tick(int delay, String message) {
+		getContext()
+				.system()
+				.scheduler()
+				.scheduleOnce(Duration.create(delay, TimeUnit.MILLISECONDS), getSelf(), message,
+						getContext().dispatcher(), null);
+	}
+}
@@ -0,0 +1,145 @@
+package io.gamemachine.core;
+
+import io.gamemachine.messages.TrackData;
+import io.gamemachine.messages.Vector3;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+ * Extrapolated movement for a grid's entities.  An entity that is set with a velocity (or speed) and a direction keeps moving along
+ * direction.x/direction.y at that speed, in units per second, until its next update.  Senders then only need to send an update
+ * when the real position drifts from the prediction by more then they can accept, or the movement changes.
+ *
+ * Updates without a velocity or direction stop the extrapolation, as does reaching maxExtrapolation ms without an update, so an
+ * entity whose sender went away does not walk off forever.
+ *
+ * DeadReckoner moves the entities on the grid's reckon tick, so neighbor queries, deltas and replication all see the predicted
+ * positions without any changes of their own.
+ *
+ * The reckoner and the routees setting updates write the same TrackData.  Both hold the id's lock from lockFor while they do,
+ * so an update is never overwritten by an extrapolation from the motion it replaced.
+ */
+public class DeadReckoning {
+
+	private static class Motion {
+		final TrackData trackData;
+		final int baseX;
+		final int baseY;
+		final double vx;
+		final double vy;
+		final long time;
+
+		Motion(TrackData trackData, double vx, double vy, long time) {
+			this.trackData = trackData;
+			this.baseX = trackData.x;
+			this.baseY = trackData.y;
+			this.vx = vx;
+			this.vy = vy;
+			this.time = time;
+		}
+	}
+
+	public static final int LOCK_STRIPES = 64;
+
+	private final int maxExtrapolation;
+	private ConcurrentHashMap<String, Motion> motions = new ConcurrentHashMap<String, Motion>();
+	private final Object[] locks = new Object[LOCK_STRIPES];
+
+	public DeadReckoning(int maxExtrapolation) {
+		this.maxExtrapolation = maxExtrapolation;
+		for (int i = 0; i < LOCK_STRIPES; i++) {
+			locks[i] = new Object();
+		}
+	}
+
+	// Held by Grid while it sets or removes id, and by advance while it moves it
+	public Object lockFor(String id) {
+		return locks[(id.hashCode() & Integer.MAX_VALUE) % LOCK_STRIPES];
+	}
+
+	public int getMaxExtrapolation() {
+		return maxExtrapolation;
+	}
+
+	public int size() {
+		return motions.size();
+	}
+
+	/*
+	 * Called with the value just set in the grid and the update it was set from, which differ for deltas.  Starts, restarts or
+	 * stops extrapolating trackData depending on whether the update reported a velocity and direction.
+	 */
+	public void update(TrackData trackData, TrackData reported, long now, int scaleFactor) {
+		Float speed = (reported.velocity != null) ? reported.velocity : reported.speed;
+		Vector3 direction = reported.direction;
+		if (speed == null || speed == 0f || direction == null) {
+			motions.remove(trackData.id);
+			return;
+		}
+		double dx = (direction.x == null) ? 0d : direction.x;
+		double dy = (direction.y == null) ? 0d : direction.y;
+		double length = Math.sqrt(dx * dx + dy * dy);
+		if (length == 0d) {
+			motions.remove(trackData.id);
+			return;
+		}
+
+		// Scaled units per ms
+		double perMs = speed * scaleFactor / 1000d / length;
+		motions.put(trackData.id, new Motion(trackData, dx * perMs, dy * perMs, now));
+	}
+
+	/*
+	 * Stops extrapolating id and moves it back to the position it last reported, which is what a delta from its sender is
+	 * relative to.
+	 */
+	public void rebase(String id) {
+		Motion motion = motions.remove(id);
+		if (motion != null) {
+			motion.trackData.x = motion.baseX;
+			motion.trackData.y = motion.baseY;
+		}
+	}
+
+	public void remove(String id) {
+		motions.remove(id);
+	}
+
+	// Moves every extrapolated entity of grid to where it should be at now, within 0 and limit
+	public void advance(Grid grid, long now, int limit) {
+		Iterator<Map.Entry<String, Motion>> iter = motions.entrySet().iterator();
+		while (iter.hasNext()) {
+			Motion motion = iter.next().getValue();
+			String id = motion.trackData.id;
+			synchronized (lockFor(id)) {
+				// Updated since, deltas keep the same TrackData but rebase it and start a new motion
+				if (motions.get(id) != motion) {
+					continue;
+				}
+				long elapsed = now - motion.time;
+				boolean expired = (elapsed >= maxExtrapolation);
+				if (expired) {
+					elapsed = maxExtrapolation;
+				}
+				int x = clamp(motion.baseX + (int) Math.round(motion.vx * elapsed), limit);
+				int y = clamp(motion.baseY + (int) Math.round(motion.vy * elapsed), limit);
+
+				// Replaced or removed since, the new value has its own motion if any
+				if (!grid.moveReckoned(motion.trackData, x, y) || expired) {
+					motions.remove(id, motion);
+				}
+			}
+		}
+	}
+
+	private static int clamp(int value, int limit) {
+		if (value < 0) {
+			return 0;
+		} else if (value >= limit) {
+			return limit - 1;
+		}
+		return value;
+	}
+}
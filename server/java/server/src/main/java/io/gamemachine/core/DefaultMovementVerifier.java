@@ -2,59 +2,91 @@ package io.gamemachine.core;
 
 import io.gamemachine.messages.TrackData;
 
-import java.util.concurrent.ConcurrentHashMap;
-
+/*
+ * Basic speed hack prevention.  A move is rejected when the distance from the oldest position in the last windowMs to the new
+ * one is more then maxUnitsPerSecond allows for the time in between.  Comparing against a position up to a window back instead
+ * of the last one evens out jitter in when updates arrive, while still catching short bursts of speed.
+ *
+ * Elapsed time is never taken as less then MIN_ELAPSED ms, updates that arrive bunched together would otherwise look
+ * infinitely fast.  A sample is only kept every windowMs / WINDOW ms.
+ */
 public class DefaultMovementVerifier implements MovementVerifier {
 
-	private ConcurrentHashMap<String, TrackData> trackdatas = new ConcurrentHashMap<String, TrackData>();
-	private ConcurrentHashMap<String, Long> lastUpdates = new ConcurrentHashMap<String, Long>();
-	private double maxUnitsPerSecond;
+	public static final int WINDOW = 8;
+	public static final long MIN_ELAPSED = 100;
 
-	private double distance(float px, float py, float x, float y) {
-		return Math.sqrt(Math.pow(x - px, 2) + Math.pow(y - py, 2));
-	}
+	private final MovementState state = new MovementState(WINDOW);
+	private final double maxUnitsPerSecond;
+	private final long windowMs;
+	private final long sampleInterval;
 
 	public DefaultMovementVerifier(double maxUnitsPerSecond) {
+		this(maxUnitsPerSecond, 1000);
+	}
+
+	public DefaultMovementVerifier(double maxUnitsPerSecond, long windowMs) {
 		this.maxUnitsPerSecond = maxUnitsPerSecond;
+		this.windowMs = windowMs;
+		this.sampleInterval = windowMs / WINDOW;
 	}
 
 	@Override
 	public boolean verify(TrackData trackData) {
-		if (!trackdatas.containsKey(trackData.id)) {
-			trackdatas.put(trackData.id, trackData);
-			lastUpdates.put(trackData.id, System.currentTimeMillis());
+		// Deltas carry no position, NavMovementVerifier resolves them and calls verify with the position
+		if (trackData.x == null || trackData.y == null) {
 			return true;
 		}
+		return verify(trackData.id, trackData.x, trackData.y);
+	}
 
-		// verify once per second, every update is a waste of cpu
-		Long lastUpdate = lastUpdates.get(trackData.id);
-		double seconds = (System.currentTimeMillis() - lastUpdate) / 1000;
-		if (seconds >= 1.0) {
-			TrackData previous = trackdatas.get(trackData.id);
+	@Override
+	public boolean verify(String id, int x, int y) {
+		long now = System.currentTimeMillis();
 
-			// check distance traveled over time (basic speed hack prevention)
-			double distance = distance(previous.x, previous.y, trackData.x, trackData.y);
-			double unitsPerSecond = distance / seconds;
-			if (unitsPerSecond > maxUnitsPerSecond) {
-				return false;
+		MovementState.Stripe stripe = state.stripe(id);
+		synchronized (stripe) {
+			int slot = stripe.find(id);
+			if (slot == MovementState.NONE) {
+				slot = stripe.allocate(id);
+				stripe.add(slot, x, y, now);
+				return true;
+			}
+
+			// Oldest sample still in the window, or the latest one if they are all older
+			int age = 0;
+			for (int i = stripe.count(slot) - 1; i > 0; i--) {
+				if (now - stripe.time(slot, i) <= windowMs) {
+					age = i;
+					break;
+				}
 			}
 
-			// TODO check valid movement.
-			// using pathfinding, pre calculate every possible move and save it
-			// somewhere.
-			// At startup load the data and use it to check for valid movement.
-			// Can also modify it
-			// at runtime if needed.
+			long elapsed = Math.max(now - stripe.time(slot, age), MIN_ELAPSED);
+			double allowed = maxUnitsPerSecond * elapsed / 1000d;
+			double dx = x - stripe.x(slot, age);
+			double dy = y - stripe.y(slot, age);
+			if (dx * dx + dy * dy > allowed * allowed) {
+				return false;
+			}
 
-			// In addition, check for other objects that occupy the coordinates
-			// the player is trying to move to, and
-			// deny if they are occupied. Need to look at most cost effective
-			// way to do this.
+			// TODO check for other objects that occupy the coordinates the player is trying to move to, and deny if they are
+			// occupied. Need to look at most cost effective way to do this.
 
-			trackdatas.put(trackData.id, trackData);
-			lastUpdates.put(trackData.id, System.currentTimeMillis());
+			if (now - stripe.time(slot, 0) >= sampleInterval) {
+				stripe.add(slot, x, y, now);
+			}
 		}
 		return true;
 	}
 
+	@Override
+	public void remove(String id) {
+		state.remove(id);
+	}
+
+	@Override
+	public void reset(String id, int x, int y) {
+		state.reset(id, x, y, System.currentTimeMillis());
+	}
+
 }
@@ -0,0 +1,174 @@
+package io.gamemachine.core;
+
+import java.util.Arrays;
+
+/*
+ * What one observer was last sent about each target, keyed by the target's short id.  Open addressing with linear probing
+ * over parallel primitive arrays, so an entry is a few ints and longs instead of a map entry plus a cloned TrackData.
+ *
+ * Short id 0 is never handed out, so it marks an empty slot.  Removal shifts later entries of the probe chain back
+ * instead of leaving tombstones.
+ *
+ * Not thread safe, callers synchronize on the table.
+ */
+public class DeltaTable {
+
+	public static final int EMPTY = 0;
+
+	// seen value for entries whose target left the grid, its short id may already belong to someone else
+	public static final long RELEASED = -1l;
+
+	private int[] targets;
+	private int[] xs;
+	private int[] ys;
+	private long[] times;
+	private long[] seen;
+	private int mask;
+	private int size = 0;
+
+	public DeltaTable(int capacity) {
+		int tableSize = Integer.highestOneBit(Math.max(8, capacity) - 1) << 1;
+		allocate(tableSize);
+	}
+
+	private void allocate(int tableSize) {
+		targets = new int[tableSize];
+		xs = new int[tableSize];
+		ys = new int[tableSize];
+		times = new long[tableSize];
+		seen = new long[tableSize];
+		mask = tableSize - 1;
+	}
+
+	private static int home(int target, int mask) {
+		int h = target * 0x9E3779B9;
+		return (h ^ (h >>> 16)) & mask;
+	}
+
+	public int find(int target) {
+		int i = home(target, mask);
+		while (targets[i] != EMPTY) {
+			if (targets[i] == target) {
+				return i;
+			}
+			i = (i + 1) & mask;
+		}
+		return -1;
+	}
+
+	public int insert(int target, int x, int y, long time, long query) {
+		if ((size + 1) * 2 > targets.length) {
+			grow();
+		}
+		int i = home(target, mask);
+		while (targets[i] != EMPTY && targets[i] != target) {
+			i = (i + 1) & mask;
+		}
+		if (targets[i] == EMPTY) {
+			size++;
+		}
+		targets[i] = target;
+		xs[i] = x;
+		ys[i] = y;
+		times[i] = time;
+		seen[i] = query;
+		return i;
+	}
+
+	private void grow() {
+		int[] oldTargets = targets;
+		int[] oldXs = xs;
+		int[] oldYs = ys;
+		long[] oldTimes = times;
+		long[] oldSeen = seen;
+		allocate(oldTargets.length * 2);
+		size = 0;
+		for (int i = 0; i < oldTargets.length; i++) {
+			if (oldTargets[i] != EMPTY) {
+				insert(oldTargets[i], oldXs[i], oldYs[i], oldTimes[i], oldSeen[i]);
+			}
+		}
+	}
+
+	public void remove(int target) {
+		int i = find(target);
+		if (i != -1) {
+			removeAt(i);
+		}
+	}
+
+	public void removeAt(int i) {
+		size--;
+		int hole = i;
+		int j = i;
+		while (true) {
+			j = (j + 1) & mask;
+			if (targets[j] == EMPTY) {
+				break;
+			}
+			int h = home(targets[j], mask);
+
+			// Move j into the hole unless its home lies cyclically in (hole, j]
+			boolean stays = (hole <= j) ? (hole < h && h <= j) : (hole < h || h <= j);
+			if (!stays) {
+				targets[hole] = targets[j];
+				xs[hole] = xs[j];
+				ys[hole] = ys[j];
+				times[hole] = times[j];
+				seen[hole] = seen[j];
+				hole = j;
+			}
+		}
+		targets[hole] = EMPTY;
+	}
+
+	public void markReleased(int target) {
+		int i = find(target);
+		if (i != -1) {
+			seen[i] = RELEASED;
+		}
+	}
+
+	public void update(int i, int x, int y, long time) {
+		xs[i] = x;
+		ys[i] = y;
+		times[i] = time;
+	}
+
+	public void clear() {
+		Arrays.fill(targets, EMPTY);
+		size = 0;
+	}
+
+	public int capacity() {
+		return targets.length;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public int target(int i) {
+		return targets[i];
+	}
+
+	public int x(int i) {
+		return xs[i];
+	}
+
+	public int y(int i) {
+		return ys[i];
+	}
+
+	public long time(int i) {
+		return times[i];
+	}
+
+	public long seen(int i) {
+		return seen[i];
+	}
+
+	public void setSeen(int i, long query) {
+		seen[i] = query;
+	}
+}
@@ -4,7 +4,6 @@ import io.gamemachine.messages.AgentTrackData;
 import io.gamemachine.messages.ClientManagerEvent;
 import io.gamemachine.messages.DynamicMessage;
 import io.gamemachine.messages.Entity;
-import io.gamemachine.messages.Neighbors;
 import io.gamemachine.messages.Player;
 import io.gamemachine.messages.TrackData;
 import io.gamemachine.messages.TrackDataResponse;
@@ -12,28 +11,98 @@ import io.gamemachine.messages.TrackDataUpdate;
 import io.gamemachine.messages.TrackData.EntityType;
 import io.gamemachine.objectdb.Cache;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import akka.actor.ActorSelection;
 import akka.actor.UntypedActor;
+import akka.routing.ConsistentHashingRouter.ConsistentHashMapper;
 
 public class EntityTracking extends UntypedActor {
 
 	private static final Logger logger = LoggerFactory.getLogger(EntityTracking.class);
 	private static MovementVerifier movementVerifier = null;
+	private static ConcurrentHashMap<String, AtomicLong> rejectedMoves = new ConcurrentHashMap<String, AtomicLong>();
 	private static ConcurrentHashMap<String,Cache<String, DynamicMessage>> dynamicMessageCaches = new ConcurrentHashMap<String,Cache<String, DynamicMessage>>();
 
 	public static String name = "fastpath_entity_tracking";
 
+	/*
+	 * Used when entity tracking is sharded.  Updates are keyed by entity id, so all updates for an entity are applied in order by
+	 * one routee, including those that move it across a block edge of the grid's ShardedGridIndex.  Messages that carry several
+	 * entities, such as agent batches and delta updates, and disconnects are keyed by player id.
+	 */
+	public static final ConsistentHashMapper shardKeyMapper = new ConsistentHashMapper() {
+		@Override
+		public Object hashKey(Object message) {
+			return shardKey(message);
+		}
+	};
+
+	public static String shardKey(Object message) {
+		if (message instanceof TrackData) {
+			return ((TrackData) message).id;
+		} else if (message instanceof Entity) {
+			Entity entity = (Entity) message;
+			if (entity.hasTrackData() && !entity.hasAgentTrackData() && !entity.hasTrackDataUpdate()) {
+				return entity.trackData.id;
+			}
+			return entity.player.id;
+		} else if (message instanceof ClientManagerEvent) {
+			return ((ClientManagerEvent) message).player_id;
+		} else {
+			return "";
+		}
+	}
+
 	public EntityTracking() {
 		Commands.clientManagerRegister(name);
 	}
 
+	// Checks PLAYER updates before they are set, null disables verification
+	public static void setMovementVerifier(MovementVerifier verifier) {
+		movementVerifier = verifier;
+	}
+
+	/*
+	 * Call after moving a player server side, such as a teleport, respawn or zone transfer.  Movement is verified from the
+	 * last accepted position, which would otherwise reject every move from the new one.
+	 */
+	public static void resetMovement(String id, int x, int y) {
+		MovementVerifier verifier = movementVerifier;
+		if (verifier != null) {
+			verifier.reset(id, x, y);
+		}
+	}
+
+	// Updates the movement verifier rejected since startup, per game
+	public static long getRejectedMoves(String gameId) {
+		AtomicLong count = rejectedMoves.get(gameId);
+		return (count == null) ? 0 : count.get();
+	}
+
+	public static Map<String, AtomicLong> getRejectedMoves() {
+		return rejectedMoves;
+	}
+
+	private static void rejectedMove(String gameId) {
+		if (gameId == null) {
+			return;
+		}
+		AtomicLong count = rejectedMoves.get(gameId);
+		if (count == null) {
+			rejectedMoves.putIfAbsent(gameId, new AtomicLong());
+			count = rejectedMoves.get(gameId);
+		}
+		count.incrementAndGet();
+	}
+
 	private static Cache<String, DynamicMessage> getDynamicMessageCache(String gameId) {
 		Cache<String, DynamicMessage> cache = dynamicMessageCaches.get(gameId);
 		if (cache == null) {
@@ -99,12 +168,76 @@ public class EntityTracking extends UntypedActor {
 		}
 	}
 
+	/*
+	 * Agent controllers send hundreds of entities per message.  The game, grids and dynamic message cache are resolved once, entries
+	 * are grouped by grid and set with Grid.setBatch, and all responses go back to the agent controller together.
+	 */
 	private void handleAgentTrackData(AgentTrackData agentTrackData, Player player) {
-		Grid agentGrid;
+		String gameId = PlayerService.getInstance().getGameId(player.id);
+		if (gameId == null) {
+			return;
+		}
+		Cache<String, DynamicMessage> cache = getDynamicMessageCache(gameId);
+		Map<String, List<TrackData>> batches = new HashMap<String, List<TrackData>>();
+		List<TrackDataResponse> responses = new ArrayList<TrackDataResponse>();
+
 		for (TrackData trackData : agentTrackData.getTrackDataList()) {
-			agentGrid = gameGrid(player.id, trackData.gridName);
-			setEntityLocation(player.id, agentGrid, trackData);
+			String gridName = (trackData.gridName == null) ? "default" : trackData.gridName;
+
+			if (trackData.x != null && trackData.x == -1 && trackData.y == -1) {
+				Grid grid = GameGrid.getGameGrid(gameId, gridName);
+				if (grid != null) {
+					grid.remove(trackData.id);
+				}
+				responses.add(trackDataResponse(trackData.id, TrackDataResponse.REASON.REMOVED));
+				continue;
+			}
+
+			if (trackData.entityType == EntityType.PLAYER) {
+				if (!trackData.id.equals(player.id)) {
+					continue;
+				}
+				if (movementVerifier != null && !movementVerifier.verify(trackData)) {
+					rejectedMove(gameId);
+					responses.add(trackDataResponse(trackData.id, TrackDataResponse.REASON.VALIDATION_FAILED));
+					continue;
+				}
+			}
+
+			DynamicMessage dynamicMessage = cache.get(trackData.getId());
+			if (dynamicMessage != null) {
+				trackData.setDynamicMessage(dynamicMessage);
+			}
+
+			List<TrackData> batch = batches.get(gridName);
+			if (batch == null) {
+				batch = new ArrayList<TrackData>();
+				batches.put(gridName, batch);
+			}
+			batch.add(trackData);
+		}
+
+		for (Map.Entry<String, List<TrackData>> entry : batches.entrySet()) {
+			Grid grid = GameGrid.getGameGrid(gameId, entry.getKey());
+			if (grid == null) {
+				logger.warn("No grid found for " + player.id);
+				continue;
+			}
+			for (TrackData trackData : grid.setBatch(entry.getValue())) {
+				responses.add(trackDataResponse(trackData.id, TrackDataResponse.REASON.RESEND));
+			}
 		}
+
+		if (responses.size() >= 1) {
+			PlayerCommands.sendTrackDataResponses(player.id, responses);
+		}
+	}
+
+	private TrackDataResponse trackDataResponse(String id, TrackDataResponse.REASON reason) {
+		TrackDataResponse response = new TrackDataResponse();
+		response.id = id;
+		response.reason = reason;
+		return response;
 	}
 	
 	private void handleTrackData(TrackData trackData, Player player) {
@@ -117,8 +250,16 @@ public class EntityTracking extends UntypedActor {
 
 		setEntityLocation(player.id, grid, trackData);
 
+		// getNeighbors selects the query, see Grid.NEIGHBORS_*
 		if (trackData.hasGetNeighbors() && trackData.getNeighbors >= 1) {
-			SendNeighbors(grid, trackData.x, trackData.y, player, trackData.neighborEntityType,trackData.getNeighbors);
+			GridInterest interest = grid.getInterest();
+			if (interest != null) {
+				// Sent on the grid's next tick by InterestManager
+				interest.subscribe(player, trackData.id, trackData.neighborEntityType, trackData.getNeighbors);
+			} else {
+				int z = (trackData.z == null) ? 0 : trackData.z;
+				SendNeighbors(grid, trackData.x, trackData.y, z, player, trackData.neighborEntityType,trackData.getNeighbors);
+			}
 		}
 	}
 
@@ -135,6 +276,9 @@ public class EntityTracking extends UntypedActor {
 	}
 
 	private void removePlayerData(ClientManagerEvent event) {
+		if (movementVerifier != null) {
+			movementVerifier.remove(event.player_id);
+		}
 		String gameId = PlayerService.getInstance().getGameId(event.player_id);
 		if (gameId == null) {
 			return;
@@ -153,7 +297,7 @@ public class EntityTracking extends UntypedActor {
 
 	}
 
-	private void SendNeighbors(Grid grid, int x, int y, Player player, EntityType neighborType, int neighborsFlag) {
+	private void SendNeighbors(Grid grid, int x, int y, int z, Player player, EntityType neighborType, int neighborsFlag) {
 		List<TrackData> trackDatas;
 		boolean isAgentController = (player.getRole().equals("agent_controller"));
 
@@ -164,40 +308,12 @@ public class EntityTracking extends UntypedActor {
 			}
 			trackDatas = grid.getAll();
 		} else {
-			trackDatas = grid.neighbors(player.id, x, y, neighborType, neighborsFlag);
+			trackDatas = grid.neighbors(player.id, x, y, z, neighborType, neighborsFlag, 0);
 		}
 
 		if (trackDatas.size() >= 1) {
-			toNeighbors(player, trackDatas, isAgentController);
-		}
-	}
-
-	private void SendToGateway(Player player, Neighbors neighbors) {
-		Entity playerMessage = new Entity();
-		playerMessage.setNeighbors(neighbors);
-		playerMessage.setPlayer(player);
-		playerMessage.setId(player.id);
-		ActorSelection sel = ActorUtil.getSelectionByName(player.id);
-		sel.tell(playerMessage, getSelf());
-	}
-
-		
-	private void toNeighbors(Player player, List<TrackData> trackDatas, boolean isAgentController) {
-		Neighbors neighbors = new Neighbors();
-		int size = 30;
-		int count = 0;
-
-		for (TrackData trackData : trackDatas) {
-			neighbors.addTrackData(trackData);
-
-			count++;
-			if (count >= size) {
-				SendToGateway(player, neighbors);
-				count = 0;
-				neighbors = new Neighbors();
-			}
+			PlayerCommands.sendNeighbors(player, trackDatas);
 		}
-		SendToGateway(player, neighbors);
 	}
 
 	private void setEntityLocation(String playerId, Grid grid, TrackData trackData) {
@@ -216,6 +332,7 @@ public class EntityTracking extends UntypedActor {
 			}
 			if (movementVerifier != null) {
 				if (!movementVerifier.verify(trackData)) {
+					rejectedMove(PlayerService.getInstance().getGameId(playerId));
 					PlayerCommands.sendTrackDataResponse(playerId, trackData.id, TrackDataResponse.REASON.VALIDATION_FAILED);
 					return;
 				}
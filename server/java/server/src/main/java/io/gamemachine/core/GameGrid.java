@@ -1,5 +1,6 @@
 package io.gamemachine.core;
 
+import io.gamemachine.config.AppConfig;
 import io.gamemachine.config.GameConfig;
 import io.gamemachine.config.AppConfig.GridConfig;
 
@@ -9,6 +10,8 @@ import java.util.concurrent.ConcurrentHashMap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import akka.actor.Props;
+
 public class GameGrid {
 
 	private static final Logger logger = LoggerFactory.getLogger(GameGrid.class);
@@ -55,16 +58,54 @@ public class GameGrid {
 			return null;
 		}
 
+		int shardCells = 0;
+		if (AppConfig.Tracking.isSharded()) {
+			shardCells = config.getIntOption("shard_cells", Grid.DEFAULT_SHARD_CELLS);
+		}
+
 		Grid existing = gameGrids.get(gameId).get(config.getName());
 		if (existing != null) {
-			if (existing.getMax() == config.getGridSize() && existing.getCellSize() == config.getCellSize()) {
+			if (existing.getMax() == config.getGridSize() && existing.getCellSize() == config.getCellSize()
+					&& existing.getIndexType().equals(config.getIndexType())
+					&& existing.getMaxShortIds() == config.getIntOption("max_ids", Grid.DEFAULT_MAX_SHORT_IDS)
+					&& existing.getShardCells() == shardCells) {
 				logger.debug("existing grid with same settings " + config.getName());
 				return existing;
 			}
 		}
 
-		Grid gameGrid = new Grid(config.getGridSize(), config.getCellSize());
+		Grid gameGrid = new Grid(config.getGridSize(), config.getCellSize(), config.getIndexType(),
+				config.getIntOption("max_ids", Grid.DEFAULT_MAX_SHORT_IDS), shardCells);
+		gameGrid.setQueryRadius(config.getIntOption("radius", config.getCellSize()));
+		gameGrid.setNearestCount(config.getIntOption("nearest", gameGrid.getNearestCount()));
+		gameGrid.setCellHeight(config.getIntOption("height", 0));
+		int adaptiveInterval = config.getIntOption("adaptive", 0);
+		if (adaptiveInterval > 0) {
+			gameGrid.setAdaptiveRate(new AdaptiveRate(adaptiveInterval, config.getIntOption("adaptive_error", 2),
+					config.getIntOption("bandwidth", 0)));
+		}
 		gameGrids.get(gameId).put(config.getName(), gameGrid);
+
+		int tickInterval = config.getIntOption("tick", 0);
+		if (tickInterval > 0) {
+			GridInterest interest = new GridInterest(tickInterval, config.getIntOption("far", 0), config.getIntOption("far_ticks", 4));
+			gameGrid.setInterest(interest);
+			GameMachineLoader.getActorSystem().actorOf(Props.create(InterestManager.class, gameId, config.getName(), gameGrid));
+		}
+
+		int reckonInterval = config.getIntOption("reckon", 0);
+		if (reckonInterval > 0) {
+			gameGrid.enableDeadReckoning(config.getIntOption("reckon_max", 2000));
+			GameMachineLoader.getActorSystem().actorOf(
+					Props.create(DeadReckoner.class, gameId, config.getName(), gameGrid, reckonInterval));
+		}
+
+		int replicateInterval = config.getIntOption("replicate", 0);
+		if (replicateInterval > 0) {
+			gameGrid.enableDeltaLog(config.getIntOption("replicate_log", GridDeltaLog.DEFAULT_CAPACITY));
+			GameMachineLoader.getActorSystem().actorOf(
+					Props.create(GridReplicator.class, gameId, config.getName(), gameGrid, replicateInterval));
+		}
 		logger.debug("Grid created for " + gameId + " " + config.getName());
 		return gameGrid;
 	}
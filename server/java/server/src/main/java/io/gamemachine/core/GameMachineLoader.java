@@ -8,6 +8,7 @@ import io.gamemachine.objectdb.DbActor;
 import io.gamemachine.routing.Incoming;
 import io.gamemachine.routing.RequestHandler;
 
+import java.io.IOException;
 import java.util.ArrayList;
 
 import org.slf4j.Logger;
@@ -15,6 +16,7 @@ import org.slf4j.LoggerFactory;
 
 import akka.actor.ActorSystem;
 import akka.actor.Props;
+import akka.routing.ConsistentHashingPool;
 import akka.routing.RoundRobinPool;
 
 public class GameMachineLoader {
@@ -28,9 +30,46 @@ public class GameMachineLoader {
 		return actorSystem;
 	}
 
-	// TODO move router count to a config
 	public static void StartEntityTracking() {
-		actorSystem.actorOf(new RoundRobinPool(30).props(Props.create(EntityTracking.class)), EntityTracking.name);
+		int routerSize = AppConfig.Tracking.getRouterSize();
+		if (AppConfig.Tracking.isSharded()) {
+			actorSystem.actorOf(
+					new ConsistentHashingPool(routerSize).withHashMapper(EntityTracking.shardKeyMapper).props(
+							Props.create(EntityTracking.class)), EntityTracking.name);
+		} else {
+			actorSystem.actorOf(new RoundRobinPool(routerSize).props(Props.create(EntityTracking.class)), EntityTracking.name);
+		}
+		setMovementVerifier();
+	}
+
+	// Movement verification is off unless movement.max_speed is set
+	private static void setMovementVerifier() {
+		int maxSpeed = AppConfig.Movement.getMaxSpeed();
+		if (maxSpeed <= 0) {
+			return;
+		}
+		MovementVerifier verifier = new DefaultMovementVerifier(maxSpeed * NavMovementVerifier.SCALE);
+		if (AppConfig.Movement.isNavigation()) {
+			String path = AppConfig.Movement.getNavigationPath();
+			try {
+				verifier = new NavMovementVerifier(WalkabilityMap.load(path), verifier);
+			} catch (IOException e) {
+				logger.warn("Unable to load navigation data from " + path + ", verifying speed only", e);
+			}
+		}
+		EntityTracking.setMovementVerifier(verifier);
+	}
+
+	// Applies grid deltas sent by GridReplicator on other nodes
+	public static void StartGridReplication() {
+		actorSystem.actorOf(Props.create(GridReplicaManager.class), GridReplicaManager.name);
+	}
+
+	// Restores grids from the last snapshot and keeps writing new ones, if grid_snapshot.interval is set
+	public static void StartGridSnapshots() {
+		if (AppConfig.GridSnapshot.getInterval() > 0) {
+			actorSystem.actorOf(Props.create(GridSnapshotter.class), GridSnapshotter.name);
+		}
 	}
 
 	public static void startObjectDb(int nodeCount) {
@@ -1,21 +1,46 @@
 package io.gamemachine.core;
 
 /*
- * Implements fast 2d spatial hashing.  Neighbor queries return all entities that are in our cell and neighboring cells.  The bounding is a box not a radius,
- * so there is no way to get all entities within an exact range.  This is normally not an issue for large numbers of entities in a large open space, and if you are
- * working with a small number of entities you can afford to do additional filtering client side.
+ * Implements fast 2d spatial hashing.  Neighbor queries return all entities that are in our cell and neighboring cells.  The bounding is a box not a radius.
+ * For an exact range use neighborsWithinRadius, or kNearest for the closest k entities.  Both only walk the cells the search circle touches and cull
+ * with squared distances.  Clients can ask for these through TrackData.getNeighbors, see NEIGHBORS_RADIUS and NEIGHBORS_NEAREST.
  * 
  * Grids are instantiated with a size and a cell size.  The grid is divided into cells of cell size.  The cell size must divide evenly into the grid size.
  * 
+ * With a cell height set the grid also splits space vertically into layers of cell height, using TrackData.z.  Neighbor queries that are given the
+ * observer's z then only return entities in the observer's layer and the layers directly above and below, so crowds on different floors do not
+ * see each other.
+ * 
  * Internally all coordinates are stored as integers with a precision scale of scaleFactor.  Clients do the math to convert floats to integers and back to floats.
  * Space is more important then precision here.
  * 
  * When possible we send delta's to clients instead of full coordinates,and clients can send us delta's of their movement instead of full coordinates.  We know to send
  * a delta when we have recently sent info to the client on the same entity.  If a client has not seen an entity recently we send the full coordinates.
  * 
+ * With NEIGHBORS_DIFF the grid remembers what each client can currently see, and only sends what changed since the last query.  Entities that
+ * came into range are sent with full coordinates, entities that moved are sent as deltas and entities that did not move are left out.  Entities
+ * that went out of range are sent with just the shortId and x and y set to -1, the same way clients tell us an entity was removed.
+ * 
  * Clients should initially send a TrackData with full coordinates.  The entity tracking system will send the client a TrackDataResponse with
  * reason RESEND if we do not have a full coordinate yet.
  * 
+ * Storage of which entity is in which cell is delegated to a GridIndex.  The default is HashGridIndex, ArrayGridIndex keeps everything
+ * in primitive arrays and is selected per grid in the grid config with index=array.  index=hierarchical selects HierarchicalGridIndex, which groups
+ * cells into blocks so grids with a small cell size over a large, mostly empty world stay cheap.
+ * 
+ * When entity tracking is sharded the index is a ShardedGridIndex, which splits the grid into blocks of shardCells x shardCells cells, each
+ * with its own index.  shardFor gives the block for a position.
+ * 
+ * Grids with an AdaptiveRate send far away and slow entities to each observer less often in delta and diff queries, the skipped
+ * movement is included in the next delta that is sent.
+ * 
+ * Grids with dead reckoning enabled keep moving entities that reported a velocity and direction between their updates, see DeadReckoning.
+ * 
+ * Gameplay systems that need to know when entities change cells, or enter and leave an area such as a region or an aggro radius, register
+ * with the grid's GridEvents instead of polling, see enableEvents.
+ * 
+ * Grids with replicate=ms set keep a GridDeltaLog that GridReplicator streams to other nodes.  Replicas of the same grid received from other nodes
+ * are attached with setReplica, and neighbor queries include their entities.
  * 
  * 
  * 
@@ -24,13 +49,15 @@ import io.gamemachine.messages.TrackData;
 import io.gamemachine.messages.TrackData.EntityType;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.PriorityBlockingQueue;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -43,96 +70,171 @@ public class Grid {
 	private int width;
 	private int cellCount;
 	private int scaleFactor = 100;
-	private int shortIdQueueSize = 1000;
+	private int initialCapacity = 1024;
+	private int queryRadius;
+	private int nearestCount = 30;
+	private int cellHeight = 0;
+
+	// Passed as z to neighbor queries that should ignore layers
+	public static final int NO_Z = Integer.MIN_VALUE;
+
+	// TrackData.getNeighbors values
+	public static final int NEIGHBORS_DELTA = 1;
+	public static final int NEIGHBORS_FULL = 2;
+	public static final int NEIGHBORS_RADIUS = 3;
+	public static final int NEIGHBORS_NEAREST = 4;
+	public static final int NEIGHBORS_DIFF = 5;
+
+	public static final int DEFAULT_MAX_SHORT_IDS = 65535;
+	public static final int DEFAULT_SHARD_CELLS = 8;
 
 	private static final Logger logger = LoggerFactory.getLogger(Grid.class);
 	
-	private PriorityBlockingQueue<Integer> shortIdQueue = new PriorityBlockingQueue<Integer>();	
+	private final ShortIdAllocator shortIdAllocator;
 	private ConcurrentHashMap<String, Integer> shortIds = new ConcurrentHashMap<String, Integer>();
-	private ConcurrentHashMap<String, ConcurrentHashMap<String, GridValue>> gridValues = new ConcurrentHashMap<String, ConcurrentHashMap<String, GridValue>>();
+	private volatile DeltaTable[] deltaTables = new DeltaTable[64];
+	private final Object deltaTablesLock = new Object();
+	private AtomicLong querySequence = new AtomicLong();
+
+	private final GridIndex index;
+	private final String indexType;
+	private final int shardCells;
+	private GridInterest interest = null;
+	private volatile GridDeltaLog deltaLog = null;
+	private AdaptiveRate adaptiveRate = null;
+	private volatile DeadReckoning deadReckoning = null;
+	private volatile GridEvents events = null;
+	private ConcurrentHashMap<String, Grid> replicas = new ConcurrentHashMap<String, Grid>();
+
+	private static final ThreadLocal<ArrayList<TrackData>> scratch = new ThreadLocal<ArrayList<TrackData>>() {
+		@Override
+		protected ArrayList<TrackData> initialValue() {
+			return new ArrayList<TrackData>();
+		}
+	};
+
+	/*
+	 * Delta TrackData returned by NEIGHBORS_DELTA and NEIGHBORS_DIFF queries come from a pool that the next such query on the
+	 * same thread reuses, so queries do not allocate one per observer and target.  Callers that keep the results longer copy
+	 * them with detachDeltas.
+	 */
+	private static class DeltaPool {
+		private TrackData[] deltas = new TrackData[64];
+		private int used = 0;
+
+		TrackData next() {
+			if (used == deltas.length) {
+				deltas = Arrays.copyOf(deltas, used * 2);
+			}
+			TrackData delta = deltas[used];
+			if (delta == null) {
+				delta = new TrackData();
+				deltas[used] = delta;
+			}
+			used++;
+			return delta;
+		}
+
+		void reset() {
+			used = 0;
+		}
+	}
 
-	private ConcurrentHashMap<String, TrackData> objectIndex = new ConcurrentHashMap<String, TrackData>();
-	private ConcurrentHashMap<String, Integer> cellsIndex = new ConcurrentHashMap<String, Integer>();
-	private ConcurrentHashMap<Integer, ConcurrentHashMap<String, TrackData>> cells = new ConcurrentHashMap<Integer, ConcurrentHashMap<String, TrackData>>();
+	private static final ThreadLocal<DeltaPool> deltaPool = new ThreadLocal<DeltaPool>() {
+		@Override
+		protected DeltaPool initialValue() {
+			return new DeltaPool();
+		}
+	};
 
 	public Grid(int max, int cellSize) {
+		this(max, cellSize, "hash");
+	}
+
+	public Grid(int max, int cellSize, String indexType) {
+		this(max, cellSize, indexType, DEFAULT_MAX_SHORT_IDS);
+	}
+
+	public Grid(int max, int cellSize, String indexType, int maxShortIds) {
+		this(max, cellSize, indexType, maxShortIds, 0);
+	}
+
+	// shardCells greater then zero splits the index into blocks, see ShardedGridIndex
+	public Grid(int max, int cellSize, String indexType, int maxShortIds, int shardCells) {
 		this.max = max;
 		this.cellSize = cellSize;
 		this.convFactor = 1.0f / this.cellSize;
 		this.width = (int) (this.max / this.cellSize);
 		this.cellCount = this.width * this.width;
-		
-		for(int i=1; i<this.shortIdQueueSize; i++){
-			shortIdQueue.put(i);
-		}
-	}
-
-	public class GridValue {
-
-		private TrackData trackData;
-		private int x;
-		private int y;
-		private long lastSend = System.currentTimeMillis();
+		this.queryRadius = cellSize;
 
-		public GridValue(TrackData trackData, int shortId) {
-			this.x = trackData.x;
-			this.y = trackData.y;
-
-			this.trackData = cloneTrackData(trackData);
-			this.trackData.shortId = shortId;
-			this.trackData.id = null;
+		if (indexType != null && indexType.equals("array")) {
+			this.indexType = "array";
+		} else if (indexType != null && indexType.equals("hierarchical")) {
+			this.indexType = "hierarchical";
+		} else {
+			this.indexType = "hash";
 		}
 
-		private TrackData cloneTrackData(TrackData trackData) {
-			TrackData clone = trackData.clone();
-			clone.x = null;
-			clone.y = null;
-			clone.z = null;
-			clone.getNeighbors = null;
-			clone.dynamicMessage = trackData.dynamicMessage;
-			clone.direction = trackData.direction;
-			clone.speed = trackData.speed;
-			clone.velocity = trackData.velocity;
-			return clone;
+		if (shardCells > 0) {
+			this.shardCells = shardCells;
+			this.index = new ShardedGridIndex(this.width, shardCells, this.indexType, this.initialCapacity);
+		} else if (this.indexType.equals("array")) {
+			this.shardCells = 0;
+			this.index = new ArrayGridIndex(this.cellCount, this.initialCapacity);
+		} else if (this.indexType.equals("hierarchical")) {
+			this.shardCells = 0;
+			this.index = new HierarchicalGridIndex(this.width);
+		} else {
+			this.shardCells = 0;
+			this.index = new HashGridIndex();
 		}
+
+		this.shortIdAllocator = new ShortIdAllocator(maxShortIds);
 	}
 
 	public void releaseShortId(String playerId) {
-		if (shortIds.containsKey(playerId)) {
-			int shortId = shortIds.get(playerId);
-			shortIdQueue.put(shortId);
-			shortIds.remove(playerId);
+		Integer shortId = shortIds.remove(playerId);
+		if (shortId != null) {
+			dropDeltaTable(shortId);
+			markReleased(shortId);
+			shortIdAllocator.release(shortId);
 		}
 	}
 	
 	public Integer getShortId(String playerId) {
-		if (shortIds.containsKey(playerId)) {
-			return shortIds.get(playerId);
-		} else {
-			try {
-				Integer shortId = shortIdQueue.poll(10, TimeUnit.MILLISECONDS);
-				if (shortId == null) {
-					logger.warn("Unable to get short id from queue");
-					return null;
-				}
-				
-				shortIds.put(playerId, shortId);
-				return shortId;
-			} catch (InterruptedException e) {
-				e.printStackTrace();
-				return null;
-			}
+		Integer shortId = shortIds.get(playerId);
+		if (shortId != null) {
+			return shortId;
+		}
+
+		int id = shortIdAllocator.allocate();
+		if (id == -1) {
+			logger.warn("Short ids exhausted, max is " + shortIdAllocator.getCeiling());
+			return null;
+		}
+
+		// Another thread may have assigned one for the same id in the meantime
+		shortId = shortIds.putIfAbsent(playerId, id);
+		if (shortId != null) {
+			shortIdAllocator.release(id);
+			return shortId;
 		}
+		return id;
+	}
+
+	public int getMaxShortIds() {
+		return shortIdAllocator.getCeiling();
 	}
 	
 	public void dumpGrid() {
-		for (TrackData td : objectIndex.values()) {
+		for (TrackData td : getAll()) {
 			System.out.println("id=" + td.id + " x=" + td.x / this.scaleFactor + " y=" + td.y / this.scaleFactor);
 		}
 	}
 
 	public int getObjectCount() {
-		return objectIndex.size();
+		return index.size();
 	}
 
 	public int getMax() {
@@ -147,17 +249,211 @@ public class Grid {
 		return this.width;
 	}
 
+	public int getScaleFactor() {
+		return this.scaleFactor;
+	}
+
 	public int getCellCount() {
 		return this.cellCount;
 	}
 
-	private ConcurrentHashMap<String, GridValue> gridValuesForPlayer(String playerId) {
-		ConcurrentHashMap<String, GridValue> playerGridValues = gridValues.get(playerId);
-		if (playerGridValues == null) {
-			playerGridValues = new ConcurrentHashMap<String, GridValue>();
-			gridValues.put(playerId, playerGridValues);
+	public String getIndexType() {
+		return this.indexType;
+	}
+
+	public int getShardCells() {
+		return this.shardCells;
+	}
+
+	/*
+	 * Block of the grid x and y fall in, scaled like TrackData coordinates.  Returns -1 if the grid is not sharded or the position
+	 * is outside of the grid.
+	 */
+	public int shardFor(int x, int y) {
+		if (this.shardCells == 0) {
+			return -1;
+		}
+		return ((ShardedGridIndex) index).shardFor(hash(x / this.scaleFactor, y / this.scaleFactor));
+	}
+
+	public GridInterest getInterest() {
+		return this.interest;
+	}
+
+	// Set when neighbor updates for this grid are sent on a tick, see InterestManager
+	public void setInterest(GridInterest interest) {
+		this.interest = interest;
+	}
+
+	public GridDeltaLog getDeltaLog() {
+		return this.deltaLog;
+	}
+
+	// Start recording changes for replication
+	public void enableDeltaLog(int capacity) {
+		this.deltaLog = new GridDeltaLog(capacity);
+	}
+
+	public void setReplica(String source, Grid replica) {
+		replicas.put(source, replica);
+	}
+
+	public void removeReplica(String source) {
+		replicas.remove(source);
+	}
+
+	public AdaptiveRate getAdaptiveRate() {
+		return this.adaptiveRate;
+	}
+
+	// Lowers how often delta and diff queries include far or slow entities, null sends everything on every query
+	public void setAdaptiveRate(AdaptiveRate adaptiveRate) {
+		this.adaptiveRate = adaptiveRate;
+	}
+
+	public DeadReckoning getDeadReckoning() {
+		return this.deadReckoning;
+	}
+
+	// Extrapolate entities that report a velocity and direction, see DeadReckoning.  Driven by a DeadReckoner
+	public void enableDeadReckoning(int maxExtrapolation) {
+		this.deadReckoning = new DeadReckoning(maxExtrapolation);
+	}
+
+	public void advanceReckoned() {
+		DeadReckoning reckoning = this.deadReckoning;
+		if (reckoning != null) {
+			reckoning.advance(this, System.currentTimeMillis(), this.max * this.scaleFactor);
+		}
+	}
+
+	/*
+	 * Moves trackData for DeadReckoning, unless it is no longer the grid's current value for its id.  Called with the id's
+	 * DeadReckoning lock held, which set, setBatch and remove also hold while they change the id, so the check and the
+	 * index write can not be split by an update.
+	 */
+	boolean moveReckoned(TrackData trackData, int x, int y) {
+		if (index.get(trackData.id) != trackData) {
+			return false;
+		}
+		trackData.x = x;
+		trackData.y = y;
+		int cell = hash(x / this.scaleFactor, y / this.scaleFactor);
+		index.set(trackData, cell);
+		if (events != null) {
+			events.moved(trackData, cell);
+		}
+		if (deltaLog != null) {
+			deltaLog.recordSet(trackData);
+		}
+		return true;
+	}
+
+	public GridEvents getEvents() {
+		return this.events;
+	}
+
+	// Starts publishing cell and watcher events, see GridEvents.  Calling it again returns the same GridEvents
+	public synchronized GridEvents enableEvents() {
+		if (this.events == null) {
+			this.events = new GridEvents(this);
+		}
+		return this.events;
+	}
+
+	public int getCellHeight() {
+		return this.cellHeight;
+	}
+
+	// Vertical cell height in grid units, 0 turns layers off
+	public void setCellHeight(int cellHeight) {
+		this.cellHeight = cellHeight;
+	}
+
+	private int layer(int z) {
+		int height = this.cellHeight * this.scaleFactor;
+		int layer = z / height;
+		if (z < 0 && z % height != 0) {
+			layer--;
+		}
+		return layer;
+	}
+
+	// Removes entries from start on that are more then one layer above or below z
+	private void dropOtherLayers(int z, List<TrackData> trackDatas, int start) {
+		if (this.cellHeight == 0 || z == NO_Z) {
+			return;
+		}
+		int observerLayer = layer(z);
+		for (int i = trackDatas.size() - 1; i >= start; i--) {
+			TrackData trackData = trackDatas.get(i);
+			int entityLayer = layer((trackData.z == null) ? 0 : trackData.z);
+			if (entityLayer < observerLayer - 1 || entityLayer > observerLayer + 1) {
+				trackDatas.remove(i);
+			}
+		}
+	}
+
+	public int getQueryRadius() {
+		return this.queryRadius;
+	}
+
+	// Radius in grid units used for NEIGHBORS_RADIUS requests
+	public void setQueryRadius(int queryRadius) {
+		this.queryRadius = queryRadius;
+	}
+
+	public int getNearestCount() {
+		return this.nearestCount;
+	}
+
+	// Number of entities returned for NEIGHBORS_NEAREST requests
+	public void setNearestCount(int nearestCount) {
+		this.nearestCount = nearestCount;
+	}
+
+	/*
+	 * Delta state is kept per observer in a DeltaTable indexed by the observer's short id, each holding what was last sent
+	 * about every target by the target's short id.
+	 */
+	private DeltaTable deltaTable(int observer) {
+		DeltaTable[] tables = deltaTables;
+		if (observer < tables.length && tables[observer] != null) {
+			return tables[observer];
+		}
+
+		synchronized (deltaTablesLock) {
+			tables = deltaTables;
+			if (observer >= tables.length) {
+				tables = Arrays.copyOf(tables, Math.max(observer + 1, tables.length * 2));
+			}
+			if (tables[observer] == null) {
+				tables[observer] = new DeltaTable(16);
+			}
+			deltaTables = tables;
+			return tables[observer];
+		}
+	}
+
+	private void dropDeltaTable(int observer) {
+		synchronized (deltaTablesLock) {
+			DeltaTable[] tables = deltaTables;
+			if (observer < tables.length) {
+				tables[observer] = null;
+			}
+			deltaTables = tables;
+		}
+	}
+
+	// Observers still hold state for the released id, which may be handed to another entity before they query again
+	private void markReleased(int target) {
+		for (DeltaTable table : deltaTables) {
+			if (table != null) {
+				synchronized (table) {
+					table.markReleased(target);
+				}
+			}
 		}
-		return playerGridValues;
 	}
 
 	public Set<Integer> cellsWithinBounds(int x, int y) {
@@ -183,89 +479,405 @@ public class Grid {
 		return cells;
 	}
 
+	// Same cells as cellsWithinBounds, without building the set
+	private void collectWithinBounds(int x, int y, EntityType entityType, List<TrackData> trackDatas) {
+		if (x < 0 || y < 0) {
+			return;
+		}
+		int endRow = cellCoord(x);
+		int endCol = cellCoord(y);
+		int startRow = (x - this.cellSize >= 0) ? cellCoord(x - this.cellSize) : endRow;
+		int startCol = (y - this.cellSize >= 0) ? cellCoord(y - this.cellSize) : endCol;
+
+		for (int row = startRow; row <= endRow; row++) {
+			for (int col = startCol; col <= endCol; col++) {
+				index.collect(row + col * this.width, entityType, trackDatas);
+			}
+		}
+	}
+
+	private int cellCoord(int value) {
+		return (int) (value * this.convFactor);
+	}
+
+	private int clampCellCoord(int value) {
+		int coord = cellCoord(value);
+		if (coord < 0) {
+			return 0;
+		} else if (coord >= this.width) {
+			return this.width - 1;
+		}
+		return coord;
+	}
+
+	// x, y and radius are scaled like TrackData coordinates
+	private void collectWithinRadius(int x, int y, int radius, EntityType entityType, List<TrackData> trackDatas) {
+		long radiusSquared = (long) radius * radius;
+		int cellWidth = this.cellSize * this.scaleFactor;
+		int startRow = clampCellCoord((x - radius) / this.scaleFactor);
+		int endRow = clampCellCoord((x + radius) / this.scaleFactor);
+		int startCol = clampCellCoord((y - radius) / this.scaleFactor);
+		int endCol = clampCellCoord((y + radius) / this.scaleFactor);
+
+		for (int row = startRow; row <= endRow; row++) {
+			long dx = distanceToSpan(x, row * cellWidth, cellWidth);
+			for (int col = startCol; col <= endCol; col++) {
+				long dy = distanceToSpan(y, col * cellWidth, cellWidth);
+
+				// Skip corner cells of the bounding box that the circle does not reach
+				if (dx * dx + dy * dy > radiusSquared) {
+					continue;
+				}
+				index.collectWithinRadius(row + col * this.width, entityType, x, y, radiusSquared, trackDatas);
+			}
+		}
+	}
+
+	private long distanceToSpan(int value, int start, int length) {
+		if (value < start) {
+			return start - value;
+		} else if (value >= start + length) {
+			return value - (start + length - 1);
+		}
+		return 0;
+	}
+
+	private void collectNearest(String excludeId, final int x, final int y, int z, int k, EntityType entityType, List<TrackData> trackDatas) {
+		int maxRadius = this.max * this.scaleFactor * 2;
+		int radius = this.cellSize * this.scaleFactor;
+		int start = trackDatas.size();
+
+		while (true) {
+			collectWithinRadius(x, y, radius, entityType, trackDatas);
+			if (excludeId != null) {
+				for (int i = trackDatas.size() - 1; i >= start; i--) {
+					if (trackDatas.get(i).id.equals(excludeId)) {
+						trackDatas.remove(i);
+						break;
+					}
+				}
+			}
+			dropOtherLayers(z, trackDatas, start);
+
+			// k found within radius means the k nearest are all within radius
+			if (trackDatas.size() - start >= k || radius >= maxRadius) {
+				break;
+			}
+			while (trackDatas.size() > start) {
+				trackDatas.remove(trackDatas.size() - 1);
+			}
+			radius *= 2;
+		}
+
+		sortByDistance(trackDatas.subList(start, trackDatas.size()), x, y);
+		while (trackDatas.size() - start > k) {
+			trackDatas.remove(trackDatas.size() - 1);
+		}
+	}
+
+	private static void sortByDistance(List<TrackData> trackDatas, final int x, final int y) {
+		Collections.sort(trackDatas, new Comparator<TrackData>() {
+			@Override
+			public int compare(TrackData a, TrackData b) {
+				long da = distanceSquared(a, x, y);
+				long db = distanceSquared(b, x, y);
+				return (da < db) ? -1 : ((da == db) ? 0 : 1);
+			}
+		});
+	}
+
+	/*
+	 * Adds candidates from replicas of this grid on other nodes.  Entities we also track locally are skipped, the local copy is
+	 * the most recent.
+	 */
+	private void collectFromReplicas(String playerId, int px, int py, int pz, EntityType entityType, int optsFlag, List<TrackData> trackDatas) {
+		int start = trackDatas.size();
+		for (Grid replica : replicas.values()) {
+			if (optsFlag == NEIGHBORS_RADIUS || optsFlag == NEIGHBORS_DIFF) {
+				replica.collectWithinRadius(px, py, this.queryRadius * this.scaleFactor, entityType, trackDatas);
+			} else if (optsFlag == NEIGHBORS_NEAREST) {
+				replica.collectNearest(playerId, px, py, pz, this.nearestCount, entityType, trackDatas);
+			} else {
+				replica.collectWithinBounds(px / this.scaleFactor, py / this.scaleFactor, entityType, trackDatas);
+			}
+		}
+
+		for (int i = trackDatas.size() - 1; i >= start; i--) {
+			if (index.get(trackDatas.get(i).id) != null) {
+				trackDatas.remove(i);
+			}
+		}
+		dropOtherLayers(pz, trackDatas, start);
+
+		if (optsFlag == NEIGHBORS_NEAREST && trackDatas.size() > start) {
+			sortByDistance(trackDatas, px, py);
+			while (trackDatas.size() > this.nearestCount) {
+				trackDatas.remove(trackDatas.size() - 1);
+			}
+		}
+	}
+
+	private static long distanceSquared(TrackData trackData, int x, int y) {
+		long dx = trackData.x - x;
+		long dy = trackData.y - y;
+		return dx * dx + dy * dy;
+	}
+
+	/*
+	 * All entities within radius of x,y.  All values are scaled like TrackData coordinates.
+	 */
+	public ArrayList<TrackData> neighborsWithinRadius(int x, int y, int radius, EntityType entityType) {
+		ArrayList<TrackData> result = new ArrayList<TrackData>();
+		collectWithinRadius(x, y, radius, entityType, result);
+		return result;
+	}
+
+	/*
+	 * The k entities closest to x,y ordered by distance.  x and y are scaled like TrackData coordinates.
+	 */
+	public ArrayList<TrackData> kNearest(int x, int y, int k, EntityType entityType) {
+		ArrayList<TrackData> result = new ArrayList<TrackData>();
+		collectNearest(null, x, y, NO_Z, k, entityType, result);
+		return result;
+	}
+
 	public ArrayList<TrackData> neighbors(String playerId, int px, int py, EntityType entityType, int optsFlag) {
+		return neighbors(playerId, px, py, entityType, optsFlag, 0);
+	}
+
+	/*
+	 * When farRadius is greater then zero entities further away then farRadius grid units are left out.  They are skipped
+	 * before any delta state is touched, so the next update that includes them is still correct.
+	 */
+	public ArrayList<TrackData> neighbors(String playerId, int px, int py, EntityType entityType, int optsFlag, int farRadius) {
+		return neighbors(playerId, px, py, NO_Z, entityType, optsFlag, farRadius);
+	}
+
+	/*
+	 * pz is the observer's z, used to leave out other layers when the grid has a cell height.  NO_Z ignores layers.
+	 *
+	 * Deltas in the result are reused by the next NEIGHBORS_DELTA or NEIGHBORS_DIFF query on the same thread, see DeltaPool.
+	 */
+	public ArrayList<TrackData> neighbors(String playerId, int px, int py, int pz, EntityType entityType, int optsFlag, int farRadius) {
+		if (optsFlag == NEIGHBORS_DIFF) {
+			return visibleChanges(playerId, px, py, pz, entityType, farRadius);
+		}
+
 		int x = px / this.scaleFactor;
 		int y = py / this.scaleFactor;
 		ArrayList<TrackData> result;
 
-		Collection<TrackData> trackDatas;
+		ArrayList<TrackData> trackDatas = scratch.get();
 		result = new ArrayList<TrackData>();
-		Set<Integer> cells = cellsWithinBounds(x, y);
 		long currentTime = System.currentTimeMillis();
 
-		ConcurrentHashMap<String, GridValue> playerGridValues = gridValuesForPlayer(playerId);
+		trackDatas.clear();
+		if (optsFlag == NEIGHBORS_RADIUS) {
+			collectWithinRadius(px, py, this.queryRadius * this.scaleFactor, entityType, trackDatas);
+		} else if (optsFlag == NEIGHBORS_NEAREST) {
+			collectNearest(playerId, px, py, pz, this.nearestCount, entityType, trackDatas);
+		} else {
+			collectWithinBounds(x, y, entityType, trackDatas);
+		}
+		if (optsFlag != NEIGHBORS_NEAREST) {
+			dropOtherLayers(pz, trackDatas, 0);
+		}
+		if (!replicas.isEmpty()) {
+			collectFromReplicas(playerId, px, py, pz, entityType, optsFlag, trackDatas);
+		}
+
+		long farRadiusSquared = (long) farRadius * this.scaleFactor * farRadius * this.scaleFactor;
 
-		for (int cell : cells) {
-			trackDatas = gridValuesInCell(cell);
-			if (trackDatas == null) {
-				continue;
+		if (optsFlag == NEIGHBORS_FULL) {
+			for (TrackData trackData : trackDatas) {
+				if (trackData == null || trackData.id.equals(playerId)) {
+					continue;
+				}
+				if (farRadius > 0 && distanceSquared(trackData, px, py) > farRadiusSquared) {
+					continue;
+				}
+				result.add(trackData);
 			}
+			trackDatas.clear();
+			return result;
+		}
 
+		Integer observer = getShortId(playerId);
+		if (observer == null) {
+			logger.warn("Unable to obtain short id");
+			trackDatas.clear();
+			return result;
+		}
+		DeltaTable table = deltaTable(observer);
+		AdaptiveRate rate = this.adaptiveRate;
+		TrackData self = (rate == null) ? null : index.get(playerId);
+		float load = (rate == null) ? 1f : rate.load(playerId);
+		DeltaPool pool = deltaPool.get();
+		pool.reset();
+
+		synchronized (table) {
 			for (TrackData trackData : trackDatas) {
-				if (trackData == null) {
+				if (trackData == null || trackData.id.equals(playerId)) {
+					continue;
+				}
+				long distanceSquared = distanceSquared(trackData, px, py);
+				if (farRadius > 0 && distanceSquared > farRadiusSquared) {
+					continue;
+				}
+
+				// Assigned by set for local entities and by assignReplicaShortId for replica entities, queries never assign one
+				Integer shortId = findShortId(trackData.id);
+				if (shortId == null) {
+					continue;
+				}
+
+				int i = table.find(shortId);
+				if (i == -1 || table.seen(i) == DeltaTable.RELEASED) {
+					table.insert(shortId, trackData.x, trackData.y, currentTime, 0l);
+					trackData.shortId = shortId;
+					result.add(trackData);
+				} else if (rate != null
+						&& !rate.isDue(self, trackData, distanceSquared, table.x(i), table.y(i), currentTime - table.time(i), load, this.scaleFactor)) {
 					continue;
+				} else if ((currentTime - table.time(i)) > 100) {
+					table.removeAt(i);
+					trackData.shortId = shortId;
+					result.add(trackData);
+				} else {
+					result.add(deltaTrackData(pool.next(), trackData, shortId, trackData.x - table.x(i), trackData.y - table.y(i)));
+					table.update(i, trackData.x, trackData.y, currentTime);
 				}
+			}
+		}
+		trackDatas.clear();
+		return result;
+	}
 
+	/*
+	 * Changes to what playerId can see since its last NEIGHBORS_DIFF query.  Entities that left come first, so a shortId that was released
+	 * and handed out again in between is removed on the client before it is reused.
+	 */
+	private ArrayList<TrackData> visibleChanges(String playerId, int px, int py, int pz, EntityType entityType, int farRadius) {
+		ArrayList<TrackData> trackDatas = scratch.get();
+		ArrayList<TrackData> changes = new ArrayList<TrackData>();
+		ArrayList<TrackData> result = new ArrayList<TrackData>();
+		long query = querySequence.incrementAndGet();
+		long currentTime = System.currentTimeMillis();
+		long farRadiusSquared = (long) farRadius * this.scaleFactor * farRadius * this.scaleFactor;
+
+		Integer observer = getShortId(playerId);
+		if (observer == null) {
+			logger.warn("Unable to obtain short id");
+			return result;
+		}
+		DeltaTable table = deltaTable(observer);
+		AdaptiveRate rate = this.adaptiveRate;
+		TrackData self = (rate == null) ? null : index.get(playerId);
+		float load = (rate == null) ? 1f : rate.load(playerId);
+
+		DeltaPool pool = deltaPool.get();
+		pool.reset();
+
+		trackDatas.clear();
+		collectWithinRadius(px, py, this.queryRadius * this.scaleFactor, entityType, trackDatas);
+		dropOtherLayers(pz, trackDatas, 0);
+		if (!replicas.isEmpty()) {
+			collectFromReplicas(playerId, px, py, pz, entityType, NEIGHBORS_DIFF, trackDatas);
+		}
+
+		synchronized (table) {
+			for (TrackData trackData : trackDatas) {
 				if (trackData.id.equals(playerId)) {
 					continue;
 				}
 
-				if (entityType == null || trackData.entityType == entityType) {
-					if (optsFlag == 2) {
-						result.add(trackData);
-					} else {
-
-						GridValue gridValue = playerGridValues.get(trackData.id);
-
-						if (gridValue == null) {
-							Integer shortId = getShortId(trackData.id);
-							if (shortId == null) {
-								logger.warn("Unable to obtain short id");
-								continue;
-							}
-							trackData.shortId = shortId;
-							gridValue = new GridValue(trackData, shortId);
-							playerGridValues.put(trackData.id, gridValue);
-							result.add(trackData);
-						} else if ((currentTime - gridValue.lastSend) > 100) {
-							playerGridValues.remove(trackData.id);
-							result.add(trackData);
-						} else {
-							updateGridValue(gridValue, trackData);
-							gridValue.lastSend = currentTime;
-							result.add(gridValue.trackData);
+				// Assigned by set for local entities and by assignReplicaShortId for replica entities, queries never assign one
+				Integer shortId = findShortId(trackData.id);
+				if (shortId == null) {
+					continue;
+				}
+				long distanceSquared = distanceSquared(trackData, px, py);
+				boolean skipFar = (farRadius > 0 && distanceSquared > farRadiusSquared);
+
+				int i = table.find(shortId);
+				if (i != -1 && table.seen(i) == DeltaTable.RELEASED) {
+					result.add(leftTrackData(shortId));
+					table.removeAt(i);
+					i = -1;
+				}
+
+				if (i == -1) {
+					if (skipFar) {
+						continue;
+					}
+					table.insert(shortId, trackData.x, trackData.y, currentTime, query);
+					trackData.shortId = shortId;
+					changes.add(trackData);
+				} else {
+					table.setSeen(i, query);
+					if (skipFar) {
+						continue;
+					}
+					if (trackData.x != table.x(i) || trackData.y != table.y(i)) {
+						if (rate != null
+								&& !rate.isDue(self, trackData, distanceSquared, table.x(i), table.y(i), currentTime - table.time(i), load, this.scaleFactor)) {
+							continue;
 						}
+						changes.add(deltaTrackData(pool.next(), trackData, shortId, trackData.x - table.x(i), trackData.y - table.y(i)));
+						table.update(i, trackData.x, trackData.y, currentTime);
 					}
 				}
 			}
+
+			int i = 0;
+			while (i < table.capacity()) {
+				if (table.target(i) != DeltaTable.EMPTY && table.seen(i) != query) {
+					result.add(leftTrackData(table.target(i)));
+					table.removeAt(i);
+				} else {
+					i++;
+				}
+			}
 		}
+		trackDatas.clear();
+
+		result.addAll(changes);
 		return result;
 	}
 
-	private void updateGridValue(GridValue gridValue, TrackData trackData) {
-		if (trackData.x >= gridValue.x) {
-			gridValue.trackData.ix = trackData.x - gridValue.x;
-		} else {
-			gridValue.trackData.ix = -(gridValue.x - trackData.x);
-		}
+	// Fills a delta from the query's pool, the only per pair state kept between queries is in the DeltaTable
+	private static TrackData deltaTrackData(TrackData delta, TrackData trackData, int shortId, int ix, int iy) {
+		delta.shortId = shortId;
+		delta.ix = ix;
+		delta.iy = iy;
+		delta.entityType = trackData.entityType;
+		delta.dynamicMessage = trackData.dynamicMessage;
+		delta.direction = trackData.direction;
+		delta.speed = trackData.speed;
+		delta.velocity = trackData.velocity;
+		return delta;
+	}
 
-		if (trackData.y >= gridValue.y) {
-			gridValue.trackData.iy = trackData.y - gridValue.y;
-		} else {
-			gridValue.trackData.iy = -(gridValue.y - trackData.y);
+	// Replaces the pooled deltas in the results of a delta or diff query with copies, for results kept past the next query
+	public static void detachDeltas(List<TrackData> trackDatas) {
+		for (int i = 0; i < trackDatas.size(); i++) {
+			TrackData trackData = trackDatas.get(i);
+			if (trackData.id == null && trackData.ix != null) {
+				trackDatas.set(i, deltaTrackData(new TrackData(), trackData, trackData.shortId, trackData.ix, trackData.iy));
+			}
 		}
-		gridValue.x = trackData.x;
-		gridValue.y = trackData.y;
 	}
 
-	public Collection<TrackData> gridValuesInCell(int cell) {
-		ConcurrentHashMap<String, TrackData> cellGridValues = cells.get(cell);
+	private TrackData leftTrackData(int shortId) {
+		TrackData left = new TrackData();
+		left.shortId = shortId;
+		left.x = -1;
+		left.y = -1;
+		return left;
+	}
 
-		if (cellGridValues != null) {
-			return cellGridValues.values();
-		} else {
-			return null;
-		}
+	public Collection<TrackData> gridValuesInCell(int cell) {
+		return index.cellMembers(cell);
 	}
 
 	public ArrayList<TrackData> getNeighborsFor(String playerId, String id, EntityType entityType, int optsFlag) {
@@ -273,30 +885,110 @@ public class Grid {
 		if (gridValue == null) {
 			return null;
 		}
-		return neighbors(playerId, gridValue.x, gridValue.y, entityType, optsFlag);
+		int z = (gridValue.z == null) ? 0 : gridValue.z;
+		return neighbors(playerId, gridValue.x, gridValue.y, z, entityType, optsFlag, 0);
 	}
 
 	public List<TrackData> getAll() {
-		return new ArrayList<TrackData>(objectIndex.values());
+		List<TrackData> all = new ArrayList<TrackData>(index.size());
+		index.collectAll(all);
+		return all;
 	}
 
 	public TrackData get(String id) {
-		return objectIndex.get(id);
+		return index.get(id);
 	}
 
 	public void remove(String playerId) {
-		TrackData indexValue = objectIndex.get(playerId);
-		if (indexValue != null) {
-			int cell = cellsIndex.get(playerId);
-			ConcurrentHashMap<String, TrackData> cellGridValues = cells.get(cell);
-			if (cellGridValues != null) {
-				cellGridValues.remove(playerId);
-			}
-			objectIndex.remove(playerId);
-			cellsIndex.remove(playerId);
-			gridValues.remove(playerId);
+		TrackData removed;
+		DeadReckoning reckoning = this.deadReckoning;
+		if (reckoning == null) {
+			removed = index.remove(playerId);
+		} else {
+			synchronized (reckoning.lockFor(playerId)) {
+				removed = index.remove(playerId);
+				reckoning.remove(playerId);
+			}
+		}
+		if (removed != null && events != null) {
+			events.removed(removed);
+		}
+		if (deltaLog != null) {
+			deltaLog.recordRemove(playerId);
+		}
+		if (inReplicas(playerId)) {
+			// The entity moved to another node and is already seen through its replica, keep its short id
+			Integer shortId = shortIds.get(playerId);
+			if (shortId != null) {
+				dropDeltaTable(shortId);
+			}
+		} else {
 			releaseShortId(playerId);
 		}
+		if (interest != null) {
+			interest.unsubscribe(playerId);
+		}
+	}
+
+	/*
+	 * Puts back an entity from a GridSnapshot with the short id it had before, so clients keep their mapping.  Returns false if
+	 * the short id is already taken.
+	 */
+	public boolean restore(String id, int shortId, int x, int y, int z, EntityType entityType) {
+		if (!shortIdAllocator.claim(shortId)) {
+			return false;
+		}
+		if (shortIds.putIfAbsent(id, shortId) != null) {
+			shortIdAllocator.release(shortId);
+			return false;
+		}
+
+		TrackData trackData = new TrackData();
+		trackData.id = id;
+		trackData.x = x;
+		trackData.y = y;
+		trackData.z = z;
+		trackData.entityType = entityType;
+		trackData.setGetNeighbors(0);
+		int cell = hash(x / this.scaleFactor, y / this.scaleFactor);
+		index.set(trackData, cell);
+		if (events != null) {
+			events.moved(trackData, cell);
+		}
+		if (deltaLog != null) {
+			deltaLog.recordSet(trackData);
+		}
+		return true;
+	}
+
+	/*
+	 * Short ids of replica entities come from this grid's allocator, so clients see one id space.  GridReplicaManager assigns
+	 * them as entities arrive in a replica and releases them when they leave it, local remove never sees replica entities.
+	 */
+	public Integer assignReplicaShortId(String id) {
+		return getShortId(id);
+	}
+
+	// Releases id's short id unless the entity is still tracked locally or by another replica
+	public void releaseReplicaShortId(String id) {
+		if (index.get(id) != null || inReplicas(id)) {
+			return;
+		}
+		releaseShortId(id);
+	}
+
+	private boolean inReplicas(String id) {
+		for (Grid replica : replicas.values()) {
+			if (replica.get(id) != null) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	// Short id currently held by id, null if it has none.  Unlike getShortId this never assigns one
+	public Integer findShortId(String id) {
+		return shortIds.get(id);
 	}
 
 	public Boolean set(String id, int x, int y, int z, EntityType entityType) {
@@ -312,7 +1004,7 @@ public class Grid {
 
 	private TrackData updateFromDelta(TrackData deltaTrackData) {
 
-		TrackData trackData = objectIndex.get(deltaTrackData.id);
+		TrackData trackData = index.get(deltaTrackData.id);
 		if (trackData == null) {
 			return null;
 		}
@@ -340,52 +1032,146 @@ public class Grid {
 		if (shortId == null) {
 			return false;
 		}
-		
-		TrackData trackData = null;
-		if (newTrackData.hasIx()) {
-			trackData = updateFromDelta(newTrackData);
-			if (trackData == null) {
-				logger.debug("Delta update with no original " + newTrackData.id);
-				return false;
-			}
-		} else {
-			trackData = newTrackData;
-		}
 
-		String id = trackData.id;
+		DeadReckoning reckoning = this.deadReckoning;
+		if (reckoning == null) {
+			return setResolved(newTrackData, null);
+		}
+		synchronized (reckoning.lockFor(newTrackData.id)) {
+			return setResolved(newTrackData, reckoning);
+		}
+	}
 
-		Integer oldCellValue = cellsIndex.get(id);
+	private boolean setResolved(TrackData newTrackData, DeadReckoning reckoning) {
+		TrackData trackData = resolve(newTrackData, reckoning);
+		if (trackData == null) {
+			return false;
+		}
 
 		int cell = hash(trackData.x / this.scaleFactor, trackData.y / this.scaleFactor);
+		index.set(trackData, cell);
+		if (reckoning != null) {
+			reckoning.update(trackData, newTrackData, System.currentTimeMillis(), this.scaleFactor);
+		}
+		if (events != null) {
+			events.moved(trackData, cell);
+		}
+		if (deltaLog != null) {
+			deltaLog.recordSet(trackData);
+		}
 
-		if (oldCellValue != null) {
-			if (oldCellValue != cell) {
-				ConcurrentHashMap<String, TrackData> cellGridValues = cells.get(oldCellValue);
-				if (cellGridValues != null && cellGridValues.containsKey(id)) {
-					cellGridValues.remove(id);
-				}
-				if (cellGridValues != null && cellGridValues.size() == 0) {
-					cells.remove(oldCellValue);
-				}
+		return true;
+	}
 
+	// The value to set for an update, deltas are applied to the current value.  Null for a delta with no current value
+	private TrackData resolve(TrackData newTrackData, DeadReckoning reckoning) {
+		if (!newTrackData.hasIx()) {
+			return newTrackData;
+		}
+		if (reckoning != null) {
+			reckoning.rebase(newTrackData.id);
+		}
+		TrackData trackData = updateFromDelta(newTrackData);
+		if (trackData == null) {
+			logger.debug("Delta update with no original " + newTrackData.id);
+		}
+		return trackData;
+	}
+
+	/*
+	 * Sets a batch of entities at once, as sent by agent controllers.  Deltas are resolved first, then the batch is sorted by cell and handed to the
+	 * index in a single call.  Returns the entries that could not be set and need a RESEND.
+	 *
+	 * With dead reckoning enabled entries are set one at a time under their id's DeadReckoning lock instead, so the reckoner never
+	 * moves a value that is being replaced.  Batches holding an entity more then once are also set one at a time, sorting by cell
+	 * would reorder its updates.
+	 */
+	public List<TrackData> setBatch(List<TrackData> batch) {
+		DeadReckoning reckoning = this.deadReckoning;
+		if (reckoning != null || hasDuplicateIds(batch)) {
+			return setEach(batch, reckoning);
+		}
+
+		List<TrackData> failed = new ArrayList<TrackData>();
+		int size = batch.size();
+		TrackData[] resolved = new TrackData[size];
+		long[] keys = new long[size];
+		int count = 0;
+
+		for (TrackData newTrackData : batch) {
+			if (getShortId(newTrackData.id) == null) {
+				failed.add(newTrackData);
+				continue;
 			}
-			objectIndex.replace(id, trackData);
-			cellsIndex.replace(id, cell);
-		} else {
-			cellsIndex.put(id, cell);
-			objectIndex.put(id, trackData);
+
+			TrackData trackData = resolve(newTrackData, null);
+			if (trackData == null) {
+				failed.add(newTrackData);
+				continue;
+			}
+
+			int cell = hash(trackData.x / this.scaleFactor, trackData.y / this.scaleFactor);
+			resolved[count] = trackData;
+
+			// cell in the high bits so sorting the keys orders the batch by cell
+			keys[count] = ((long) cell << 32) | count;
+			count++;
 		}
 
-		ConcurrentHashMap<String, TrackData> cellGridValues = cells.get(cell);
-		if (cellGridValues == null) {
-			cellGridValues = new ConcurrentHashMap<String, TrackData>();
-			cellGridValues.put(id, trackData);
-			cells.put(cell, cellGridValues);
-		} else {
-			cellGridValues.put(id, trackData);
+		Arrays.sort(keys, 0, count);
+		TrackData[] sorted = new TrackData[count];
+		int[] cells = new int[count];
+		for (int i = 0; i < count; i++) {
+			sorted[i] = resolved[(int) keys[i]];
+			cells[i] = (int) (keys[i] >> 32);
+		}
+		index.setBatch(sorted, cells, count);
+		GridEvents events = this.events;
+		if (events != null) {
+			for (int i = 0; i < count; i++) {
+				events.moved(sorted[i], cells[i]);
+			}
+		}
+		if (deltaLog != null) {
+			for (int i = 0; i < count; i++) {
+				deltaLog.recordSet(sorted[i]);
+			}
 		}
 
-		return true;
+		return failed;
+	}
+
+	private static boolean hasDuplicateIds(List<TrackData> batch) {
+		Set<String> ids = new HashSet<String>(batch.size() * 2);
+		for (TrackData trackData : batch) {
+			if (!ids.add(trackData.id)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	// Sets the entries of a batch one at a time in order, under their id's DeadReckoning lock if reckoning is not null
+	private List<TrackData> setEach(List<TrackData> batch, DeadReckoning reckoning) {
+		List<TrackData> failed = new ArrayList<TrackData>();
+		for (TrackData newTrackData : batch) {
+			if (getShortId(newTrackData.id) == null) {
+				failed.add(newTrackData);
+				continue;
+			}
+			boolean set;
+			if (reckoning == null) {
+				set = setResolved(newTrackData, null);
+			} else {
+				synchronized (reckoning.lockFor(newTrackData.id)) {
+					set = setResolved(newTrackData, reckoning);
+				}
+			}
+			if (!set) {
+				failed.add(newTrackData);
+			}
+		}
+		return failed;
 	}
 
 	public int hash2(int x, int y) {
@@ -0,0 +1,142 @@
+package io.gamemachine.core;
+
+import io.gamemachine.messages.TrackData;
+import io.gamemachine.messages.TrackData.EntityType;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/*
+ * Changed entity positions for one grid, as sent between nodes by GridReplicator.  A full delta holds every entity in the
+ * grid and replaces whatever the receiver had for it.
+ *
+ * Wire format: version byte, full flag, gameId, gridName, entry count, then per entry the type byte (EntityType ordinal or
+ * REMOVED, or NO_TYPE for entities without one), id, x, y and z.
+ */
+public class GridDelta {
+
+	public static final int REMOVED = -1;
+	public static final int NO_TYPE = -2;
+	private static final int VERSION = 1;
+
+	private final String gameId;
+	private final String gridName;
+	private boolean full = false;
+
+	private String[] ids = new String[64];
+	private int[] xs = new int[64];
+	private int[] ys = new int[64];
+	private int[] zs = new int[64];
+	private int[] types = new int[64];
+	private int count = 0;
+
+	public GridDelta(String gameId, String gridName) {
+		this.gameId = gameId;
+		this.gridName = gridName;
+	}
+
+	public void add(String id, int x, int y, int z, int type) {
+		if (count == ids.length) {
+			int newLength = count * 2;
+			ids = Arrays.copyOf(ids, newLength);
+			xs = Arrays.copyOf(xs, newLength);
+			ys = Arrays.copyOf(ys, newLength);
+			zs = Arrays.copyOf(zs, newLength);
+			types = Arrays.copyOf(types, newLength);
+		}
+		ids[count] = id;
+		xs[count] = x;
+		ys[count] = y;
+		zs[count] = z;
+		types[count] = type;
+		count++;
+	}
+
+	public void add(TrackData trackData) {
+		int type = (trackData.entityType == null) ? NO_TYPE : trackData.entityType.ordinal();
+		int z = (trackData.z == null) ? 0 : trackData.z;
+		add(trackData.id, trackData.x, trackData.y, z, type);
+	}
+
+	// Applies the changes to a replica grid
+	public void applyTo(Grid grid) {
+		EntityType[] entityTypes = EntityType.values();
+		for (int i = 0; i < count; i++) {
+			if (types[i] == REMOVED) {
+				grid.remove(ids[i]);
+			} else {
+				EntityType entityType = (types[i] == NO_TYPE) ? null : entityTypes[types[i]];
+				grid.set(ids[i], xs[i], ys[i], zs[i], entityType);
+			}
+		}
+	}
+
+	public byte[] encode() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(32 + count * 24);
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeByte(VERSION);
+		out.writeBoolean(full);
+		out.writeUTF(gameId);
+		out.writeUTF(gridName);
+		out.writeInt(count);
+		for (int i = 0; i < count; i++) {
+			out.writeByte(types[i]);
+			out.writeUTF(ids[i]);
+			out.writeInt(xs[i]);
+			out.writeInt(ys[i]);
+			out.writeInt(zs[i]);
+		}
+		out.flush();
+		return bytes.toByteArray();
+	}
+
+	public static GridDelta decode(byte[] bytes) throws IOException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+		int version = in.readByte();
+		if (version != VERSION) {
+			throw new IOException("Unsupported grid delta version " + version);
+		}
+		boolean full = in.readBoolean();
+		GridDelta delta = new GridDelta(in.readUTF(), in.readUTF());
+		delta.setFull(full);
+		int count = in.readInt();
+		for (int i = 0; i < count; i++) {
+			int type = in.readByte();
+			String id = in.readUTF();
+			delta.add(id, in.readInt(), in.readInt(), in.readInt(), type);
+		}
+		return delta;
+	}
+
+	public String getId(int i) {
+		return ids[i];
+	}
+
+	public boolean isRemoved(int i) {
+		return types[i] == REMOVED;
+	}
+
+	public String getGameId() {
+		return gameId;
+	}
+
+	public String getGridName() {
+		return gridName;
+	}
+
+	public boolean isFull() {
+		return full;
+	}
+
+	public void setFull(boolean full) {
+		this.full = full;
+	}
+
+	public int size() {
+		return count;
+	}
+}
@@ -0,0 +1,81 @@
+package io.gamemachine.core;
+
+import io.gamemachine.messages.TrackData;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/*
+ * Ring buffer of position changes made to a grid, each stamped with an increasing sequence number.  Used by GridReplicator to
+ * find what changed since it last replicated.  Only grids with replication enabled keep one.
+ *
+ * When more then capacity changes happen between two reads the oldest are overwritten, and the reader has to fall back to
+ * a full snapshot of the grid.
+ */
+public class GridDeltaLog {
+
+	public static final int DEFAULT_CAPACITY = 16384;
+
+	private final int capacity;
+	private final long[] sequences;
+	private final String[] ids;
+	private final int[] xs;
+	private final int[] ys;
+	private final int[] zs;
+	private final int[] types;
+	private long sequence = 0;
+
+	public GridDeltaLog(int capacity) {
+		this.capacity = capacity;
+		this.sequences = new long[capacity];
+		this.ids = new String[capacity];
+		this.xs = new int[capacity];
+		this.ys = new int[capacity];
+		this.zs = new int[capacity];
+		this.types = new int[capacity];
+	}
+
+	public synchronized void recordSet(TrackData trackData) {
+		int type = (trackData.entityType == null) ? GridDelta.NO_TYPE : trackData.entityType.ordinal();
+		int z = (trackData.z == null) ? 0 : trackData.z;
+		record(trackData.id, trackData.x, trackData.y, z, type);
+	}
+
+	public synchronized void recordRemove(String id) {
+		record(id, 0, 0, 0, GridDelta.REMOVED);
+	}
+
+	private void record(String id, int x, int y, int z, int type) {
+		sequence++;
+		int i = (int) (sequence % capacity);
+		sequences[i] = sequence;
+		ids[i] = id;
+		xs[i] = x;
+		ys[i] = y;
+		zs[i] = z;
+		types[i] = type;
+	}
+
+	public synchronized long getSequence() {
+		return sequence;
+	}
+
+	/*
+	 * Adds the latest change for every entity changed after since to delta.  Returns the sequence the changes go up to, or -1
+	 * if some of the changes after since were already overwritten.
+	 */
+	public synchronized long changesSince(long since, GridDelta delta) {
+		if (since < sequence - capacity) {
+			return -1;
+		}
+
+		Set<String> added = new HashSet<String>();
+		for (long seq = sequence; seq > since; seq--) {
+			int i = (int) (seq % capacity);
+			if (added.add(ids[i])) {
+				delta.add(ids[i], xs[i], ys[i], zs[i], types[i]);
+			}
+		}
+		return sequence;
+	}
+}
@@ -0,0 +1,326 @@
+package io.gamemachine.core;
+
+import io.gamemachine.messages.TrackData;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/*
+ * Events for gameplay systems that need to know when entities move around a grid, so they do not have to poll getAll or
+ * neighbors.  CellListeners are told every time an entity changes cells.  GridWatchers are told when an entity enters or
+ * leaves their area.
+ *
+ * Everything is worked out from the single entity that moved, as the grid sets it.  Each watcher is registered in the cells
+ * its area covers, and each entity remembers which cell it is in and which watchers it is inside.  A move only looks at
+ * the watchers of the new cell and the ones the entity was already inside.  When the entity a watcher follows moves, only the
+ * cells of the watcher's area are looked at.
+ *
+ * Events of one grid are worked out under one lock, and listeners are called while it is held.  Listeners must be quick and
+ * must not watch or unwatch from inside a callback.  Forward to an actor for anything more.
+ */
+public class GridEvents {
+
+	public interface CellListener {
+		// fromCell is NO_CELL for entities new to the grid, toCell is NO_CELL for removed entities
+		void cellChanged(TrackData trackData, int fromCell, int toCell);
+	}
+
+	public static final int NO_CELL = -1;
+
+	private static class Tracked {
+		int cell = NO_CELL;
+		ArrayList<GridWatcher> inside;
+	}
+
+	private final Grid grid;
+	private final List<CellListener> cellListeners = new CopyOnWriteArrayList<CellListener>();
+	private final HashMap<String, Tracked> tracked = new HashMap<String, Tracked>();
+	private final HashMap<String, GridWatcher> watchers = new HashMap<String, GridWatcher>();
+	private final HashMap<String, HashSet<String>> members = new HashMap<String, HashSet<String>>();
+	private final HashMap<Integer, ArrayList<GridWatcher>> cellWatchers = new HashMap<Integer, ArrayList<GridWatcher>>();
+	private final HashMap<String, ArrayList<GridWatcher>> followers = new HashMap<String, ArrayList<GridWatcher>>();
+
+	public GridEvents(Grid grid) {
+		this.grid = grid;
+	}
+
+	public void addCellListener(CellListener listener) {
+		cellListeners.add(listener);
+	}
+
+	public void removeCellListener(CellListener listener) {
+		cellListeners.remove(listener);
+	}
+
+	/*
+	 * Starts watching, replacing any watcher with the same id.  Entities already in the area are entered right away.
+	 */
+	public synchronized void watch(GridWatcher watcher) {
+		unwatch(watcher.getId());
+		watchers.put(watcher.getId(), watcher);
+		members.put(watcher.getId(), new HashSet<String>());
+
+		String anchorId = watcher.getAnchorId();
+		if (anchorId == null) {
+			registerCells(watcher);
+			enterFromCells(watcher);
+			return;
+		}
+
+		ArrayList<GridWatcher> list = followers.get(anchorId);
+		if (list == null) {
+			list = new ArrayList<GridWatcher>();
+			followers.put(anchorId, list);
+		}
+		list.add(watcher);
+		TrackData anchor = grid.get(anchorId);
+		if (anchor != null) {
+			anchorMoved(watcher, anchor);
+		}
+	}
+
+	// Stops watching without sending left for the entities still inside
+	public synchronized void unwatch(String id) {
+		GridWatcher watcher = watchers.remove(id);
+		if (watcher == null) {
+			return;
+		}
+		unregisterCells(watcher);
+		for (String memberId : members.remove(id)) {
+			Tracked state = tracked.get(memberId);
+			if (state != null && state.inside != null) {
+				state.inside.remove(watcher);
+			}
+		}
+		if (watcher.getAnchorId() != null) {
+			ArrayList<GridWatcher> list = followers.get(watcher.getAnchorId());
+			list.remove(watcher);
+			if (list.isEmpty()) {
+				followers.remove(watcher.getAnchorId());
+			}
+		}
+	}
+
+	public synchronized GridWatcher getWatcher(String id) {
+		return watchers.get(id);
+	}
+
+	// Ids of the entities currently inside the watcher
+	public synchronized List<String> getMembers(String id) {
+		HashSet<String> ids = members.get(id);
+		if (ids == null) {
+			return new ArrayList<String>();
+		}
+		return new ArrayList<String>(ids);
+	}
+
+	// Called by Grid after trackData was set at cell
+	synchronized void moved(TrackData trackData, int cell) {
+		Tracked state = tracked.get(trackData.id);
+		if (state == null) {
+			state = new Tracked();
+			tracked.put(trackData.id, state);
+		}
+		int fromCell = state.cell;
+		state.cell = cell;
+		if (fromCell != cell) {
+			for (CellListener listener : cellListeners) {
+				listener.cellChanged(trackData, fromCell, cell);
+			}
+		}
+
+		ArrayList<GridWatcher> inside = state.inside;
+		if (inside != null) {
+			for (int i = inside.size() - 1; i >= 0; i--) {
+				GridWatcher watcher = inside.get(i);
+				if (!watcher.contains(trackData)) {
+					inside.remove(i);
+					members.get(watcher.getId()).remove(trackData.id);
+					watcher.getListener().left(watcher, trackData);
+				}
+			}
+		}
+
+		ArrayList<GridWatcher> candidates = cellWatchers.get(cell);
+		if (candidates != null) {
+			for (int i = 0; i < candidates.size(); i++) {
+				GridWatcher watcher = candidates.get(i);
+				if ((state.inside == null || !state.inside.contains(watcher)) && watcher.contains(trackData)) {
+					enter(state, watcher, trackData);
+				}
+			}
+		}
+
+		ArrayList<GridWatcher> following = followers.get(trackData.id);
+		if (following != null) {
+			for (int i = 0; i < following.size(); i++) {
+				anchorMoved(following.get(i), trackData);
+			}
+		}
+	}
+
+	// Called by Grid after trackData was removed
+	synchronized void removed(TrackData trackData) {
+		Tracked state = tracked.remove(trackData.id);
+		if (state == null) {
+			return;
+		}
+		for (CellListener listener : cellListeners) {
+			listener.cellChanged(trackData, state.cell, NO_CELL);
+		}
+
+		if (state.inside != null) {
+			for (GridWatcher watcher : state.inside) {
+				members.get(watcher.getId()).remove(trackData.id);
+				watcher.getListener().left(watcher, trackData);
+			}
+		}
+
+		// Watchers following it go quiet until it is back
+		ArrayList<GridWatcher> following = followers.get(trackData.id);
+		if (following != null) {
+			for (GridWatcher watcher : following) {
+				unregisterCells(watcher);
+				watcher.moveTo(Integer.MIN_VALUE / 2, Integer.MIN_VALUE / 2);
+				leaveAll(watcher);
+			}
+		}
+	}
+
+	private void enter(Tracked state, GridWatcher watcher, TrackData trackData) {
+		if (state.inside == null) {
+			state.inside = new ArrayList<GridWatcher>(2);
+		}
+		state.inside.add(watcher);
+		members.get(watcher.getId()).add(trackData.id);
+		watcher.getListener().entered(watcher, trackData);
+	}
+
+	private void anchorMoved(GridWatcher watcher, TrackData anchor) {
+		watcher.moveTo(anchor.x, anchor.y);
+		unregisterCells(watcher);
+		registerCells(watcher);
+
+		Iterator<String> iterator = members.get(watcher.getId()).iterator();
+		while (iterator.hasNext()) {
+			String memberId = iterator.next();
+			TrackData trackData = grid.get(memberId);
+			if (trackData == null || !watcher.contains(trackData)) {
+				iterator.remove();
+				Tracked state = tracked.get(memberId);
+				if (state != null && state.inside != null) {
+					state.inside.remove(watcher);
+				}
+				if (trackData != null) {
+					watcher.getListener().left(watcher, trackData);
+				}
+			}
+		}
+		enterFromCells(watcher);
+	}
+
+	private void leaveAll(GridWatcher watcher) {
+		HashSet<String> ids = members.get(watcher.getId());
+		for (String memberId : ids) {
+			Tracked state = tracked.get(memberId);
+			if (state != null && state.inside != null) {
+				state.inside.remove(watcher);
+			}
+			TrackData trackData = grid.get(memberId);
+			if (trackData != null) {
+				watcher.getListener().left(watcher, trackData);
+			}
+		}
+		ids.clear();
+	}
+
+	// Enters every entity in the watcher's cells that is inside and not already a member
+	private void enterFromCells(GridWatcher watcher) {
+		if (watcher.startRow == -1) {
+			return;
+		}
+		HashSet<String> ids = members.get(watcher.getId());
+		int width = grid.getWidth();
+		for (int row = watcher.startRow; row <= watcher.endRow; row++) {
+			for (int col = watcher.startCol; col <= watcher.endCol; col++) {
+				int cell = row + col * width;
+				Collection<TrackData> trackDatas = grid.gridValuesInCell(cell);
+				if (trackDatas == null) {
+					continue;
+				}
+				for (TrackData trackData : trackDatas) {
+					if (ids.contains(trackData.id) || !watcher.contains(trackData)) {
+						continue;
+					}
+					Tracked state = tracked.get(trackData.id);
+					if (state == null) {
+						state = new Tracked();
+						state.cell = cell;
+						tracked.put(trackData.id, state);
+					}
+					enter(state, watcher, trackData);
+				}
+			}
+		}
+	}
+
+	private void registerCells(GridWatcher watcher) {
+		int scale = grid.getScaleFactor() * grid.getCellSize();
+		int width = grid.getWidth();
+		if (watcher.getMaxX() < 0 || watcher.getMaxY() < 0 || watcher.getMinX() >= width * scale
+				|| watcher.getMinY() >= width * scale) {
+			watcher.startRow = -1;
+			return;
+		}
+		watcher.startRow = clamp(watcher.getMinX() / scale, width);
+		watcher.endRow = clamp(watcher.getMaxX() / scale, width);
+		watcher.startCol = clamp(watcher.getMinY() / scale, width);
+		watcher.endCol = clamp(watcher.getMaxY() / scale, width);
+
+		for (int row = watcher.startRow; row <= watcher.endRow; row++) {
+			for (int col = watcher.startCol; col <= watcher.endCol; col++) {
+				Integer cell = row + col * width;
+				ArrayList<GridWatcher> list = cellWatchers.get(cell);
+				if (list == null) {
+					list = new ArrayList<GridWatcher>(2);
+					cellWatchers.put(cell, list);
+				}
+				list.add(watcher);
+			}
+		}
+	}
+
+	private void unregisterCells(GridWatcher watcher) {
+		if (watcher.startRow == -1) {
+			return;
+		}
+		int width = grid.getWidth();
+		for (int row = watcher.startRow; row <= watcher.endRow; row++) {
+			for (int col = watcher.startCol; col <= watcher.endCol; col++) {
+				Integer cell = row + col * width;
+				ArrayList<GridWatcher> list = cellWatchers.get(cell);
+				if (list != null) {
+					list.remove(watcher);
+					if (list.isEmpty()) {
+						cellWatchers.remove(cell);
+					}
+				}
+			}
+		}
+		watcher.startRow = -1;
+	}
+
+	private static int clamp(int coord, int width) {
+		if (coord < 0) {
+			return 0;
+		} else if (coord >= width) {
+			return width - 1;
+		}
+		return coord;
+	}
+}
@@ -0,0 +1,31 @@
+package io.gamemachine.core;
+
+import io.gamemachine.messages.TrackData;
+import io.gamemachine.messages.TrackData.EntityType;
+
+import java.util.Collection;
+import java.util.List;
+
+/*
+ * Storage backend for Grid.  Grid owns the coordinate math and the per client delta state, indexes only store which
+ * entity is in which cell.  Cells are the integer ids produced by Grid.hash.
+ */
+public interface GridIndex {
+	void set(TrackData trackData, int cell);
+
+	// Sets the first count entries, trackDatas[i] going to cells[i].  Grid passes them sorted by cell
+	void setBatch(TrackData[] trackDatas, int[] cells, int count);
+
+	TrackData remove(String id);
+	TrackData get(String id);
+	int size();
+
+	// Appends members of cell to result, entityType null matches everything
+	void collect(int cell, EntityType entityType, List<TrackData> result);
+
+	// Like collect but only members within radius of x,y.  Coordinates are the scaled values from TrackData
+	void collectWithinRadius(int cell, EntityType entityType, int x, int y, long radiusSquared, List<TrackData> result);
+
+	Collection<TrackData> cellMembers(int cell);
+	void collectAll(List<TrackData> result);
+}
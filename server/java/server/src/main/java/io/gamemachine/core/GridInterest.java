@@ -0,0 +1,128 @@
+package io.gamemachine.core;
+
+import io.gamemachine.messages.Player;
+import io.gamemachine.messages.TrackData.EntityType;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+ * Interest management state for a grid.  Instead of answering every TrackData that asks for neighbors, entity tracking
+ * subscribes the player here and InterestManager sends each subscriber its neighbors once per tick.  Entities further
+ * away than farRadius are only included every farTicks ticks.
+ *
+ * Subscriptions are refreshed by every TrackData with getNeighbors set and expire when the player stops asking.  A player
+ * has one subscription per entity it asks for, so an agent controller asking on behalf of several npcs gets the neighbors
+ * of each of them, sent separately.
+ */
+public class GridInterest {
+
+	public static final long SUBSCRIPTION_TIMEOUT = 5000l;
+
+	private final int tickInterval;
+	private final int farRadius;
+	private final int farTicks;
+	private long tick = 0;
+
+	// Player id to the player's subscriptions by entity id
+	private ConcurrentHashMap<String, ConcurrentHashMap<String, Subscription>> subscriptions = new ConcurrentHashMap<String, ConcurrentHashMap<String, Subscription>>();
+
+	public static class Subscription {
+		public final Player player;
+		public final String entityId;
+		public final boolean isAgentController;
+		public volatile EntityType entityType;
+		public volatile int optsFlag;
+		public volatile long lastRequest;
+
+		public Subscription(Player player, String entityId, EntityType entityType, int optsFlag) {
+			this.player = player;
+			this.entityId = entityId;
+			this.isAgentController = player.getRole().equals("agent_controller");
+			this.entityType = entityType;
+			this.optsFlag = optsFlag;
+			this.lastRequest = System.currentTimeMillis();
+		}
+	}
+
+	public GridInterest(int tickInterval, int farRadius, int farTicks) {
+		this.tickInterval = tickInterval;
+		this.farRadius = farRadius;
+		this.farTicks = Math.max(1, farTicks);
+	}
+
+	// Neighbors are found around entityId, which is the player itself unless an agent is asking on behalf of an npc
+	public void subscribe(Player player, String entityId, EntityType entityType, int optsFlag) {
+		ConcurrentHashMap<String, Subscription> playerSubscriptions = subscriptions.get(player.id);
+		if (playerSubscriptions == null) {
+			playerSubscriptions = new ConcurrentHashMap<String, Subscription>();
+			ConcurrentHashMap<String, Subscription> existing = subscriptions.putIfAbsent(player.id, playerSubscriptions);
+			if (existing != null) {
+				playerSubscriptions = existing;
+			}
+		}
+
+		Subscription subscription = playerSubscriptions.get(entityId);
+		if (subscription == null) {
+			playerSubscriptions.put(entityId, new Subscription(player, entityId, entityType, optsFlag));
+		} else {
+			subscription.entityType = entityType;
+			subscription.optsFlag = optsFlag;
+			subscription.lastRequest = System.currentTimeMillis();
+		}
+	}
+
+	// Removes every subscription of the player
+	public void unsubscribe(String playerId) {
+		subscriptions.remove(playerId);
+	}
+
+	// Removes subscriptions that were not refreshed within SUBSCRIPTION_TIMEOUT of now
+	public void expire(long now) {
+		for (Map.Entry<String, ConcurrentHashMap<String, Subscription>> entry : subscriptions.entrySet()) {
+			ConcurrentHashMap<String, Subscription> playerSubscriptions = entry.getValue();
+			Iterator<Subscription> iter = playerSubscriptions.values().iterator();
+			while (iter.hasNext()) {
+				if ((now - iter.next().lastRequest) > SUBSCRIPTION_TIMEOUT) {
+					iter.remove();
+				}
+			}
+			if (playerSubscriptions.isEmpty()) {
+				subscriptions.remove(entry.getKey(), playerSubscriptions);
+			}
+		}
+	}
+
+	public List<Subscription> getSubscriptions() {
+		List<Subscription> all = new ArrayList<Subscription>();
+		for (ConcurrentHashMap<String, Subscription> playerSubscriptions : subscriptions.values()) {
+			all.addAll(playerSubscriptions.values());
+		}
+		return all;
+	}
+
+	public int getSubscriptionCount() {
+		int count = 0;
+		for (ConcurrentHashMap<String, Subscription> playerSubscriptions : subscriptions.values()) {
+			count += playerSubscriptions.size();
+		}
+		return count;
+	}
+
+	public int getTickInterval() {
+		return tickInterval;
+	}
+
+	// Advances the tick counter, returns true when far entities should be included in this tick
+	public boolean nextTick() {
+		tick++;
+		return (farRadius <= 0 || tick % farTicks == 0);
+	}
+
+	public int getFarRadius() {
+		return farRadius;
+	}
+}
@@ -0,0 +1,152 @@
+package io.gamemachine.core;
+
+import io.gamemachine.messages.TrackData;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import scala.concurrent.duration.Duration;
+import akka.actor.UntypedActor;
+
+/*
+ * Receives GridDelta's from the GridReplicator's on other nodes and applies them to read only replica grids, one per
+ * game, grid and source node.  Replicas are attached to the local grid of the same name so its neighbor queries include
+ * entities tracked on other nodes.  Replicas that stop receiving updates are dropped after REPLICA_TIMEOUT.
+ *
+ * A replica is only ever created from a full delta.  An incremental delta for a replica we do not have only holds what
+ * moved, so it is dropped and the source is asked for a full one.
+ */
+public class GridReplicaManager extends UntypedActor {
+
+	private static final Logger logger = LoggerFactory.getLogger(GridReplicaManager.class);
+
+	public static String name = "grid_replica_manager";
+	public static final long REPLICA_TIMEOUT = 5000l;
+
+	private static class Replica {
+		final String gameId;
+		final String gridName;
+		final String source;
+		Grid grid;
+		long lastUpdate;
+
+		Replica(String gameId, String gridName, String source) {
+			this.gameId = gameId;
+			this.gridName = gridName;
+			this.source = source;
+		}
+	}
+
+	private Map<String, Replica> replicas = new HashMap<String, Replica>();
+
+	@Override
+	public void preStart() {
+		tick(1000, "prune");
+	}
+
+	@Override
+	public void onReceive(Object message) throws Exception {
+		if (message instanceof byte[]) {
+			GridDelta delta;
+			try {
+				delta = GridDelta.decode((byte[]) message);
+			} catch (IOException e) {
+				logger.warn("Invalid grid delta from " + getSender() + " " + e.getMessage());
+				return;
+			}
+			if (!apply(delta, getSender().path().address().toString())) {
+				getSender().tell(GridReplicator.SEND_FULL, getSelf());
+			}
+		} else if (message instanceof String) {
+			String msg = (String) message;
+			if (msg.equals("prune")) {
+				prune();
+				tick(1000, "prune");
+			}
+		} else {
+			unhandled(message);
+		}
+	}
+
+	// Returns false if the delta could not be applied without a full one first
+	private boolean apply(GridDelta delta, String source) {
+		Grid local = GameGrid.getGameGrid(delta.getGameId(), delta.getGridName());
+		if (local == null) {
+			return true;
+		}
+
+		String key = delta.getGameId() + ":" + delta.getGridName() + ":" + source;
+		Replica replica = replicas.get(key);
+		if (!delta.isFull() && (replica == null || replica.grid.getMax() != local.getMax()
+				|| replica.grid.getCellSize() != local.getCellSize())) {
+			return false;
+		}
+		if (replica == null) {
+			replica = new Replica(delta.getGameId(), delta.getGridName(), source);
+			replicas.put(key, replica);
+		}
+
+		// A full delta replaces the replica, so entities removed while updates were missed do not linger
+		Grid previous = null;
+		if (delta.isFull()) {
+			previous = replica.grid;
+			replica.grid = new Grid(local.getMax(), local.getCellSize(), local.getIndexType(), local.getMaxShortIds());
+		}
+		delta.applyTo(replica.grid);
+		replica.lastUpdate = System.currentTimeMillis();
+		local.setReplica(source, replica.grid);
+
+		for (int i = 0; i < delta.size(); i++) {
+			if (delta.isRemoved(i)) {
+				local.releaseReplicaShortId(delta.getId(i));
+			} else {
+				local.assignReplicaShortId(delta.getId(i));
+			}
+		}
+		if (previous != null) {
+			releaseShortIds(local, previous);
+		}
+		return true;
+	}
+
+	// Short ids the local grid handed out for a replica's entities, released when they leave it
+	private void releaseShortIds(Grid local, Grid replica) {
+		for (TrackData trackData : replica.getAll()) {
+			local.releaseReplicaShortId(trackData.id);
+		}
+	}
+
+	private void prune() {
+		long now = System.currentTimeMillis();
+		Iterator<Replica> iter = replicas.values().iterator();
+		while (iter.hasNext()) {
+			Replica replica = iter.next();
+			if ((now - replica.lastUpdate) > REPLICA_TIMEOUT) {
+				logger.debug("Dropping replica of " + replica.gameId + " " + replica.gridName + " from " + replica.source);
+				Grid local = GameGrid.getGameGrids().containsKey(replica.gameId) ? GameGrid.getGameGrids()
+						.get(replica.gameId).get(replica.gridName) : null;
+				if (local != null) {
+					local.removeReplica(replica.source);
+					if (replica.grid != null) {
+						releaseShortIds(local, replica.grid);
+					}
+				}
+				iter.remove();
+			}
+		}
+	}
+
+	public void tick(int delay, String message) {
+		getContext()
+				.system()
+				.scheduler()
+				.scheduleOnce(Duration.create(delay, TimeUnit.MILLISECONDS), getSelf(), message,
+						getContext().dispatcher(), null);
+	}
+}
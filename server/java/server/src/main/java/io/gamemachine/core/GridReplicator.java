@@ -0,0 +1,157 @@
+package io.gamemachine.core;
+
+import io.gamemachine.messages.TrackData;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import scala.concurrent.duration.Duration;
+import akka.actor.UntypedActor;
+import akka.cluster.Cluster;
+import akka.cluster.Member;
+import akka.cluster.MemberStatus;
+
+/*
+ * Streams the changes in a grid's GridDeltaLog to the GridReplicaManager on every other cluster member.  Created by GameGrid
+ * for grids with replicate=ms set, and stops itself once the grid has been replaced or removed.
+ *
+ * A full snapshot is sent when the log overflowed, when cluster membership changed, when a GridReplicaManager asks for one
+ * and every FULL_EVERY ticks, so new and lagging peers catch up.
+ *
+ * A grid with nothing changing still sends an empty delta every HEARTBEAT ms, well inside GridReplicaManager.REPLICA_TIMEOUT,
+ * so its replicas are not dropped while its entities stand still.
+ */
+public class GridReplicator extends UntypedActor {
+
+	private static final Logger logger = LoggerFactory.getLogger(GridReplicator.class);
+
+	public static final int FULL_EVERY = 100;
+	public static final long HEARTBEAT = GridReplicaManager.REPLICA_TIMEOUT / 5;
+
+	// Sent by GridReplicaManager when it got a delta it had no replica for
+	public static final String SEND_FULL = "send_full";
+
+	private final String gameId;
+	private final String gridName;
+	private final Grid grid;
+	private final GridDeltaLog deltaLog;
+	private final int interval;
+	private Cluster cluster;
+	private Set<String> peers = new HashSet<String>();
+	private long lastSequence = 0;
+	private long ticks = 0;
+	private long lastSent = 0;
+	private boolean fullRequested = false;
+
+	public GridReplicator(String gameId, String gridName, Grid grid, int interval) {
+		this.gameId = gameId;
+		this.gridName = gridName;
+		this.grid = grid;
+		this.deltaLog = grid.getDeltaLog();
+		this.interval = interval;
+	}
+
+	@Override
+	public void preStart() {
+		try {
+			cluster = Cluster.get(getContext().system());
+		} catch (Exception e) {
+			logger.warn("Grid replication needs clustering, not replicating " + gameId + " " + gridName);
+			getContext().stop(getSelf());
+			return;
+		}
+		tick(interval, "replicate");
+	}
+
+	@Override
+	public void onReceive(Object message) throws Exception {
+		if (message instanceof String) {
+			String msg = (String) message;
+			if (msg.equals("replicate")) {
+				if (!isCurrentGrid()) {
+					logger.debug("Stopping grid replicator for " + gameId + " " + gridName);
+					getContext().stop(getSelf());
+					return;
+				}
+				replicate();
+				tick(interval, "replicate");
+			} else if (msg.equals(SEND_FULL)) {
+				fullRequested = true;
+			}
+		} else {
+			unhandled(message);
+		}
+	}
+
+	private boolean isCurrentGrid() {
+		Map<String, Grid> grids = GameGrid.getGameGrids().get(gameId);
+		return (grids != null && grids.get(gridName) == grid);
+	}
+
+	private Set<String> currentPeers() {
+		Set<String> current = new HashSet<String>();
+		for (Member member : cluster.state().getMembers()) {
+			if (member.status().equals(MemberStatus.up()) && !member.address().equals(cluster.selfAddress())) {
+				current.add(member.address().toString());
+			}
+		}
+		return current;
+	}
+
+	private void replicate() throws IOException {
+		ticks++;
+		Set<String> current = currentPeers();
+		boolean peersChanged = !current.equals(peers);
+		peers = current;
+
+		if (peers.isEmpty()) {
+			lastSequence = deltaLog.getSequence();
+			return;
+		}
+
+		GridDelta delta = new GridDelta(gameId, gridName);
+		long sequence = -1;
+		if (!peersChanged && !fullRequested && ticks % FULL_EVERY != 0) {
+			sequence = deltaLog.changesSince(lastSequence, delta);
+		}
+
+		if (sequence == -1) {
+			// Changes made while the snapshot is taken are sent again next tick, applying them twice is harmless
+			sequence = deltaLog.getSequence();
+			delta = new GridDelta(gameId, gridName);
+			delta.setFull(true);
+			for (TrackData trackData : grid.getAll()) {
+				delta.add(trackData);
+			}
+		}
+		lastSequence = sequence;
+		if (delta.isFull()) {
+			fullRequested = false;
+		}
+
+		long now = System.currentTimeMillis();
+		if (delta.size() == 0 && !delta.isFull() && (now - lastSent) < HEARTBEAT) {
+			return;
+		}
+		lastSent = now;
+
+		byte[] bytes = delta.encode();
+		for (String peer : peers) {
+			getContext().actorSelection(peer + "/user/" + GridReplicaManager.name).tell(bytes, getSelf());
+		}
+	}
+
+	public void tick(int delay, String message) {
+		getContext()
+				.system()
+				.scheduler()
+				.scheduleOnce(Duration.create(delay, TimeUnit.MILLISECONDS), getSelf(), message,
+						getContext().dispatcher(), null);
+	}
+}
@@ -0,0 +1,274 @@
+package io.gamemachine.core;
+
+import io.gamemachine.messages.TrackData;
+import io.gamemachine.messages.TrackData.EntityType;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/*
+ * Compact binary snapshot of every grid in GameGrid, written to a memory mapped file.  Each entity is stored with its id,
+ * short id, position and entity type, which is all a grid needs to answer neighbor queries straight after a restart.
+ *
+ * The snapshot is written straight into the mapped file, which is remapped larger when it runs out of room.  It is written
+ * to a temporary file which is then moved over the old one, so a crash while writing never leaves a partial snapshot behind.
+ *
+ * Format: MAGIC, version, length in bytes, write time, grid count, then per grid the game id, grid name and entity count
+ * followed by the entities.  The file can be longer then length, the rest is unused.  Strings are an unsigned short length
+ * and utf-8 bytes.  The entity type is its ordinal, or NO_TYPE for entities without one.
+ *
+ * Restore skips snapshots with the wrong magic, version or length, and entities with an unknown type.  A snapshot that ends
+ * early keeps whatever was restored up to that point.
+ */
+public class GridSnapshot {
+
+	private static final Logger logger = LoggerFactory.getLogger(GridSnapshot.class);
+
+	private static final int MAGIC = 0x474d4753;
+	private static final int VERSION = 2;
+	private static final int HEADER_SIZE = 24;
+	private static final int LENGTH_OFFSET = 8;
+	private static final int NO_TYPE = -1;
+
+	// Used to size the file before writing, ids longer then this just cause a remap
+	private static final int ENTITY_SIZE = 19 + 32;
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	// A restored entity, used to drop players that never come back
+	public static class Restored {
+		public final String gameId;
+		public final String gridName;
+		public final TrackData trackData;
+
+		public Restored(String gameId, String gridName, TrackData trackData) {
+			this.gameId = gameId;
+			this.gridName = gridName;
+			this.trackData = trackData;
+		}
+	}
+
+	// Writes into a mapped file, mapping a larger region when the current one is full
+	private static class MappedWriter {
+		private final FileChannel channel;
+		private MappedByteBuffer buffer;
+
+		MappedWriter(FileChannel channel, int size) throws IOException {
+			this.channel = channel;
+			this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+		}
+
+		private void ensure(int bytes) throws IOException {
+			if (buffer.remaining() >= bytes) {
+				return;
+			}
+			int position = buffer.position();
+			long size = Math.max((long) buffer.capacity() * 2, (long) position + bytes);
+			if (size > Integer.MAX_VALUE) {
+				throw new IOException("Grid snapshot larger then " + Integer.MAX_VALUE + " bytes");
+			}
+			buffer.force();
+			buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+			buffer.position(position);
+		}
+
+		void putInt(int value) throws IOException {
+			ensure(4);
+			buffer.putInt(value);
+		}
+
+		void putLong(long value) throws IOException {
+			ensure(8);
+			buffer.putLong(value);
+		}
+
+		void putByte(int value) throws IOException {
+			ensure(1);
+			buffer.put((byte) value);
+		}
+
+		void putString(String value) throws IOException {
+			byte[] bytes = value.getBytes(UTF8);
+			ensure(2 + bytes.length);
+			buffer.putShort((short) bytes.length);
+			buffer.put(bytes);
+		}
+
+		int position() {
+			return buffer.position();
+		}
+
+		void putInt(int index, int value) {
+			buffer.putInt(index, value);
+		}
+
+		void force() {
+			buffer.force();
+		}
+	}
+
+	public static void write(String path) throws IOException {
+		Map<String, ConcurrentHashMap<String, Grid>> gameGrids = GameGrid.getGameGrids();
+
+		List<String> gameIds = new ArrayList<String>();
+		List<String> gridNames = new ArrayList<String>();
+		List<Grid> grids = new ArrayList<Grid>();
+		long size = HEADER_SIZE;
+		for (Map.Entry<String, ConcurrentHashMap<String, Grid>> game : gameGrids.entrySet()) {
+			for (Map.Entry<String, Grid> entry : game.getValue().entrySet()) {
+				gameIds.add(game.getKey());
+				gridNames.add(entry.getKey());
+				grids.add(entry.getValue());
+				size += 8 + game.getKey().length() + entry.getKey().length();
+				size += (long) entry.getValue().getObjectCount() * ENTITY_SIZE;
+			}
+		}
+
+		File file = new File(path);
+		File tmp = new File(path + ".tmp");
+		if (file.getParentFile() != null) {
+			file.getParentFile().mkdirs();
+		}
+
+		RandomAccessFile raf = new RandomAccessFile(tmp, "rw");
+		try {
+			raf.setLength(0);
+			MappedWriter out = new MappedWriter(raf.getChannel(), (int) Math.min(size, Integer.MAX_VALUE));
+			out.putInt(MAGIC);
+			out.putInt(VERSION);
+			out.putInt(0);
+			out.putLong(System.currentTimeMillis());
+			out.putInt(grids.size());
+			for (int i = 0; i < grids.size(); i++) {
+				Grid grid = grids.get(i);
+				out.putString(gameIds.get(i));
+				out.putString(gridNames.get(i));
+
+				// Entities removed since getAll have no short id anymore and are left out
+				int countPosition = out.position();
+				out.putInt(0);
+				int count = 0;
+				for (TrackData trackData : grid.getAll()) {
+					Integer shortId = grid.findShortId(trackData.id);
+					if (shortId == null) {
+						continue;
+					}
+					out.putString(trackData.id);
+					out.putInt(shortId);
+					out.putInt(trackData.x);
+					out.putInt(trackData.y);
+					out.putInt((trackData.z == null) ? 0 : trackData.z);
+					out.putByte((trackData.entityType == null) ? NO_TYPE : trackData.entityType.ordinal());
+					count++;
+				}
+				out.putInt(countPosition, count);
+			}
+			out.putInt(LENGTH_OFFSET, out.position());
+			out.force();
+		} finally {
+			raf.close();
+		}
+		Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/*
+	 * Loads the snapshot at path back into GameGrid, if it is no older then maxAge ms.  Grids whose config no longer exists are
+	 * skipped.  Returns the restored entities.
+	 */
+	public static List<Restored> restore(String path, long maxAge) throws IOException {
+		List<Restored> restored = new ArrayList<Restored>();
+		File file = new File(path);
+		if (!file.exists()) {
+			return restored;
+		}
+
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+			if (buffer.remaining() < HEADER_SIZE || buffer.getInt() != MAGIC) {
+				logger.warn("Ignoring invalid grid snapshot " + path);
+				return restored;
+			}
+			int version = buffer.getInt();
+			if (version != VERSION) {
+				logger.warn("Ignoring grid snapshot " + path + " with version " + version + ", expected " + VERSION);
+				return restored;
+			}
+			int length = buffer.getInt();
+			if (length < HEADER_SIZE || length > buffer.limit()) {
+				logger.warn("Ignoring grid snapshot " + path + " with length " + length + ", file is " + buffer.limit() + " bytes");
+				return restored;
+			}
+			buffer.limit(length);
+
+			long age = System.currentTimeMillis() - buffer.getLong();
+			if (age > maxAge) {
+				logger.info("Grid snapshot is " + age + "ms old, not restoring");
+				return restored;
+			}
+
+			try {
+				readGrids(buffer, restored);
+			} catch (BufferUnderflowException e) {
+				logger.warn("Grid snapshot " + path + " ends early, restored " + restored.size() + " entities");
+			}
+		} finally {
+			raf.close();
+		}
+		return restored;
+	}
+
+	private static void readGrids(ByteBuffer buffer, List<Restored> restored) {
+		EntityType[] entityTypes = EntityType.values();
+		int gridCount = buffer.getInt();
+		for (int i = 0; i < gridCount; i++) {
+			String gameId = readString(buffer);
+			String gridName = readString(buffer);
+			int count = buffer.getInt();
+			Grid grid = GameGrid.getGameGrid(gameId, gridName);
+
+			int skipped = 0;
+			for (int j = 0; j < count; j++) {
+				String id = readString(buffer);
+				int shortId = buffer.getInt();
+				int x = buffer.getInt();
+				int y = buffer.getInt();
+				int z = buffer.getInt();
+				int type = buffer.get();
+				if (type != NO_TYPE && (type < 0 || type >= entityTypes.length)) {
+					skipped++;
+					continue;
+				}
+				EntityType entityType = (type == NO_TYPE) ? null : entityTypes[type];
+				if (grid != null && grid.restore(id, shortId, x, y, z, entityType)) {
+					restored.add(new Restored(gameId, gridName, grid.get(id)));
+				}
+			}
+			if (skipped > 0) {
+				logger.warn("Skipped " + skipped + " entities with an unknown entity type in " + gameId + " " + gridName);
+			}
+			logger.info("Restored " + (count - skipped) + " entities to " + gameId + " " + gridName);
+		}
+	}
+
+	private static String readString(ByteBuffer buffer) {
+		int length = buffer.getShort() & 0xffff;
+		byte[] bytes = new byte[length];
+		buffer.get(bytes);
+		return new String(bytes, UTF8);
+	}
+}
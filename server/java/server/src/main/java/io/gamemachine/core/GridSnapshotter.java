@@ -0,0 +1,103 @@
+package io.gamemachine.core;
+
+import io.gamemachine.config.AppConfig;
+import io.gamemachine.core.GridSnapshot.Restored;
+import io.gamemachine.messages.TrackData.EntityType;
+import io.gamemachine.net.Connection;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import scala.concurrent.duration.Duration;
+import akka.actor.UntypedActor;
+
+/*
+ * Restores the grids from the last GridSnapshot on startup, then writes a new snapshot every grid_snapshot.interval ms.
+ *
+ * Restored players that have not reconnected after max_age are removed, since nothing else will remove them.  Entities
+ * owned by agent controllers are left alone, the agent keeps sending them.
+ */
+public class GridSnapshotter extends UntypedActor {
+
+	private static final Logger logger = LoggerFactory.getLogger(GridSnapshotter.class);
+
+	public static String name = "grid_snapshotter";
+
+	private final String path;
+	private final int interval;
+	private final long maxAge;
+	private List<Restored> restored = new ArrayList<Restored>();
+
+	public GridSnapshotter() {
+		this.path = AppConfig.GridSnapshot.getPath();
+		this.interval = AppConfig.GridSnapshot.getInterval();
+		this.maxAge = AppConfig.GridSnapshot.getMaxAge();
+	}
+
+	@Override
+	public void preStart() {
+		try {
+			long start = System.currentTimeMillis();
+			restored = GridSnapshot.restore(path, maxAge);
+			logger.info("Restored " + restored.size() + " entities from grid snapshot in " + (System.currentTimeMillis() - start) + "ms");
+		} catch (Exception e) {
+			logger.warn("Unable to restore grid snapshot " + path + " " + e.getMessage());
+		}
+		if (restored.size() > 0) {
+			tick(maxAge, "prune_restored");
+		}
+		tick(interval, "snapshot");
+	}
+
+	@Override
+	public void onReceive(Object message) throws Exception {
+		if (message instanceof String) {
+			String msg = (String) message;
+			if (msg.equals("snapshot")) {
+				try {
+					GridSnapshot.write(path);
+				} catch (IOException e) {
+					logger.warn("Unable to write grid snapshot " + path + " " + e.getMessage());
+				}
+				tick(interval, "snapshot");
+			} else if (msg.equals("prune_restored")) {
+				pruneRestored();
+			}
+		} else {
+			unhandled(message);
+		}
+	}
+
+	private void pruneRestored() {
+		int removed = 0;
+		for (Restored entry : restored) {
+			if (entry.trackData.entityType != EntityType.PLAYER || Connection.hasConnection(entry.trackData.id)) {
+				continue;
+			}
+			Map<String, Grid> grids = GameGrid.getGameGrids().get(entry.gameId);
+			Grid grid = (grids == null) ? null : grids.get(entry.gridName);
+
+			// Still the restored copy, the player never sent a full update
+			if (grid != null && grid.get(entry.trackData.id) == entry.trackData) {
+				grid.remove(entry.trackData.id);
+				removed++;
+			}
+		}
+		restored.clear();
+		logger.info("Removed " + removed + " restored players that did not reconnect");
+	}
+
+	public void tick(long delay, String message) {
+		getContext()
+				.system()
+				.scheduler()
+				.scheduleOnce(Duration.create(delay, TimeUnit.MILLISECONDS), getSelf(), message,
+						getContext().dispatcher(), null);
+	}
+}
@@ -0,0 +1,137 @@
+package io.gamemachine.core;
+
+import io.gamemachine.messages.TrackData;
+import io.gamemachine.messages.TrackData.EntityType;
+
+/*
+ * An area of a grid that gameplay code wants to know about, such as a region volume, an area trigger or an npc's aggro radius.
+ * The listener is told when an entity comes into the area and when it leaves it, see GridEvents.
+ *
+ * The area is a box, a circle around a fixed point, or a circle that follows an entity around.  Coordinates and radius are
+ * scaled like TrackData coordinates.  entityType limits the watcher to one type of entity, null watches all of them.
+ */
+public class GridWatcher {
+
+	public interface Listener {
+		void entered(GridWatcher watcher, TrackData trackData);
+
+		void left(GridWatcher watcher, TrackData trackData);
+	}
+
+	private final String id;
+	private final String anchorId;
+	private final EntityType entityType;
+	private final Listener listener;
+	private final boolean circle;
+	private final long radiusSquared;
+	private final int radius;
+	private int minX;
+	private int minY;
+	private int maxX;
+	private int maxY;
+	private int centerX;
+	private int centerY;
+
+	// Cells GridEvents has the watcher registered in, startRow is -1 when none
+	int startRow = -1;
+	int endRow;
+	int startCol;
+	int endCol;
+
+	private GridWatcher(String id, String anchorId, EntityType entityType, Listener listener, boolean circle, int radius) {
+		this.id = id;
+		this.anchorId = anchorId;
+		this.entityType = entityType;
+		this.listener = listener;
+		this.circle = circle;
+		this.radius = radius;
+		this.radiusSquared = (long) radius * radius;
+	}
+
+	public static GridWatcher box(String id, int minX, int minY, int maxX, int maxY, EntityType entityType, Listener listener) {
+		GridWatcher watcher = new GridWatcher(id, null, entityType, listener, false, 0);
+		watcher.minX = minX;
+		watcher.minY = minY;
+		watcher.maxX = maxX;
+		watcher.maxY = maxY;
+		return watcher;
+	}
+
+	public static GridWatcher circle(String id, int x, int y, int radius, EntityType entityType, Listener listener) {
+		GridWatcher watcher = new GridWatcher(id, null, entityType, listener, true, radius);
+		watcher.moveTo(x, y);
+		return watcher;
+	}
+
+	// Follows anchorId, which never enters its own watcher.  Watches nothing until anchorId is set in the grid
+	public static GridWatcher following(String id, String anchorId, int radius, EntityType entityType, Listener listener) {
+		GridWatcher watcher = new GridWatcher(id, anchorId, entityType, listener, true, radius);
+		watcher.moveTo(Integer.MIN_VALUE / 2, Integer.MIN_VALUE / 2);
+		return watcher;
+	}
+
+	void moveTo(int x, int y) {
+		centerX = x;
+		centerY = y;
+		minX = x - radius;
+		minY = y - radius;
+		maxX = x + radius;
+		maxY = y + radius;
+	}
+
+	boolean contains(TrackData trackData) {
+		if (entityType != null && entityType != trackData.entityType) {
+			return false;
+		}
+		if (anchorId != null && anchorId.equals(trackData.id)) {
+			return false;
+		}
+		int x = trackData.x;
+		int y = trackData.y;
+		if (x < minX || x > maxX || y < minY || y > maxY) {
+			return false;
+		}
+		if (circle) {
+			long dx = x - centerX;
+			long dy = y - centerY;
+			return dx * dx + dy * dy <= radiusSquared;
+		}
+		return true;
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	public String getAnchorId() {
+		return anchorId;
+	}
+
+	public EntityType getEntityType() {
+		return entityType;
+	}
+
+	public int getRadius() {
+		return radius;
+	}
+
+	public Listener getListener() {
+		return listener;
+	}
+
+	public int getMinX() {
+		return minX;
+	}
+
+	public int getMinY() {
+		return minY;
+	}
+
+	public int getMaxX() {
+		return maxX;
+	}
+
+	public int getMaxY() {
+		return maxY;
+	}
+}
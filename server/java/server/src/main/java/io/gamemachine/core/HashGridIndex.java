@@ -0,0 +1,151 @@
+package io.gamemachine.core;
+
+import io.gamemachine.messages.TrackData;
+import io.gamemachine.messages.TrackData.EntityType;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+ * The original grid storage.  Every cell is a map of id to TrackData per TypeBuckets bucket, safe for concurrent use by any number of
+ * threads.  The cells map is keyed by cell * TypeBuckets.COUNT + bucket.
+ */
+public class HashGridIndex implements GridIndex {
+
+	private ConcurrentHashMap<String, TrackData> objectIndex = new ConcurrentHashMap<String, TrackData>();
+	private ConcurrentHashMap<String, Integer> cellsIndex = new ConcurrentHashMap<String, Integer>();
+	private ConcurrentHashMap<Integer, ConcurrentHashMap<String, TrackData>> cells = new ConcurrentHashMap<Integer, ConcurrentHashMap<String, TrackData>>();
+
+	private static int key(int cell, int bucket) {
+		return cell * TypeBuckets.COUNT + bucket;
+	}
+
+	@Override
+	public void set(TrackData trackData, int cell) {
+		String id = trackData.id;
+		int key = key(cell, TypeBuckets.bucket(trackData.entityType));
+
+		Integer oldKey = cellsIndex.get(id);
+
+		if (oldKey != null) {
+			if (oldKey != key) {
+				ConcurrentHashMap<String, TrackData> cellGridValues = cells.get(oldKey);
+				if (cellGridValues != null && cellGridValues.containsKey(id)) {
+					cellGridValues.remove(id);
+				}
+				if (cellGridValues != null && cellGridValues.size() == 0) {
+					cells.remove(oldKey);
+				}
+
+			}
+			objectIndex.replace(id, trackData);
+			cellsIndex.replace(id, key);
+		} else {
+			cellsIndex.put(id, key);
+			objectIndex.put(id, trackData);
+		}
+
+		ConcurrentHashMap<String, TrackData> cellGridValues = cells.get(key);
+		if (cellGridValues == null) {
+			cellGridValues = new ConcurrentHashMap<String, TrackData>();
+			cellGridValues.put(id, trackData);
+			cells.put(key, cellGridValues);
+		} else {
+			cellGridValues.put(id, trackData);
+		}
+	}
+
+	@Override
+	public void setBatch(TrackData[] trackDatas, int[] cells, int count) {
+		for (int i = 0; i < count; i++) {
+			set(trackDatas[i], cells[i]);
+		}
+	}
+
+	@Override
+	public TrackData remove(String id) {
+		TrackData indexValue = objectIndex.get(id);
+		if (indexValue != null) {
+			Integer key = cellsIndex.get(id);
+			if (key != null) {
+				ConcurrentHashMap<String, TrackData> cellGridValues = cells.get(key);
+				if (cellGridValues != null) {
+					cellGridValues.remove(id);
+				}
+			}
+			objectIndex.remove(id);
+			cellsIndex.remove(id);
+		}
+		return indexValue;
+	}
+
+	@Override
+	public TrackData get(String id) {
+		return objectIndex.get(id);
+	}
+
+	@Override
+	public int size() {
+		return objectIndex.size();
+	}
+
+	@Override
+	public void collect(int cell, EntityType entityType, List<TrackData> result) {
+		if (entityType != null) {
+			ConcurrentHashMap<String, TrackData> cellGridValues = cells.get(key(cell, TypeBuckets.bucket(entityType)));
+			if (cellGridValues != null) {
+				result.addAll(cellGridValues.values());
+			}
+			return;
+		}
+
+		for (int bucket = 0; bucket < TypeBuckets.COUNT; bucket++) {
+			ConcurrentHashMap<String, TrackData> cellGridValues = cells.get(key(cell, bucket));
+			if (cellGridValues != null) {
+				result.addAll(cellGridValues.values());
+			}
+		}
+	}
+
+	@Override
+	public void collectWithinRadius(int cell, EntityType entityType, int x, int y, long radiusSquared, List<TrackData> result) {
+		if (entityType != null) {
+			collectWithinRadius(cells.get(key(cell, TypeBuckets.bucket(entityType))), x, y, radiusSquared, result);
+			return;
+		}
+
+		for (int bucket = 0; bucket < TypeBuckets.COUNT; bucket++) {
+			collectWithinRadius(cells.get(key(cell, bucket)), x, y, radiusSquared, result);
+		}
+	}
+
+	private void collectWithinRadius(ConcurrentHashMap<String, TrackData> cellGridValues, int x, int y, long radiusSquared,
+			List<TrackData> result) {
+		if (cellGridValues == null) {
+			return;
+		}
+
+		for (TrackData trackData : cellGridValues.values()) {
+			long dx = trackData.x - x;
+			long dy = trackData.y - y;
+			if (dx * dx + dy * dy <= radiusSquared) {
+				result.add(trackData);
+			}
+		}
+	}
+
+	@Override
+	public Collection<TrackData> cellMembers(int cell) {
+		List<TrackData> members = new ArrayList<TrackData>();
+		collect(cell, null, members);
+		return members.isEmpty() ? null : members;
+	}
+
+	@Override
+	public void collectAll(List<TrackData> result) {
+		result.addAll(objectIndex.values());
+	}
+
+}
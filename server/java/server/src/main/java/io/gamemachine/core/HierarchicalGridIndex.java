@@ -0,0 +1,332 @@
+package io.gamemachine.core;
+
+import io.gamemachine.messages.TrackData;
+import io.gamemachine.messages.TrackData.EntityType;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/*
+ * Two level grid storage for large worlds with uneven population.
+ *
+ * Cells are grouped into blocks of BLOCK_CELLS x BLOCK_CELLS.  A block only exists while it has members, so a lookup in empty
+ * space is a single null check no matter how small the cell size is.  A sparse block keeps its members in one list per
+ * TypeBuckets bucket which collect scans, filtering on cell.  Once a block has more then SPLIT_SIZE members it splits into
+ * lists per cell and bucket so queries in dense areas only touch the cells they ask for, and merges back when it drops below
+ * half of that.
+ *
+ * This lets a grid use a small cell size for dense towns without paying for it in open terrain.
+ *
+ * Cells outside of the grid go to a separate overflow index.  A single read/write lock guards the blocks.
+ */
+public class HierarchicalGridIndex implements GridIndex {
+
+	public static final int BLOCK_CELLS = 8;
+	public static final int SPLIT_SIZE = 32;
+
+	private static class Entry {
+		final String id;
+		TrackData trackData;
+		int cell;
+		int bucket;
+		int x;
+		int y;
+
+		Entry(String id) {
+			this.id = id;
+		}
+	}
+
+	private static class Block {
+		int count = 0;
+
+		// members by bucket while sparse, null once split
+		ArrayList<Entry>[] members = newLists(TypeBuckets.COUNT);
+
+		// members once split, indexed by cell within the block * TypeBuckets.COUNT + bucket
+		ArrayList<Entry>[] cells = null;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static ArrayList<Entry>[] newLists(int count) {
+		return new ArrayList[count];
+	}
+
+	private final int width;
+	private final int cellCount;
+	private final int blocksPerSide;
+	private final Block[] blocks;
+	private final GridIndex overflow = new HashGridIndex();
+
+	private HashMap<String, Entry> entries = new HashMap<String, Entry>();
+	private volatile int size = 0;
+
+	private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+	public HierarchicalGridIndex(int width) {
+		this.width = width;
+		this.cellCount = width * width;
+		this.blocksPerSide = (width + BLOCK_CELLS - 1) / BLOCK_CELLS;
+		this.blocks = new Block[blocksPerSide * blocksPerSide];
+	}
+
+	private boolean validCell(int cell) {
+		return cell >= 0 && cell < cellCount;
+	}
+
+	private int blockFor(int cell) {
+		int row = cell % width;
+		int col = cell / width;
+		return (row / BLOCK_CELLS) + (col / BLOCK_CELLS) * blocksPerSide;
+	}
+
+	private int cellInBlock(int cell) {
+		int row = cell % width;
+		int col = cell / width;
+		return (row % BLOCK_CELLS) + (col % BLOCK_CELLS) * BLOCK_CELLS;
+	}
+
+	private void split(Block block) {
+		block.cells = newLists(BLOCK_CELLS * BLOCK_CELLS * TypeBuckets.COUNT);
+		for (ArrayList<Entry> list : block.members) {
+			if (list != null) {
+				for (Entry entry : list) {
+					list(block.cells, cellInBlock(entry.cell) * TypeBuckets.COUNT + entry.bucket).add(entry);
+				}
+			}
+		}
+		block.members = null;
+	}
+
+	private void merge(Block block) {
+		block.members = newLists(TypeBuckets.COUNT);
+		for (ArrayList<Entry> list : block.cells) {
+			if (list != null) {
+				for (Entry entry : list) {
+					list(block.members, entry.bucket).add(entry);
+				}
+			}
+		}
+		block.cells = null;
+	}
+
+	private ArrayList<Entry> list(ArrayList<Entry>[] lists, int i) {
+		if (lists[i] == null) {
+			lists[i] = new ArrayList<Entry>(4);
+		}
+		return lists[i];
+	}
+
+	// The list entry belongs in, given the block's current mode
+	private ArrayList<Entry> listFor(Block block, Entry entry) {
+		if (block.cells == null) {
+			return list(block.members, entry.bucket);
+		}
+		return list(block.cells, cellInBlock(entry.cell) * TypeBuckets.COUNT + entry.bucket);
+	}
+
+	private void link(Entry entry) {
+		int b = blockFor(entry.cell);
+		Block block = blocks[b];
+		if (block == null) {
+			block = new Block();
+			blocks[b] = block;
+		}
+		block.count++;
+		listFor(block, entry).add(entry);
+		if (block.cells == null && block.count > SPLIT_SIZE) {
+			split(block);
+		}
+	}
+
+	private void unlink(Entry entry) {
+		int b = blockFor(entry.cell);
+		Block block = blocks[b];
+		if (block == null) {
+			return;
+		}
+		block.count--;
+		if (block.count == 0) {
+			blocks[b] = null;
+			return;
+		}
+		listFor(block, entry).remove(entry);
+		if (block.cells != null && block.count < SPLIT_SIZE / 2) {
+			merge(block);
+		}
+	}
+
+	@Override
+	public void set(TrackData trackData, int cell) {
+		lock.writeLock().lock();
+		try {
+			setEntry(trackData, cell);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public void setBatch(TrackData[] batch, int[] cells, int count) {
+		lock.writeLock().lock();
+		try {
+			for (int i = 0; i < count; i++) {
+				setEntry(batch[i], cells[i]);
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	private void setEntry(TrackData trackData, int cell) {
+		Entry entry = entries.get(trackData.id);
+		int bucket = TypeBuckets.bucket(trackData.entityType);
+		if (entry == null) {
+			entry = new Entry(trackData.id);
+			entries.put(trackData.id, entry);
+			size++;
+		} else if (entry.cell != cell || entry.bucket != bucket || !validCell(cell)) {
+			if (validCell(entry.cell)) {
+				unlink(entry);
+			} else {
+				overflow.remove(entry.id);
+			}
+		} else {
+			entry.trackData = trackData;
+			entry.x = trackData.x;
+			entry.y = trackData.y;
+			return;
+		}
+
+		entry.trackData = trackData;
+		entry.cell = cell;
+		entry.bucket = bucket;
+		entry.x = trackData.x;
+		entry.y = trackData.y;
+		if (validCell(cell)) {
+			link(entry);
+		} else {
+			overflow.set(trackData, cell);
+		}
+	}
+
+	@Override
+	public TrackData remove(String id) {
+		lock.writeLock().lock();
+		try {
+			Entry entry = entries.remove(id);
+			if (entry == null) {
+				return null;
+			}
+			size--;
+			if (validCell(entry.cell)) {
+				unlink(entry);
+			} else {
+				overflow.remove(id);
+			}
+			return entry.trackData;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public TrackData get(String id) {
+		lock.readLock().lock();
+		try {
+			Entry entry = entries.get(id);
+			return (entry == null) ? null : entry.trackData;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public void collect(int cell, EntityType entityType, List<TrackData> result) {
+		collectWithinRadius(cell, entityType, 0, 0, -1, result);
+	}
+
+	// radiusSquared of -1 means no distance check
+	@Override
+	public void collectWithinRadius(int cell, EntityType entityType, int x, int y, long radiusSquared, List<TrackData> result) {
+		if (!validCell(cell)) {
+			if (radiusSquared == -1) {
+				overflow.collect(cell, entityType, result);
+			} else {
+				overflow.collectWithinRadius(cell, entityType, x, y, radiusSquared, result);
+			}
+			return;
+		}
+		int first = 0;
+		int last = TypeBuckets.COUNT - 1;
+		if (entityType != null) {
+			first = TypeBuckets.bucket(entityType);
+			last = first;
+		}
+
+		lock.readLock().lock();
+		try {
+			Block block = blocks[blockFor(cell)];
+			if (block == null) {
+				return;
+			}
+			ArrayList<Entry>[] lists = block.members;
+			int offset = 0;
+			if (block.cells != null) {
+				lists = block.cells;
+				offset = cellInBlock(cell) * TypeBuckets.COUNT;
+			}
+
+			for (int bucket = first; bucket <= last; bucket++) {
+				ArrayList<Entry> members = lists[offset + bucket];
+				if (members == null) {
+					continue;
+				}
+				for (int i = 0; i < members.size(); i++) {
+					Entry entry = members.get(i);
+					if (entry.cell != cell) {
+						continue;
+					}
+					if (radiusSquared != -1) {
+						long dx = entry.x - x;
+						long dy = entry.y - y;
+						if (dx * dx + dy * dy > radiusSquared) {
+							continue;
+						}
+					}
+					result.add(entry.trackData);
+				}
+			}
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public Collection<TrackData> cellMembers(int cell) {
+		List<TrackData> members = new ArrayList<TrackData>();
+		collect(cell, null, members);
+		return members.isEmpty() ? null : members;
+	}
+
+	@Override
+	public void collectAll(List<TrackData> result) {
+		lock.readLock().lock();
+		try {
+			for (Entry entry : entries.values()) {
+				result.add(entry.trackData);
+			}
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+}
@@ -0,0 +1,100 @@
+package io.gamemachine.core;
+
+import io.gamemachine.core.GridInterest.Subscription;
+import io.gamemachine.messages.TrackData;
+import io.gamemachine.messages.TrackData.EntityType;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import scala.concurrent.duration.Duration;
+import akka.actor.UntypedActor;
+
+/*
+ * Drives a grid's GridInterest.  Created by GameGrid for grids with a tick configured, and stops itself once the grid
+ * has been replaced or removed.
+ */
+public class InterestManager extends UntypedActor {
+
+	private static final Logger logger = LoggerFactory.getLogger(InterestManager.class);
+
+	private final String gameId;
+	private final String gridName;
+	private final Grid grid;
+	private final GridInterest interest;
+
+	public InterestManager(String gameId, String gridName, Grid grid) {
+		this.gameId = gameId;
+		this.gridName = gridName;
+		this.grid = grid;
+		this.interest = grid.getInterest();
+	}
+
+	@Override
+	public void preStart() {
+		tick(interest.getTickInterval(), "interest_tick");
+	}
+
+	@Override
+	public void onReceive(Object message) throws Exception {
+		if (message instanceof String) {
+			String msg = (String) message;
+			if (msg.equals("interest_tick")) {
+				if (!isCurrentGrid()) {
+					logger.debug("Stopping interest manager for " + gameId + " " + gridName);
+					getContext().stop(getSelf());
+					return;
+				}
+				update();
+				tick(interest.getTickInterval(), "interest_tick");
+			}
+		} else {
+			unhandled(message);
+		}
+	}
+
+	private boolean isCurrentGrid() {
+		Map<String, Grid> grids = GameGrid.getGameGrids().get(gameId);
+		return (grids != null && grids.get(gridName) == grid);
+	}
+
+	private void update() {
+		boolean includeFar = interest.nextTick();
+		int farRadius = includeFar ? 0 : interest.getFarRadius();
+		interest.expire(System.currentTimeMillis());
+
+		for (Subscription subscription : interest.getSubscriptions()) {
+			List<TrackData> trackDatas;
+			if (subscription.entityType == EntityType.ALL) {
+				if (!subscription.isAgentController) {
+					continue;
+				}
+				trackDatas = grid.getAll();
+			} else {
+				TrackData location = grid.get(subscription.entityId);
+				if (location == null) {
+					continue;
+				}
+				int z = (location.z == null) ? 0 : location.z;
+				trackDatas = grid.neighbors(subscription.player.id, location.x, location.y, z, subscription.entityType,
+						subscription.optsFlag, farRadius);
+			}
+
+			if (trackDatas.size() >= 1) {
+				PlayerCommands.sendNeighbors(subscription.player, trackDatas);
+			}
+		}
+	}
+
+	public void tick(int delay, String message) {
+		getContext()
+				.system()
+				.scheduler()
+				.scheduleOnce(Duration.create(delay, TimeUnit.MILLISECONDS), getSelf(), message,
+						getContext().dispatcher(), null);
+	}
+}
@@ -0,0 +1,161 @@
+package io.gamemachine.core;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/*
+ * Recent positions of every verified entity, for movement verifiers.
+ *
+ * Like ArrayGridIndex, each id is mapped to a dense int slot the first time it is seen and everything else lives in primitive
+ * arrays indexed by slot.  Each slot keeps a ring of the last window samples (x, y and time in ms), so a verifier can compare
+ * against any recent position without allocating.  Freed slots are reused.
+ *
+ * Ids are spread over STRIPES stripes by hash, each with its own slots and arrays, so entity tracking routees only contend when
+ * their players land in the same stripe.  Callers synchronize on the stripe for as long as they use a slot.
+ */
+public class MovementState {
+
+	public static final int NONE = -1;
+	public static final int STRIPES = 16;
+
+	private final Stripe[] stripes = new Stripe[STRIPES];
+
+	public MovementState(int window) {
+		for (int i = 0; i < STRIPES; i++) {
+			stripes[i] = new Stripe(window, 64);
+		}
+	}
+
+	public Stripe stripe(String id) {
+		return stripes[(id.hashCode() & Integer.MAX_VALUE) % STRIPES];
+	}
+
+	public void remove(String id) {
+		Stripe stripe = stripe(id);
+		synchronized (stripe) {
+			stripe.remove(id);
+		}
+	}
+
+	// Drops the samples of id and starts over from x,y
+	public void reset(String id, int x, int y, long time) {
+		Stripe stripe = stripe(id);
+		synchronized (stripe) {
+			int slot = stripe.find(id);
+			if (slot == NONE) {
+				slot = stripe.allocate(id);
+			} else {
+				stripe.clear(slot);
+			}
+			stripe.add(slot, x, y, time);
+		}
+	}
+
+	public static class Stripe {
+		private final int window;
+		private HashMap<String, Integer> slots;
+		private int[] xs;
+		private int[] ys;
+		private long[] times;
+		private int[] heads;
+		private int[] counts;
+		private int[] nextFree;
+
+		private int capacity;
+		private int highWater = 0;
+		private int freeHead = NONE;
+
+		Stripe(int window, int initialCapacity) {
+			this.window = window;
+			this.capacity = initialCapacity;
+			this.slots = new HashMap<String, Integer>(capacity * 2);
+			this.xs = new int[capacity * window];
+			this.ys = new int[capacity * window];
+			this.times = new long[capacity * window];
+			this.heads = new int[capacity];
+			this.counts = new int[capacity];
+			this.nextFree = new int[capacity];
+		}
+
+		private void grow() {
+			int newCapacity = capacity * 2;
+			xs = Arrays.copyOf(xs, newCapacity * window);
+			ys = Arrays.copyOf(ys, newCapacity * window);
+			times = Arrays.copyOf(times, newCapacity * window);
+			heads = Arrays.copyOf(heads, newCapacity);
+			counts = Arrays.copyOf(counts, newCapacity);
+			nextFree = Arrays.copyOf(nextFree, newCapacity);
+			capacity = newCapacity;
+		}
+
+		public int find(String id) {
+			Integer slot = slots.get(id);
+			return (slot == null) ? NONE : slot;
+		}
+
+		public int allocate(String id) {
+			int slot;
+			if (freeHead != NONE) {
+				slot = freeHead;
+				freeHead = nextFree[slot];
+			} else {
+				if (highWater == capacity) {
+					grow();
+				}
+				slot = highWater++;
+			}
+			heads[slot] = 0;
+			counts[slot] = 0;
+			slots.put(id, slot);
+			return slot;
+		}
+
+		public void remove(String id) {
+			Integer slot = slots.remove(id);
+			if (slot == null) {
+				return;
+			}
+			counts[slot] = 0;
+			nextFree[slot] = freeHead;
+			freeHead = slot;
+		}
+
+		public void clear(int slot) {
+			counts[slot] = 0;
+		}
+
+		public void add(int slot, int x, int y, long time) {
+			int head = (counts[slot] == 0) ? 0 : (heads[slot] + 1) % window;
+			int i = slot * window + head;
+			xs[i] = x;
+			ys[i] = y;
+			times[i] = time;
+			heads[slot] = head;
+			if (counts[slot] < window) {
+				counts[slot]++;
+			}
+		}
+
+		// Number of samples kept for slot, up to window
+		public int count(int slot) {
+			return counts[slot];
+		}
+
+		// Samples are addressed by age, 0 is the latest
+		private int sample(int slot, int age) {
+			return slot * window + (heads[slot] - age + window) % window;
+		}
+
+		public int x(int slot, int age) {
+			return xs[sample(slot, age)];
+		}
+
+		public int y(int slot, int age) {
+			return ys[sample(slot, age)];
+		}
+
+		public long time(int slot, int age) {
+			return times[sample(slot, age)];
+		}
+	}
+}
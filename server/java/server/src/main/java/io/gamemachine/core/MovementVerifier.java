@@ -4,4 +4,13 @@ import io.gamemachine.messages.TrackData;
 
 public interface MovementVerifier {
 	boolean verify(TrackData trackData);
+
+	// Verifies a move of id to x,y, for callers that already resolved a delta to a position
+	boolean verify(String id, int x, int y);
+
+	// Drops what is kept about id, called when its player disconnects
+	void remove(String id);
+
+	// Makes x,y the last accepted position of id, for moves the server makes such as teleports, respawns and zone transfers
+	void reset(String id, int x, int y);
 }
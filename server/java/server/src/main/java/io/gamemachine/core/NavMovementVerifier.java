@@ -0,0 +1,82 @@
+package io.gamemachine.core;
+
+import io.gamemachine.messages.TrackData;
+
+/*
+ * Checks every move against a WalkabilityMap, on top of the speed check of DefaultMovementVerifier.  The segment from the last
+ * accepted position to the new one must only cross walkable cells, with no step between them higher then GridGraph.maxStep.
+ *
+ * The last accepted position of each entity is kept in a MovementState.  Delta updates are resolved against it, a delta with
+ * no position to apply it to is left for the grid, which asks for a resend.  The resolved position is what the speed check
+ * sees, so senders of deltas are speed checked too.  The first position of an entity is always accepted.
+ *
+ * Moves are always checked from the last accepted position, so code that moves a player itself, like a teleport, must call
+ * EntityTracking.resetMovement or the player stays stuck there.
+ */
+public class NavMovementVerifier implements MovementVerifier {
+
+	// TrackData coordinates are world units times SCALE, WalkabilityMap cells are one world unit
+	public static final double SCALE = 100d;
+
+	private final WalkabilityMap map;
+	private final MovementVerifier speedVerifier;
+	private final MovementState positions = new MovementState(1);
+
+	public NavMovementVerifier(WalkabilityMap map, MovementVerifier speedVerifier) {
+		this.map = map;
+		this.speedVerifier = speedVerifier;
+	}
+
+	@Override
+	public boolean verify(TrackData trackData) {
+		MovementState.Stripe stripe = positions.stripe(trackData.id);
+		synchronized (stripe) {
+			int slot = stripe.find(trackData.id);
+			if (trackData.hasIx()) {
+				if (slot == MovementState.NONE) {
+					return true;
+				}
+				int x = stripe.x(slot, 0) + trackData.ix;
+				int y = stripe.y(slot, 0) + ((trackData.iy == null) ? 0 : trackData.iy);
+				return verify(stripe, slot, trackData.id, x, y);
+			} else if (trackData.x != null && trackData.y != null) {
+				return verify(stripe, slot, trackData.id, trackData.x, trackData.y);
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public boolean verify(String id, int x, int y) {
+		MovementState.Stripe stripe = positions.stripe(id);
+		synchronized (stripe) {
+			return verify(stripe, stripe.find(id), id, x, y);
+		}
+	}
+
+	// Called with stripe locked.  The speed check gets the resolved position so deltas are checked as well
+	private boolean verify(MovementState.Stripe stripe, int slot, String id, int x, int y) {
+		if (!speedVerifier.verify(id, x, y)) {
+			return false;
+		}
+		if (slot == MovementState.NONE) {
+			slot = stripe.allocate(id);
+		} else if (!map.canWalk(stripe.x(slot, 0) / SCALE, stripe.y(slot, 0) / SCALE, x / SCALE, y / SCALE)) {
+			return false;
+		}
+		stripe.add(slot, x, y, 0);
+		return true;
+	}
+
+	@Override
+	public void remove(String id) {
+		positions.remove(id);
+		speedVerifier.remove(id);
+	}
+
+	@Override
+	public void reset(String id, int x, int y) {
+		positions.reset(id, x, y, 0);
+		speedVerifier.reset(id, x, y);
+	}
+}
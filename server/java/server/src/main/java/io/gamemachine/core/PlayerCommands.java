@@ -1,11 +1,18 @@
 package io.gamemachine.core;
 
+import io.gamemachine.messages.ClientMessage;
 import io.gamemachine.messages.Entity;
 import io.gamemachine.messages.GameMessage;
 import io.gamemachine.messages.GameMessages;
+import io.gamemachine.messages.Neighbors;
 import io.gamemachine.messages.Player;
+import io.gamemachine.messages.TrackData;
 import io.gamemachine.messages.TrackDataResponse;
 import io.gamemachine.net.Connection;
+import io.gamemachine.routing.PlayerOutgoing;
+
+import java.util.List;
+
 import akka.actor.ActorSelection;
 
 public class PlayerCommands {
@@ -29,7 +36,84 @@ public class PlayerCommands {
 		PlayerCommands.sendToPlayer(entity, playerId);
 	}
 
+	// Responses for a batch of entities, sent to a connected player as a single ClientMessage
+	public static void sendTrackDataResponses(String playerId, List<TrackDataResponse> responses) {
+		if (!Connection.hasConnection(playerId)) {
+			for (TrackDataResponse response : responses) {
+				sendTrackDataResponse(playerId, response.id, response.reason);
+			}
+			return;
+		}
+
+		Player player = new Player();
+		player.setId(playerId);
+		ClientMessage clientMessage = new ClientMessage();
+		for (TrackDataResponse response : responses) {
+			Entity entity = new Entity();
+			entity.id = "0";
+			entity.setPlayer(player);
+			entity.setSendToPlayer(true);
+			entity.setTrackDataResponse(response);
+			clientMessage.addEntity(entity);
+		}
+
+		Connection connection = Connection.getConnection(playerId);
+		if (connection != null && connection.isDirectSend()) {
+			connection.sendDirect(clientMessage);
+		} else {
+			ActorUtil.getSelectionByName(playerId).tell(clientMessage, null);
+		}
+	}
+
+	// Neighbors go out in batches of 30 TrackData.  Netty UDP connections with direct send get them encoded directly, see NeighborEncoder
+	public static void sendNeighbors(Player player, List<TrackData> trackDatas) {
+		Connection connection = Connection.getConnection(player.id);
+		if (connection != null && connection.sendNeighbors(trackDatas)) {
+			return;
+		}
+
+		// Serialized later by the connection or PlayerOutgoing, after the grid may have reused the deltas
+		Grid.detachDeltas(trackDatas);
+
+		Neighbors neighbors = new Neighbors();
+		int size = 30;
+		int count = 0;
+
+		for (TrackData trackData : trackDatas) {
+			neighbors.addTrackData(trackData);
+
+			count++;
+			if (count >= size) {
+				sendNeighborsToGateway(player, neighbors);
+				count = 0;
+				neighbors = new Neighbors();
+			}
+		}
+		sendNeighborsToGateway(player, neighbors);
+	}
+
+	private static void sendNeighborsToGateway(Player player, Neighbors neighbors) {
+		Entity playerMessage = new Entity();
+		playerMessage.setNeighbors(neighbors);
+		playerMessage.setPlayer(player);
+		playerMessage.setId(player.id);
+
+		Connection connection = Connection.getConnection(player.id);
+		if (connection != null && connection.isDirectSend()) {
+			playerMessage.setSendToPlayer(true);
+			connection.sendEntity(playerMessage);
+			return;
+		}
+		ActorSelection sel = ActorUtil.getSelectionByName(player.id);
+		sel.tell(playerMessage, null);
+	}
+
 	public static void sendToPlayer(Entity entity, String playerId) {
+		sendToPlayer(entity, playerId, false);
+	}
+
+	// immediate skips the player's aggregation window, for messages where latency matters more then packet count
+	public static void sendToPlayer(Entity entity, String playerId, boolean immediate) {
 		if (!entity.hasPlayer()) {
 			Player player = new Player();
 			player.setId(playerId);
@@ -37,15 +121,19 @@ public class PlayerCommands {
 		}
 		entity.setSendToPlayer(true);
 
-		ActorSelection sel;
-
-		if (Connection.hasConnection(playerId)) {
-			sel = ActorUtil.getSelectionByName(playerId);
+		Connection connection = Connection.getConnection(playerId);
+		if (connection != null && connection.isDirectSend()) {
+			connection.sendEntity(entity);
+		} else if (connection != null) {
+			ActorSelection sel = ActorUtil.getSelectionByName(playerId);
+			if (immediate) {
+				sel.tell(new PlayerOutgoing.Immediate(entity), null);
+			} else {
+				sel.tell(entity, null);
+			}
 		} else {
-			sel = ActorUtil.getSelectionByName("GameMachine::ClientManager");
+			ActorUtil.getSelectionByName("GameMachine::ClientManager").tell(entity, null);
 		}
-
-		sel.tell(entity, null);
 	}
 
 	// We need to refactor the client manager that's in ruby so we have a better way of getting at player info directly
@@ -0,0 +1,170 @@
+package io.gamemachine.core;
+
+import io.gamemachine.messages.TrackData;
+import io.gamemachine.messages.TrackData.EntityType;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+ * Splits a grid into square blocks of shardCells x shardCells cells, each with its own GridIndex, so writers in different
+ * regions of the grid do not contend on the same index lock.  Queries that span blocks simply read from each block they touch.
+ *
+ * Cells outside of the grid go to a separate overflow index so they keep the behavior of the underlying index type.
+ *
+ * When entity tracking runs sharded all updates for an entity come from one routee (see EntityTracking.shardKey), but grid
+ * changes made outside of entity tracking can still race with them, so set and remove hold a lock striped by id while they
+ * move an entity between shards.  A moving entity is added to its new shard before it is removed from the old one, so get
+ * always finds it in one of them.
+ */
+public class ShardedGridIndex implements GridIndex {
+
+	private final int width;
+	private final int shardCells;
+	private final int shardsPerSide;
+	private final GridIndex[] shards;
+	private final GridIndex overflow;
+	private final int cellCount;
+
+	public static final int LOCK_STRIPES = 64;
+	private final Object[] locks = new Object[LOCK_STRIPES];
+
+	private ConcurrentHashMap<String, Integer> shardIndex = new ConcurrentHashMap<String, Integer>();
+
+	public ShardedGridIndex(int width, int shardCells, String indexType, int initialCapacity) {
+		this.width = width;
+		this.cellCount = width * width;
+		this.shardCells = Math.max(1, Math.min(shardCells, width));
+		this.shardsPerSide = (width + this.shardCells - 1) / this.shardCells;
+		this.shards = new GridIndex[shardsPerSide * shardsPerSide];
+
+		int shardCapacity = Math.max(16, initialCapacity / shards.length);
+		for (int i = 0; i < shards.length; i++) {
+			if (indexType.equals("array")) {
+				shards[i] = new ArrayGridIndex(this.shardCells * this.shardCells, shardCapacity);
+			} else if (indexType.equals("hierarchical")) {
+				shards[i] = new HierarchicalGridIndex(this.shardCells);
+			} else {
+				shards[i] = new HashGridIndex();
+			}
+		}
+		this.overflow = new HashGridIndex();
+		for (int i = 0; i < LOCK_STRIPES; i++) {
+			locks[i] = new Object();
+		}
+	}
+
+	private Object lockFor(String id) {
+		return locks[(id.hashCode() & Integer.MAX_VALUE) % LOCK_STRIPES];
+	}
+
+	public int getShardCount() {
+		return shards.length;
+	}
+
+	// Shard for a cell id, -1 for cells outside of the grid
+	public int shardFor(int cell) {
+		if (cell < 0 || cell >= cellCount) {
+			return -1;
+		}
+		int row = cell % width;
+		int col = cell / width;
+		return (row / shardCells) + (col / shardCells) * shardsPerSide;
+	}
+
+	private int localCell(int cell) {
+		int row = cell % width;
+		int col = cell / width;
+		return (row % shardCells) + (col % shardCells) * shardCells;
+	}
+
+	private GridIndex indexFor(int shard) {
+		return (shard == -1) ? overflow : shards[shard];
+	}
+
+	private int cellFor(int shard, int cell) {
+		return (shard == -1) ? cell : localCell(cell);
+	}
+
+	@Override
+	public void set(TrackData trackData, int cell) {
+		int shard = shardFor(cell);
+		synchronized (lockFor(trackData.id)) {
+			indexFor(shard).set(trackData, cellFor(shard, cell));
+			Integer previous = shardIndex.put(trackData.id, shard);
+			if (previous != null && previous != shard) {
+				indexFor(previous).remove(trackData.id);
+			}
+		}
+	}
+
+	@Override
+	public void setBatch(TrackData[] trackDatas, int[] cells, int count) {
+		for (int i = 0; i < count; i++) {
+			set(trackDatas[i], cells[i]);
+		}
+	}
+
+	@Override
+	public TrackData remove(String id) {
+		synchronized (lockFor(id)) {
+			Integer shard = shardIndex.remove(id);
+			if (shard == null) {
+				return null;
+			}
+			return indexFor(shard).remove(id);
+		}
+	}
+
+	@Override
+	public TrackData get(String id) {
+		Integer shard = shardIndex.get(id);
+		while (shard != null) {
+			TrackData trackData = indexFor(shard).get(id);
+			if (trackData != null) {
+				return trackData;
+			}
+
+			// Moved to another shard after we looked it up
+			Integer current = shardIndex.get(id);
+			if (shard.equals(current)) {
+				return null;
+			}
+			shard = current;
+		}
+		return null;
+	}
+
+	@Override
+	public int size() {
+		return shardIndex.size();
+	}
+
+	@Override
+	public void collect(int cell, EntityType entityType, List<TrackData> result) {
+		int shard = shardFor(cell);
+		indexFor(shard).collect(cellFor(shard, cell), entityType, result);
+	}
+
+	@Override
+	public void collectWithinRadius(int cell, EntityType entityType, int x, int y, long radiusSquared, List<TrackData> result) {
+		int shard = shardFor(cell);
+		indexFor(shard).collectWithinRadius(cellFor(shard, cell), entityType, x, y, radiusSquared, result);
+	}
+
+	@Override
+	public Collection<TrackData> cellMembers(int cell) {
+		int shard = shardFor(cell);
+		return indexFor(shard).cellMembers(cellFor(shard, cell));
+	}
+
+	@Override
+	public void collectAll(List<TrackData> result) {
+		for (GridIndex shard : shards) {
+			shard.collectAll(result);
+		}
+		overflow.collectAll(result);
+	}
+
+}
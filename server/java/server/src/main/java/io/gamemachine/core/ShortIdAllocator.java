@@ -0,0 +1,115 @@
+package io.gamemachine.core;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/*
+ * Lock free pool of small int ids backed by a bitmap, one bit per id.  Ids are claimed and released with a CAS on the word
+ * holding their bit, so callers never block.
+ *
+ * Only the first activeWords words are searched.  When they are all taken the active range grows by doubling, up to the
+ * ceiling.  This keeps ids dense and the search short while the pool is small.  Id 0 is never handed out, clients use it to
+ * mean no short id.
+ */
+public class ShortIdAllocator {
+
+	private static final int INITIAL_WORDS = 16;
+
+	private final int ceiling;
+	private final AtomicLongArray words;
+	private final AtomicInteger activeWords;
+	private final AtomicInteger hint = new AtomicInteger();
+	private final AtomicInteger allocated = new AtomicInteger();
+
+	public ShortIdAllocator(int ceiling) {
+		this.ceiling = ceiling;
+		int wordCount = (ceiling >> 6) + 1;
+		this.words = new AtomicLongArray(wordCount);
+		this.activeWords = new AtomicInteger(Math.min(INITIAL_WORDS, wordCount));
+
+		// reserve 0
+		this.words.set(0, 1l);
+	}
+
+	// Returns -1 when all ids up to the ceiling are taken
+	public int allocate() {
+		while (true) {
+			int active = activeWords.get();
+			int start = hint.get() % active;
+			for (int i = 0; i < active; i++) {
+				int word = (start + i) % active;
+				long bits = words.get(word);
+				while (bits != -1l) {
+					int bit = Long.numberOfTrailingZeros(~bits);
+					int id = (word << 6) + bit;
+					if (id > ceiling) {
+						break;
+					}
+					if (words.compareAndSet(word, bits, bits | (1l << bit))) {
+						hint.set(word);
+						allocated.incrementAndGet();
+						return id;
+					}
+					bits = words.get(word);
+				}
+			}
+
+			if (active >= words.length()) {
+				return -1;
+			}
+			activeWords.compareAndSet(active, Math.min(active * 2, words.length()));
+		}
+	}
+
+	// Takes a specific id, as when restoring a snapshot.  Returns false if it is out of range or already taken
+	public boolean claim(int id) {
+		if (id <= 0 || id > ceiling) {
+			return false;
+		}
+		int word = id >> 6;
+		long mask = 1l << (id & 63);
+		while (true) {
+			long bits = words.get(word);
+			if ((bits & mask) != 0) {
+				return false;
+			}
+			if (words.compareAndSet(word, bits, bits | mask)) {
+				allocated.incrementAndGet();
+				while (true) {
+					int active = activeWords.get();
+					if (active > word || activeWords.compareAndSet(active, Math.min(Math.max(active * 2, word + 1), words.length()))) {
+						break;
+					}
+				}
+				return true;
+			}
+		}
+	}
+
+	public void release(int id) {
+		if (id <= 0 || id > ceiling) {
+			return;
+		}
+		int word = id >> 6;
+		long mask = 1l << (id & 63);
+		while (true) {
+			long bits = words.get(word);
+			if ((bits & mask) == 0) {
+				return;
+			}
+			if (words.compareAndSet(word, bits, bits & ~mask)) {
+				allocated.decrementAndGet();
+				hint.set(word);
+				return;
+			}
+		}
+	}
+
+	public int getCeiling() {
+		return ceiling;
+	}
+
+	public int getAllocatedCount() {
+		return allocated.get();
+	}
+}
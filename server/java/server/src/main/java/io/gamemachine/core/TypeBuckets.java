@@ -0,0 +1,20 @@
+package io.gamemachine.core;
+
+import io.gamemachine.messages.TrackData.EntityType;
+
+/*
+ * Grid indexes keep the members of each cell split into one bucket per EntityType, so a query for one type only walks
+ * that type.  Entities without a type get a bucket of their own, they only match queries for every type.
+ */
+public final class TypeBuckets {
+
+	public static final int COUNT = EntityType.values().length + 1;
+	private static final int UNTYPED = COUNT - 1;
+
+	private TypeBuckets() {
+	}
+
+	public static int bucket(EntityType entityType) {
+		return (entityType == null) ? UNTYPED : entityType.ordinal();
+	}
+}
@@ -0,0 +1,178 @@
+package io.gamemachine.core;
+
+import io.gamemachine.client.messages.GridData;
+import io.gamemachine.pathfinding.GridGraph;
+import io.gamemachine.pathfinding.MeshImporter;
+import io.gamemachine.pathfinding.Node;
+
+import java.io.File;
+import java.io.IOException;
+
+import com.google.common.io.Files;
+
+/*
+ * Which cells of the navigation grid can be walked, packed into bitmaps.  One bit per cell says the cell is walkable, and one
+ * bit each for the step to the next cell in x and in y says the height difference between the two is small enough to take.
+ * That is all SuperCover needs from a GridGraph, in a few bits per cell instead of a Node with connections, so the whole map
+ * stays in memory and checking a move only touches the cells it crosses.
+ *
+ * Cells are one world unit, the same as the GridGraph nodes.  Walkability follows SuperCover, GridGraph.maxSmoothSlope and
+ * GridGraph.maxStep at the time the map is built.
+ */
+public class WalkabilityMap {
+
+	private final int width;
+	private final int height;
+	private final long[] walkable;
+	private final long[] stepX;
+	private final long[] stepY;
+
+	public WalkabilityMap(int width, int height) {
+		this.width = width;
+		this.height = height;
+		int words = (int) (((long) width * height + 63) >>> 6);
+		this.walkable = new long[words];
+		this.stepX = new long[words];
+		this.stepY = new long[words];
+	}
+
+	// Loads GridData exported for pathfinding
+	public static WalkabilityMap load(String path) throws IOException {
+		byte[] bytes = Files.toByteArray(new File(path));
+		return fromGraph(MeshImporter.createGridGraph(GridData.parseFrom(bytes)));
+	}
+
+	public static WalkabilityMap fromGraph(GridGraph graph) {
+		WalkabilityMap map = new WalkabilityMap(graph.width, graph.height);
+		for (int x = 0; x < graph.width; x++) {
+			for (int y = 0; y < graph.height; y++) {
+				Node node = graph.nodes[x][y];
+				if (node == null || node.slope > GridGraph.maxSmoothSlope) {
+					continue;
+				}
+				int i = map.index(x, y);
+				set(map.walkable, i);
+				if (x + 1 < graph.width && canStep(node, graph.nodes[x + 1][y])) {
+					set(map.stepX, i);
+				}
+				if (y + 1 < graph.height && canStep(node, graph.nodes[x][y + 1])) {
+					set(map.stepY, i);
+				}
+			}
+		}
+		return map;
+	}
+
+	private static boolean canStep(Node node, Node next) {
+		return next != null && next.slope <= GridGraph.maxSmoothSlope && node.stepCost(next) <= GridGraph.maxStep;
+	}
+
+	private int index(int x, int y) {
+		return x + y * width;
+	}
+
+	private static void set(long[] bits, int i) {
+		bits[i >>> 6] |= 1l << i;
+	}
+
+	private static boolean get(long[] bits, int i) {
+		return (bits[i >>> 6] & (1l << i)) != 0;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	public boolean isWalkable(int x, int y) {
+		if (x < 0 || y < 0 || x >= width || y >= height) {
+			return false;
+		}
+		return get(walkable, index(x, y));
+	}
+
+	/*
+	 * Walks every cell the segment from one point to the other touches, in world units, the same way SuperCover does.  False if
+	 * any of them is not walkable or a step between two of them is too high.
+	 */
+	public boolean canWalk(double fromX, double fromY, double toX, double toY) {
+		double dx = Math.abs(toX - fromX);
+		double dy = Math.abs(toY - fromY);
+		int x = floor(fromX);
+		int y = floor(fromY);
+		int num = 1;
+		int sx;
+		int sy;
+		double err;
+
+		if (dx == 0) {
+			sx = 0;
+			err = Double.POSITIVE_INFINITY;
+		} else if (toX > fromX) {
+			sx = 1;
+			num += floor(toX) - x;
+			err = (1d - (fromX - floor(fromX))) * dy;
+		} else {
+			sx = -1;
+			num += x - floor(toX);
+			err = (fromX - floor(fromX)) * dy;
+		}
+
+		if (dy == 0) {
+			sy = 0;
+			err = Double.NEGATIVE_INFINITY;
+		} else if (toY > fromY) {
+			sy = 1;
+			num += floor(toY) - y;
+			err -= (1d - (fromY - floor(fromY))) * dx;
+		} else {
+			sy = -1;
+			num += y - floor(toY);
+			err -= (fromY - floor(fromY)) * dx;
+		}
+
+		if (!isWalkable(x, y)) {
+			return false;
+		}
+		while (--num > 0) {
+			if (err > 0) {
+				err -= dx;
+				if (!canStepY(x, y, sy)) {
+					return false;
+				}
+				y += sy;
+			} else {
+				err += dy;
+				if (!canStepX(x, y, sx)) {
+					return false;
+				}
+				x += sx;
+			}
+		}
+		return true;
+	}
+
+	// The step bits are stored on the lower of the two cells.  Both cells are checked for walkability when the step bit is set
+	private boolean canStepX(int x, int y, int sx) {
+		int from = (sx > 0) ? x : x - 1;
+		if (from < 0 || from + 1 >= width || y < 0 || y >= height) {
+			return false;
+		}
+		return get(stepX, index(from, y));
+	}
+
+	private boolean canStepY(int x, int y, int sy) {
+		int from = (sy > 0) ? y : y - 1;
+		if (from < 0 || from + 1 >= height || x < 0 || x >= width) {
+			return false;
+		}
+		return get(stepY, index(x, from));
+	}
+
+	private static int floor(double value) {
+		return (int) Math.floor(value);
+	}
+}
@@ -0,0 +1,355 @@
+package io.gamemachine.net;
+
+import io.netty.buffer.ByteBuf;
+import io.protostuff.ByteString;
+import io.protostuff.Input;
+import io.protostuff.Output;
+import io.protostuff.ProtobufException;
+import io.protostuff.Schema;
+import io.protostuff.UninitializedMessageException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/*
+ * Protobuf Input that reads straight from a Netty buffer, pooled or direct, so an inbound message can be decoded without first
+ * copying the packet into a byte array.  Strings and bytes fields are the only values copied out of the buffer.
+ *
+ * Reads from the buffer's reader index to its writer index.  The reader index is moved past the message as it is read.
+ * Nested messages are length delimited, as ProtobufIOUtil writes them.  Packed repeated scalars are read as well.
+ */
+public final class ByteBufInput implements Input {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final int TAG_TYPE_BITS = 3;
+	private static final int TAG_TYPE_MASK = 7;
+	private static final int VARINT = 0;
+	private static final int FIXED64 = 1;
+	private static final int LENGTH_DELIMITED = 2;
+	private static final int START_GROUP = 3;
+	private static final int END_GROUP = 4;
+	private static final int FIXED32 = 5;
+
+	private final ByteBuf buf;
+	private int limit;
+	private int lastTag = 0;
+	private int packedLimit = 0;
+
+	public ByteBufInput(ByteBuf buf) {
+		this.buf = buf;
+		this.limit = buf.writerIndex();
+	}
+
+	// Merges the readable bytes of buf into message
+	public static <T> T mergeFrom(ByteBuf buf, T message, Schema<T> schema) throws IOException {
+		ByteBufInput input = new ByteBufInput(buf);
+		schema.mergeFrom(input, message);
+		input.checkLastTagWas(0);
+		return message;
+	}
+
+	private void checkLastTagWas(int value) throws ProtobufException {
+		if (lastTag != value) {
+			throw new ProtobufException("Protocol message end-group tag did not match expected tag.");
+		}
+	}
+
+	private static ProtobufException truncated() {
+		return new ProtobufException("While parsing a protocol message, the input ended unexpectedly in the middle of a field.");
+	}
+
+	private static ProtobufException negativeSize() {
+		return new ProtobufException("Encountered an embedded string or message which claimed to have negative size.");
+	}
+
+	private void require(int count) throws ProtobufException {
+		if (buf.readerIndex() + count > limit) {
+			throw truncated();
+		}
+	}
+
+	private boolean isCurrentFieldPacked() {
+		return packedLimit != 0 && packedLimit != buf.readerIndex();
+	}
+
+	// A scalar read under a length delimited tag is the first value of a packed field
+	private void checkIfPackedField() throws IOException {
+		if (packedLimit == 0 && (lastTag & TAG_TYPE_MASK) == LENGTH_DELIMITED) {
+			int length = readRawVarint32();
+			if (length < 0) {
+				throw negativeSize();
+			}
+			require(length);
+			packedLimit = buf.readerIndex() + length;
+		}
+	}
+
+	@Override
+	public <T> void handleUnknownField(int fieldNumber, Schema<T> schema) throws IOException {
+		skipField(lastTag);
+	}
+
+	@Override
+	public <T> int readFieldNumber(Schema<T> schema) throws IOException {
+		if (buf.readerIndex() >= limit) {
+			lastTag = 0;
+			packedLimit = 0;
+			return 0;
+		}
+
+		if (isCurrentFieldPacked()) {
+			if (packedLimit < buf.readerIndex()) {
+				throw truncated();
+			}
+			return lastTag >>> TAG_TYPE_BITS;
+		}
+		packedLimit = 0;
+
+		int tag = readRawVarint32();
+		int fieldNumber = tag >>> TAG_TYPE_BITS;
+		if (fieldNumber == 0) {
+			throw new ProtobufException("Protocol message contained an invalid tag (zero).");
+		}
+		lastTag = tag;
+		return fieldNumber;
+	}
+
+	private void skipField(int tag) throws IOException {
+		switch (tag & TAG_TYPE_MASK) {
+		case VARINT:
+			readRawVarint64();
+			break;
+		case FIXED64:
+			skip(8);
+			break;
+		case LENGTH_DELIMITED:
+			int length = readRawVarint32();
+			if (length < 0) {
+				throw negativeSize();
+			}
+			skip(length);
+			break;
+		case START_GROUP:
+			int end = ((tag >>> TAG_TYPE_BITS) << TAG_TYPE_BITS) | END_GROUP;
+			while (true) {
+				if (buf.readerIndex() >= limit) {
+					throw truncated();
+				}
+				int next = readRawVarint32();
+				if (next == end) {
+					break;
+				}
+				skipField(next);
+			}
+			break;
+		case END_GROUP:
+			break;
+		case FIXED32:
+			skip(4);
+			break;
+		default:
+			throw new ProtobufException("Protocol message tag had invalid wire type.");
+		}
+	}
+
+	private void skip(int count) throws ProtobufException {
+		require(count);
+		buf.skipBytes(count);
+	}
+
+	private int readRawVarint32() throws IOException {
+		require(1);
+		byte tmp = buf.readByte();
+		if (tmp >= 0) {
+			return tmp;
+		}
+		int result = tmp & 0x7f;
+		for (int shift = 7; shift < 32; shift += 7) {
+			require(1);
+			tmp = buf.readByte();
+			result |= (tmp & 0x7f) << shift;
+			if (tmp >= 0) {
+				return result;
+			}
+		}
+		// Negative int32 values are sign extended to ten bytes, discard the upper bits
+		for (int i = 0; i < 5; i++) {
+			require(1);
+			if (buf.readByte() >= 0) {
+				return result;
+			}
+		}
+		throw new ProtobufException("CodedInput encountered a malformed varint.");
+	}
+
+	private long readRawVarint64() throws IOException {
+		long result = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			require(1);
+			byte b = buf.readByte();
+			result |= (long) (b & 0x7f) << shift;
+			if (b >= 0) {
+				return result;
+			}
+		}
+		throw new ProtobufException("CodedInput encountered a malformed varint.");
+	}
+
+	private int readRawLittleEndian32() throws IOException {
+		require(4);
+		return Integer.reverseBytes(buf.readInt());
+	}
+
+	private long readRawLittleEndian64() throws IOException {
+		require(8);
+		return Long.reverseBytes(buf.readLong());
+	}
+
+	private int readLength() throws IOException {
+		int length = readRawVarint32();
+		if (length < 0) {
+			throw negativeSize();
+		}
+		require(length);
+		return length;
+	}
+
+	@Override
+	public int readInt32() throws IOException {
+		checkIfPackedField();
+		return readRawVarint32();
+	}
+
+	@Override
+	public int readUInt32() throws IOException {
+		checkIfPackedField();
+		return readRawVarint32();
+	}
+
+	@Override
+	public int readSInt32() throws IOException {
+		checkIfPackedField();
+		int n = readRawVarint32();
+		return (n >>> 1) ^ -(n & 1);
+	}
+
+	@Override
+	public int readFixed32() throws IOException {
+		checkIfPackedField();
+		return readRawLittleEndian32();
+	}
+
+	@Override
+	public int readSFixed32() throws IOException {
+		checkIfPackedField();
+		return readRawLittleEndian32();
+	}
+
+	@Override
+	public long readInt64() throws IOException {
+		checkIfPackedField();
+		return readRawVarint64();
+	}
+
+	@Override
+	public long readUInt64() throws IOException {
+		checkIfPackedField();
+		return readRawVarint64();
+	}
+
+	@Override
+	public long readSInt64() throws IOException {
+		checkIfPackedField();
+		long n = readRawVarint64();
+		return (n >>> 1) ^ -(n & 1);
+	}
+
+	@Override
+	public long readFixed64() throws IOException {
+		checkIfPackedField();
+		return readRawLittleEndian64();
+	}
+
+	@Override
+	public long readSFixed64() throws IOException {
+		checkIfPackedField();
+		return readRawLittleEndian64();
+	}
+
+	@Override
+	public float readFloat() throws IOException {
+		checkIfPackedField();
+		return Float.intBitsToFloat(readRawLittleEndian32());
+	}
+
+	@Override
+	public double readDouble() throws IOException {
+		checkIfPackedField();
+		return Double.longBitsToDouble(readRawLittleEndian64());
+	}
+
+	@Override
+	public boolean readBool() throws IOException {
+		checkIfPackedField();
+		require(1);
+		return buf.readByte() != 0;
+	}
+
+	@Override
+	public int readEnum() throws IOException {
+		return readInt32();
+	}
+
+	@Override
+	public String readString() throws IOException {
+		int length = readLength();
+		String value = buf.toString(buf.readerIndex(), length, UTF8);
+		buf.skipBytes(length);
+		return value;
+	}
+
+	@Override
+	public ByteString readBytes() throws IOException {
+		return ByteString.copyFrom(readByteArray());
+	}
+
+	@Override
+	public byte[] readByteArray() throws IOException {
+		int length = readLength();
+		byte[] bytes = new byte[length];
+		buf.readBytes(bytes);
+		return bytes;
+	}
+
+	@Override
+	public ByteBuffer readByteBuffer() throws IOException {
+		return ByteBuffer.wrap(readByteArray());
+	}
+
+	@Override
+	public <T> T mergeObject(T value, Schema<T> schema) throws IOException {
+		int length = readLength();
+		int oldLimit = limit;
+		limit = buf.readerIndex() + length;
+
+		if (value == null) {
+			value = schema.newMessage();
+		}
+		schema.mergeFrom(this, value);
+		if (!schema.isInitialized(value)) {
+			throw new UninitializedMessageException(value, schema);
+		}
+		checkLastTagWas(0);
+
+		limit = oldLimit;
+		return value;
+	}
+
+	@Override
+	public void transferByteRangeTo(Output output, boolean utf8String, int fieldNumber, boolean repeated) throws IOException {
+		byte[] bytes = readByteArray();
+		output.writeByteRange(utf8String, fieldNumber, bytes, 0, bytes.length, repeated);
+	}
+}
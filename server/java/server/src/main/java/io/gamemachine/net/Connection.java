@@ -1,5 +1,6 @@
 package io.gamemachine.net;
 
+import java.util.List;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -8,9 +9,13 @@ import io.gamemachine.core.NetMessage;
 import io.gamemachine.core.PlayerService;
 import io.gamemachine.messages.ClientConnection;
 import io.gamemachine.messages.ClientMessage;
+import io.gamemachine.messages.Entity;
+import io.gamemachine.messages.TrackData;
 import io.gamemachine.net.tcp.TcpServerHandler;
 import io.gamemachine.net.udp.NettyUdpServerHandler;
 import io.gamemachine.net.udp.SimpleUdpServer;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
 
 public class Connection {
 
@@ -23,6 +28,18 @@ public class Connection {
 	public long clientId;
 	public int ip;
 	private boolean playerIsAgent = false;
+	private NeighborEncoder neighborEncoder = null;
+
+	// Seconds, last time something was sent without going through the player's PlayerOutgoing actor
+	private volatile long lastDirectSend = 0;
+
+	// Set by PlayerOutgoing once the player is connected, when messages do not have to be aggregated by it
+	private volatile boolean directSend = false;
+
+	// Bytes sent over udp in the current and the last full second, see getBytesPerSecond
+	private long bandwidthSecond = 0;
+	private int bandwidthBytes = 0;
+	private int bytesPerSecond = 0;
 
 	public Connection(int protocol, int ip, ClientConnection clientConnection, String playerId, long clientId) {
 		this.protocol = protocol;
@@ -40,6 +57,10 @@ public class Connection {
 		return connections.keySet();
 	}
 	
+	public static Connection getConnection(String playerId) {
+		return connections.get(playerId);
+	}
+
 	public static boolean hasConnection(String playerId) {
 		return (connections.containsKey(playerId));
 	}
@@ -63,20 +84,13 @@ public class Connection {
 	}
 	
 	public void sendToClient(ClientMessage clientMessage) {
-		if (protocol == NetMessage.NETTY_UDP || protocol == NetMessage.SIMPLE_UDP) {
-			byte[] bytes = clientMessage.toByteArray();
-
-			// Don't count data transfers on local network
-			if (!playerIsAgent) {
-				GameLimits.addBytesTransferred(gameId, bytes.length);
-			}
+		if (isUdp()) {
+			// Counted by sendEncoded
+			sendEncoded(clientMessage.toByteArray());
+			return;
+		}
 
-			if (protocol == NetMessage.SIMPLE_UDP) {
-				SimpleUdpServer.sendMessage(clientId, bytes);
-			} else {
-				NettyUdpServerHandler.sendMessage(clientId, bytes);
-			}
-		} else if (protocol == NetMessage.TCP) {
+		if (protocol == NetMessage.TCP) {
 
 			// Have to pass the game id through here so tcp encoder can call
 			// addBytesTransferred
@@ -91,6 +105,117 @@ public class Connection {
 		GameLimits.incrementMessageCountOut(gameId);
 	}
 
+	public boolean isUdp() {
+		return protocol == NetMessage.NETTY_UDP || protocol == NetMessage.SIMPLE_UDP;
+	}
+
+	/*
+	 * Sends a ClientMessage that is already serialized as one datagram.  Only udp connections support this, returns false if the
+	 * caller has to send a ClientMessage instead.
+	 */
+	public boolean sendEncoded(byte[] bytes) {
+		if (!isUdp()) {
+			return false;
+		}
+		recordBytes(bytes.length);
+
+		// Don't count data transfers on local network
+		if (!playerIsAgent) {
+			GameLimits.addBytesTransferred(gameId, bytes.length);
+		}
+
+		if (protocol == NetMessage.SIMPLE_UDP) {
+			SimpleUdpServer.sendMessage(clientId, bytes);
+		} else {
+			NettyUdpServerHandler.sendMessage(clientId, bytes);
+		}
+		GameLimits.incrementMessageCountOut(gameId);
+		return true;
+	}
+
+	/*
+	 * Sends neighbors in batches of NeighborEncoder.BATCH_SIZE, encoded directly into buffers from the channel's allocator.
+	 * Only NETTY_UDP connections with direct send support this, returns false if the caller has to send them as an Entity
+	 * instead.  Without direct send they have to go through PlayerOutgoing, so they are aggregated and stay in order with
+	 * everything else sent to the player.
+	 */
+	public boolean sendNeighbors(List<TrackData> trackDatas) {
+		if (protocol != NetMessage.NETTY_UDP || !directSend) {
+			return false;
+		}
+		ByteBufAllocator alloc = NettyUdpServerHandler.alloc(clientId);
+		if (alloc == null) {
+			return false;
+		}
+		if (neighborEncoder == null) {
+			neighborEncoder = new NeighborEncoder(playerId, clientConnection);
+		}
+
+		int from = 0;
+		do {
+			int to = Math.min(from + NeighborEncoder.BATCH_SIZE, trackDatas.size());
+			ByteBuf buf = neighborEncoder.encode(alloc, trackDatas, from, to);
+			recordBytes(buf.readableBytes());
+			if (!playerIsAgent) {
+				GameLimits.addBytesTransferred(gameId, buf.readableBytes());
+			}
+			NettyUdpServerHandler.sendMessage(clientId, buf);
+			GameLimits.incrementMessageCountOut(gameId);
+			from = to;
+		} while (from < trackDatas.size());
+
+		lastDirectSend = System.currentTimeMillis() / 1000l;
+		return true;
+	}
+
+	private synchronized void recordBytes(int length) {
+		long second = System.currentTimeMillis() / 1000l;
+		if (second != bandwidthSecond) {
+			bytesPerSecond = (second == bandwidthSecond + 1) ? bandwidthBytes : 0;
+			bandwidthSecond = second;
+			bandwidthBytes = 0;
+		}
+		bandwidthBytes += length;
+	}
+
+	// Udp bytes sent to this client during the last full second
+	public synchronized int getBytesPerSecond() {
+		long second = System.currentTimeMillis() / 1000l;
+		if (second == bandwidthSecond) {
+			return bytesPerSecond;
+		}
+		return (second == bandwidthSecond + 1) ? bandwidthBytes : 0;
+	}
+
+	public boolean isDirectSend() {
+		return directSend;
+	}
+
+	public void setDirectSend(boolean directSend) {
+		this.directSend = directSend;
+	}
+
+	/*
+	 * Sends entity on the calling thread, without the actor selection lookup and the hop through PlayerOutgoing.  Udp writes are
+	 * queued on the channel's lock free UdpOutbound, tcp writes on the channel's event loop.  Callers check isDirectSend first.
+	 */
+	public void sendEntity(Entity entity) {
+		ClientMessage clientMessage = new ClientMessage();
+		clientMessage.addEntity(entity);
+		sendDirect(clientMessage);
+	}
+
+	// Same as sendEntity for a ClientMessage holding several entities
+	public void sendDirect(ClientMessage clientMessage) {
+		clientMessage.setClientConnection(clientConnection);
+		sendToClient(clientMessage);
+		lastDirectSend = System.currentTimeMillis() / 1000l;
+	}
+
+	public long getLastDirectSend() {
+		return lastDirectSend;
+	}
+
 	public long getClientId() {
 		return clientId;
 	}
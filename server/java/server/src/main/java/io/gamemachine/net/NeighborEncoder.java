@@ -0,0 +1,355 @@
+package io.gamemachine.net;
+
+import io.gamemachine.messages.ClientConnection;
+import io.gamemachine.messages.ClientMessage;
+import io.gamemachine.messages.DynamicMessage;
+import io.gamemachine.messages.Entity;
+import io.gamemachine.messages.Player;
+import io.gamemachine.messages.TrackData;
+import io.gamemachine.messages.Vector3;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+
+import java.util.List;
+
+/*
+ * Writes a batch of neighbors straight into a Netty buffer, in exactly the wire format of a ClientMessage holding one Entity
+ * with Neighbors.  Clients decode it like any other ClientMessage, but the server never builds the Neighbors, Entity and
+ * ClientMessage objects or the intermediate byte array.
+ *
+ * The fields of the Entity and ClientMessage that never change for a connection are serialized once, only the TrackData are
+ * encoded per batch.  The TrackData are written first, leaving room in front for the headers, since their lengths are only
+ * known after.  Each TrackData is read into locals before it is written, grid values can change while we encode them.
+ *
+ * Thread safe, one encoder is shared by everything sending to a connection.
+ */
+public class NeighborEncoder {
+
+	public static final int BATCH_SIZE = 30;
+
+	private static final int VARINT = 0;
+	private static final int LENGTH_DELIMITED = 2;
+	private static final int FIXED32 = 5;
+
+	// ClientMessage.entity, Entity.neighbors, Neighbors.trackData
+	private static final int CLIENT_MESSAGE_ENTITY = 1;
+	private static final int ENTITY_NEIGHBORS = 2;
+	private static final int NEIGHBORS_TRACK_DATA = 1;
+
+	private final byte[] messageHeader;
+	private final byte[] entityHeader;
+	private final int reserve;
+
+	public NeighborEncoder(String playerId, ClientConnection clientConnection) {
+		ClientMessage clientMessage = new ClientMessage();
+		clientMessage.setClientConnection(clientConnection);
+		this.messageHeader = clientMessage.toByteArray();
+
+		Entity entity = new Entity();
+		entity.setId(playerId);
+		entity.setPlayer(new Player().setId(playerId));
+		entity.setSendToPlayer(true);
+		this.entityHeader = entity.toByteArray();
+
+		this.reserve = messageHeader.length + 1 + 5 + entityHeader.length + 1 + 5;
+	}
+
+	/*
+	 * Encodes trackDatas from (inclusive) to to (exclusive) as one ClientMessage.  The caller owns the returned buffer.
+	 */
+	public ByteBuf encode(ByteBufAllocator alloc, List<TrackData> trackDatas, int from, int to) {
+		ByteBuf buf = alloc.buffer(reserve + (to - from) * 48);
+		buf.writerIndex(reserve);
+		for (int i = from; i < to; i++) {
+			writeTrackData(buf, trackDatas.get(i));
+		}
+		int end = buf.writerIndex();
+
+		int neighborsLength = end - reserve;
+		int entityLength = entityHeader.length + tagSize(ENTITY_NEIGHBORS) + varintSize(neighborsLength) + neighborsLength;
+		int headerLength = messageHeader.length + tagSize(CLIENT_MESSAGE_ENTITY) + varintSize(entityLength) + entityLength
+				- neighborsLength;
+
+		int start = reserve - headerLength;
+		buf.writerIndex(start);
+		buf.writeBytes(messageHeader);
+		writeTag(buf, CLIENT_MESSAGE_ENTITY, LENGTH_DELIMITED);
+		writeVarint(buf, entityLength);
+		buf.writeBytes(entityHeader);
+		writeTag(buf, ENTITY_NEIGHBORS, LENGTH_DELIMITED);
+		writeVarint(buf, neighborsLength);
+		buf.writerIndex(end);
+		buf.readerIndex(start);
+		return buf;
+	}
+
+	private static void writeTrackData(ByteBuf buf, TrackData trackData) {
+		Integer ix = trackData.ix;
+		Integer iy = trackData.iy;
+		Integer iz = trackData.iz;
+		String id = trackData.id;
+		Integer x = trackData.x;
+		Integer y = trackData.y;
+		Integer z = trackData.z;
+		DynamicMessage dynamicMessage = trackData.dynamicMessage;
+		String gridName = trackData.gridName;
+		Integer getNeighbors = trackData.getNeighbors;
+		TrackData.EntityType neighborEntityType = trackData.neighborEntityType;
+		TrackData.EntityType entityType = trackData.entityType;
+		Float speed = trackData.speed;
+		Float velocity = trackData.velocity;
+		Vector3 direction = trackData.direction;
+		Integer shortId = trackData.shortId;
+
+		String dynamicType = null;
+		byte[] dynamicBytes = null;
+		int dynamicLength = 0;
+		if (dynamicMessage != null) {
+			dynamicType = dynamicMessage.type;
+			dynamicBytes = (dynamicMessage.message == null) ? null : dynamicMessage.message.toByteArray();
+			dynamicLength = stringSize(1, dynamicType) + bytesSize(2, dynamicBytes);
+		}
+
+		Float dx = null, dy = null, dz = null;
+		Integer dxi = null, dyi = null, dzi = null;
+		int directionLength = 0;
+		if (direction != null) {
+			dx = direction.x;
+			dy = direction.y;
+			dz = direction.z;
+			dxi = direction.xi;
+			dyi = direction.yi;
+			dzi = direction.zi;
+			directionLength = floatSize(1, dx) + floatSize(2, dy) + floatSize(3, dz) + int32Size(4, dxi) + int32Size(5, dyi)
+					+ int32Size(6, dzi);
+		}
+
+		int length = sint32Size(1, ix) + sint32Size(2, iy) + sint32Size(3, iz) + stringSize(4, id) + int32Size(5, x)
+				+ int32Size(6, y) + int32Size(7, z) + messageSize(8, dynamicMessage, dynamicLength) + stringSize(9, gridName)
+				+ int32Size(10, getNeighbors) + enumSize(11, neighborEntityType) + enumSize(12, entityType)
+				+ floatSize(13, speed) + floatSize(14, velocity) + messageSize(15, direction, directionLength)
+				+ int32Size(16, shortId);
+
+		writeTag(buf, NEIGHBORS_TRACK_DATA, LENGTH_DELIMITED);
+		writeVarint(buf, length);
+		writeSint32(buf, 1, ix);
+		writeSint32(buf, 2, iy);
+		writeSint32(buf, 3, iz);
+		writeString(buf, 4, id);
+		writeInt32(buf, 5, x);
+		writeInt32(buf, 6, y);
+		writeInt32(buf, 7, z);
+		if (dynamicMessage != null) {
+			writeTag(buf, 8, LENGTH_DELIMITED);
+			writeVarint(buf, dynamicLength);
+			writeString(buf, 1, dynamicType);
+			writeBytes(buf, 2, dynamicBytes);
+		}
+		writeString(buf, 9, gridName);
+		writeInt32(buf, 10, getNeighbors);
+		writeEnum(buf, 11, neighborEntityType);
+		writeEnum(buf, 12, entityType);
+		writeFloat(buf, 13, speed);
+		writeFloat(buf, 14, velocity);
+		if (direction != null) {
+			writeTag(buf, 15, LENGTH_DELIMITED);
+			writeVarint(buf, directionLength);
+			writeFloat(buf, 1, dx);
+			writeFloat(buf, 2, dy);
+			writeFloat(buf, 3, dz);
+			writeInt32(buf, 4, dxi);
+			writeInt32(buf, 5, dyi);
+			writeInt32(buf, 6, dzi);
+		}
+		writeInt32(buf, 16, shortId);
+	}
+
+	private static int tagSize(int field) {
+		return varintSize(field << 3);
+	}
+
+	private static int varintSize(int value) {
+		if ((value & (0xffffffff << 7)) == 0) {
+			return 1;
+		}
+		if ((value & (0xffffffff << 14)) == 0) {
+			return 2;
+		}
+		if ((value & (0xffffffff << 21)) == 0) {
+			return 3;
+		}
+		if ((value & (0xffffffff << 28)) == 0) {
+			return 4;
+		}
+		return 5;
+	}
+
+	// Negative int32 values are sign extended to 64 bits on the wire
+	private static int int32Size(int field, Integer value) {
+		if (value == null) {
+			return 0;
+		}
+		return tagSize(field) + ((value < 0) ? 10 : varintSize(value));
+	}
+
+	private static int sint32Size(int field, Integer value) {
+		if (value == null) {
+			return 0;
+		}
+		return tagSize(field) + varintSize(zigZag(value));
+	}
+
+	private static int enumSize(int field, TrackData.EntityType value) {
+		if (value == null) {
+			return 0;
+		}
+		return tagSize(field) + varintSize(value.number);
+	}
+
+	private static int floatSize(int field, Float value) {
+		return (value == null) ? 0 : tagSize(field) + 4;
+	}
+
+	private static int stringSize(int field, String value) {
+		if (value == null) {
+			return 0;
+		}
+		int length = utf8Length(value);
+		return tagSize(field) + varintSize(length) + length;
+	}
+
+	private static int bytesSize(int field, byte[] value) {
+		if (value == null) {
+			return 0;
+		}
+		return tagSize(field) + varintSize(value.length) + value.length;
+	}
+
+	private static int messageSize(int field, Object value, int length) {
+		if (value == null) {
+			return 0;
+		}
+		return tagSize(field) + varintSize(length) + length;
+	}
+
+	private static int zigZag(int value) {
+		return (value << 1) ^ (value >> 31);
+	}
+
+	private static void writeTag(ByteBuf buf, int field, int wireType) {
+		writeVarint(buf, (field << 3) | wireType);
+	}
+
+	private static void writeVarint(ByteBuf buf, int value) {
+		while ((value & ~0x7f) != 0) {
+			buf.writeByte((value & 0x7f) | 0x80);
+			value >>>= 7;
+		}
+		buf.writeByte(value);
+	}
+
+	private static void writeVarint64(ByteBuf buf, long value) {
+		while ((value & ~0x7fL) != 0) {
+			buf.writeByte(((int) value & 0x7f) | 0x80);
+			value >>>= 7;
+		}
+		buf.writeByte((int) value);
+	}
+
+	private static void writeInt32(ByteBuf buf, int field, Integer value) {
+		if (value == null) {
+			return;
+		}
+		writeTag(buf, field, VARINT);
+		if (value < 0) {
+			writeVarint64(buf, value);
+		} else {
+			writeVarint(buf, value);
+		}
+	}
+
+	private static void writeSint32(ByteBuf buf, int field, Integer value) {
+		if (value == null) {
+			return;
+		}
+		writeTag(buf, field, VARINT);
+		writeVarint(buf, zigZag(value));
+	}
+
+	private static void writeEnum(ByteBuf buf, int field, TrackData.EntityType value) {
+		if (value == null) {
+			return;
+		}
+		writeTag(buf, field, VARINT);
+		writeVarint(buf, value.number);
+	}
+
+	private static void writeFloat(ByteBuf buf, int field, Float value) {
+		if (value == null) {
+			return;
+		}
+		writeTag(buf, field, FIXED32);
+		buf.writeInt(Integer.reverseBytes(Float.floatToRawIntBits(value)));
+	}
+
+	private static void writeBytes(ByteBuf buf, int field, byte[] value) {
+		if (value == null) {
+			return;
+		}
+		writeTag(buf, field, LENGTH_DELIMITED);
+		writeVarint(buf, value.length);
+		buf.writeBytes(value);
+	}
+
+	private static void writeString(ByteBuf buf, int field, String value) {
+		if (value == null) {
+			return;
+		}
+		writeTag(buf, field, LENGTH_DELIMITED);
+		writeVarint(buf, utf8Length(value));
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c < 0x80) {
+				buf.writeByte(c);
+			} else if (c < 0x800) {
+				buf.writeByte(0xc0 | (c >> 6));
+				buf.writeByte(0x80 | (c & 0x3f));
+			} else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+					&& Character.isLowSurrogate(value.charAt(i + 1))) {
+				int codePoint = Character.toCodePoint(c, value.charAt(++i));
+				buf.writeByte(0xf0 | (codePoint >> 18));
+				buf.writeByte(0x80 | ((codePoint >> 12) & 0x3f));
+				buf.writeByte(0x80 | ((codePoint >> 6) & 0x3f));
+				buf.writeByte(0x80 | (codePoint & 0x3f));
+			} else if (Character.isSurrogate(c)) {
+				buf.writeByte('?');
+			} else {
+				buf.writeByte(0xe0 | (c >> 12));
+				buf.writeByte(0x80 | ((c >> 6) & 0x3f));
+				buf.writeByte(0x80 | (c & 0x3f));
+			}
+		}
+	}
+
+	// Matches writeString, unpaired surrogates are written as '?' like String.getBytes does
+	private static int utf8Length(String value) {
+		int length = 0;
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c < 0x80) {
+				length += 1;
+			} else if (c < 0x800) {
+				length += 2;
+			} else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+					&& Character.isLowSurrogate(value.charAt(i + 1))) {
+				length += 4;
+				i++;
+			} else if (Character.isSurrogate(c)) {
+				length += 1;
+			} else {
+				length += 3;
+			}
+		}
+		return length;
+	}
+}
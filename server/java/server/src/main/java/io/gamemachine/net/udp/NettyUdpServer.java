@@ -1,7 +1,9 @@
 package io.gamemachine.net.udp;
 
+import io.gamemachine.config.AppConfig;
 import io.netty.bootstrap.Bootstrap;
 import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.Channel;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelOption;
 import io.netty.channel.EventLoopGroup;
@@ -10,10 +12,10 @@ import io.netty.channel.epoll.EpollDatagramChannel;
 import io.netty.channel.epoll.EpollEventLoopGroup;
 import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.nio.NioDatagramChannel;
-import io.netty.handler.logging.LogLevel;
-import io.netty.handler.logging.LoggingHandler;
 
 import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -66,11 +68,30 @@ public final class NettyUdpServer implements Runnable {
 		Thread.currentThread().setName("udp-server");
 		String os = System.getProperty("os.name").toLowerCase();
 		logger.info("OS is "+os);
-		if (os.startsWith("linux")) {
-			logger.info("UDP using Epoll");
-			runLinux();
-		} else {
-			runGeneric();
+		if (os.startsWith("linux") && AppConfig.Udp.isEpoll()) {
+			int threads = AppConfig.Udp.getThreads();
+			if (threads <= 0) {
+				threads = Runtime.getRuntime().availableProcessors();
+			}
+			EventLoopGroup group = epollGroup(threads);
+			if (group != null) {
+				logger.info("UDP using Epoll with " + threads + " channels");
+				if (runLinux(group, threads)) {
+					return;
+				}
+			}
+		}
+		logger.info("UDP using NIO");
+		runGeneric();
+	}
+
+	// Null if the native transport can not be loaded
+	private EventLoopGroup epollGroup(int threads) {
+		try {
+			return new EpollEventLoopGroup(threads);
+		} catch (Throwable t) {
+			logger.warn("Epoll not available, falling back to NIO", t);
+			return null;
 		}
 	}
 
@@ -82,7 +103,7 @@ public final class NettyUdpServer implements Runnable {
 			boot.group(group);
 			boot.option(ChannelOption.SO_BROADCAST, false);
 			boot.option(ChannelOption.SO_RCVBUF, 102400);
-			boot.handler(new NettyUdpServerHandler());
+			boot.handler(handler);
 
 			InetSocketAddress address = new InetSocketAddress(hostname, port);
 			boot.bind(address).sync().channel().closeFuture().await();
@@ -94,28 +115,50 @@ public final class NettyUdpServer implements Runnable {
 		}
 	}
 	
-	private void runLinux() {
-		int threadcount = 5;
+	/*
+	 * Binds one channel per event loop to the same port with SO_REUSEPORT.  The kernel hashes each client's address to one of
+	 * the sockets, so all packets of a client are read by the same thread and clients are spread over all of them.
+	 *
+	 * Returns false without serving anything if the channels could not be bound, for example on kernels without SO_REUSEPORT,
+	 * after closing the ones that were and shutting down the group.
+	 */
+	private boolean runLinux(EventLoopGroup group, int threads) {
+		List<Channel> channels = new ArrayList<Channel>(threads);
 		try {
 			Bootstrap boot = new Bootstrap();
 			boot.channel(EpollDatagramChannel.class);
-			boot.group(new EpollEventLoopGroup(threadcount));
+			boot.group(group);
 			boot.option(ChannelOption.SO_BROADCAST, false);
 			boot.option(ChannelOption.SO_RCVBUF, 302400);
 			boot.option(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT);
 			boot.option(EpollChannelOption.SO_REUSEPORT, true);
-			boot.handler(new LoggingHandler(LogLevel.INFO));
-			boot.handler(new NettyUdpServerHandler());
+			boot.handler(handler);
+
+			try {
+				for (int i = 0; i < threads; ++i) {
+					channels.add(boot.bind(hostname, port).sync().channel());
+				}
+			} catch (InterruptedException e) {
+				throw e;
+			} catch (Exception e) {
+				logger.warn("Epoll bind failed, falling back to NIO", e);
+				for (Channel channel : channels) {
+					channel.close().awaitUninterruptibly();
+				}
+				group.shutdownGracefully().awaitUninterruptibly();
+				return false;
+			}
 
-			for (int i = 0; i < threadcount; ++i) {
-				boot.bind(hostname,port).sync().channel();
+			for (Channel channel : channels) {
+				channel.closeFuture().await();
 			}
 
 		} catch (InterruptedException e) {
 			e.printStackTrace();
 		} finally {
-			//group.shutdownGracefully();
+			group.shutdownGracefully();
 		}
+		return true;
 	}
 	
 	public void sendToClient(InetSocketAddress address, byte[] bytes, ChannelHandlerContext ctx) {
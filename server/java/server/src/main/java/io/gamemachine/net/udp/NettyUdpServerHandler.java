@@ -4,13 +4,17 @@ import io.gamemachine.core.ActorUtil;
 import io.gamemachine.core.MathHelper;
 import io.gamemachine.core.NetMessage;
 import io.gamemachine.messages.ClientMessage;
+import io.gamemachine.net.ByteBufInput;
 import io.gamemachine.routing.Incoming;
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
 import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelHandler.Sharable;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.SimpleChannelInboundHandler;
 import io.netty.channel.socket.DatagramPacket;
+import io.netty.util.Attribute;
+import io.netty.util.AttributeKey;
 
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
@@ -27,13 +31,18 @@ public final class NettyUdpServerHandler extends SimpleChannelInboundHandler<Dat
 	public class ClientAddress {
 		public ChannelHandlerContext ctx;
 		public InetSocketAddress address;
+		public UdpOutbound outbound;
 		
 		public ClientAddress(InetSocketAddress address, ChannelHandlerContext ctx) {
 			this.address = address;
 			this.ctx = ctx;
+			this.outbound = outbound(ctx);
 		}
 	}
 	
+	// One UdpOutbound per channel, shared by every client seen on it
+	private static final AttributeKey<UdpOutbound> OUTBOUND = AttributeKey.valueOf("udp_outbound");
+
 	private static ConcurrentHashMap<Long,ClientAddress> clients = new ConcurrentHashMap<Long,ClientAddress>();
 	private static final Logger logger = LoggerFactory.getLogger(NettyUdpServerHandler.class);
 	public ChannelHandlerContext ctx = null;
@@ -72,6 +81,20 @@ public final class NettyUdpServerHandler extends SimpleChannelInboundHandler<Dat
 		this.ctx = ctx;
 	}
 
+	private static UdpOutbound outbound(ChannelHandlerContext ctx) {
+		Attribute<UdpOutbound> attribute = ctx.channel().attr(OUTBOUND);
+		UdpOutbound outbound = attribute.get();
+		if (outbound == null) {
+			outbound = new UdpOutbound(ctx);
+			UdpOutbound existing = attribute.setIfAbsent(outbound);
+			if (existing != null) {
+				outbound = existing;
+			}
+		}
+		return outbound;
+	}
+
+	// Writes are queued and flushed together by the channel's UdpOutbound
 	public static void sendMessage(long clientId, byte[] bytes) {
 		ClientAddress clientAddress = clients.get(clientId);
 		if (clientAddress == null) {
@@ -80,22 +103,42 @@ public final class NettyUdpServerHandler extends SimpleChannelInboundHandler<Dat
 		}
 		ByteBuf buf = Unpooled.wrappedBuffer(bytes);
 		DatagramPacket packet = new DatagramPacket(buf, clientAddress.address);
-		clientAddress.ctx.writeAndFlush(packet);
+		clientAddress.outbound.write(packet);
+	}
+	
+	// Allocator of the channel clientId was last seen on, null if the client is unknown
+	public static ByteBufAllocator alloc(long clientId) {
+		ClientAddress clientAddress = clients.get(clientId);
+		if (clientAddress == null) {
+			return null;
+		}
+		return clientAddress.ctx.alloc();
+	}
+
+	// Sends an already encoded message, the buffer is released once written
+	public static void sendMessage(long clientId, ByteBuf buf) {
+		ClientAddress clientAddress = clients.get(clientId);
+		if (clientAddress == null) {
+			logger.warn("ClientAddress not found for "+clientId);
+			buf.release();
+			return;
+		}
+		DatagramPacket packet = new DatagramPacket(buf, clientAddress.address);
+		clientAddress.outbound.write(packet);
 	}
 	
 	public void send(InetSocketAddress address, byte[] bytes, ChannelHandlerContext ctx) {
 
 		ByteBuf buf = Unpooled.wrappedBuffer(bytes);
 		DatagramPacket packet = new DatagramPacket(buf, address);
-		ctx.writeAndFlush(packet);
+		outbound(ctx).write(packet);
 	}
 
 	@Override
 	protected void channelRead0(ChannelHandlerContext ctx, DatagramPacket m) throws Exception {
-		byte[] bytes = new byte[m.content().readableBytes()];
-		m.content().readBytes(bytes);
+		int length = m.content().readableBytes();
+		ClientMessage clientMessage = ByteBufInput.mergeFrom(m.content(), new ClientMessage(), ClientMessage.getSchema());
 
-		ClientMessage clientMessage = ClientMessage.parseFrom(bytes);
 		int ip = ByteBuffer.wrap(m.sender().getAddress().getAddress()).getInt();
 		long clientId = MathHelper.cantorize(ip,m.sender().getPort());
 		
@@ -108,7 +151,9 @@ public final class NettyUdpServerHandler extends SimpleChannelInboundHandler<Dat
 		NetMessage netMessage = new NetMessage(NetMessage.NETTY_UDP, ip, clientId);
 		netMessage.clientMessage = clientMessage;
 
-		logger.debug("MessageReceived length" + bytes.length + " " + new String(bytes));
+		if (logger.isDebugEnabled()) {
+			logger.debug("MessageReceived length " + length);
+		}
 		this.inbound.tell(netMessage, null);
 
 	}
@@ -0,0 +1,65 @@
+package io.gamemachine.net.udp;
+
+import io.gamemachine.config.AppConfig;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.EventLoop;
+import io.netty.channel.socket.DatagramPacket;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/*
+ * Outbound packets of one UDP channel.  Any thread can write, packets are queued and the channel's event loop writes
+ * everything queued and flushes once, so a burst of neighbor updates to many players costs one flush instead of one per
+ * packet.  Only the first write after a flush schedules the drain, the rest just queue.
+ *
+ * With udp.flush_micros set the drain runs that many microseconds after the first write instead of on the next event loop
+ * iteration, trading a little latency for bigger batches.
+ *
+ * scheduled is cleared before the queue is drained.  A write that still sees it set was queued before the drain started
+ * polling, so it goes out with this drain, anything later schedules the next one.
+ */
+public final class UdpOutbound implements Runnable {
+
+	private final ChannelHandlerContext ctx;
+	private final ConcurrentLinkedQueue<DatagramPacket> queue = new ConcurrentLinkedQueue<DatagramPacket>();
+	private final AtomicBoolean scheduled = new AtomicBoolean(false);
+	private final long flushMicros;
+
+	public UdpOutbound(ChannelHandlerContext ctx) {
+		this.ctx = ctx;
+		this.flushMicros = AppConfig.Udp.getFlushMicros();
+	}
+
+	public void write(DatagramPacket packet) {
+		queue.offer(packet);
+		if (scheduled.compareAndSet(false, true)) {
+			EventLoop loop = ctx.channel().eventLoop();
+			if (flushMicros > 0) {
+				loop.schedule(this, flushMicros, TimeUnit.MICROSECONDS);
+			} else {
+				loop.execute(this);
+			}
+		}
+	}
+
+	@Override
+	public void run() {
+		scheduled.set(false);
+		boolean active = ctx.channel().isActive();
+		int written = 0;
+		DatagramPacket packet;
+		while ((packet = queue.poll()) != null) {
+			if (active) {
+				ctx.write(packet, ctx.voidPromise());
+				written++;
+			} else {
+				packet.release();
+			}
+		}
+		if (written > 0) {
+			ctx.flush();
+		}
+	}
+}
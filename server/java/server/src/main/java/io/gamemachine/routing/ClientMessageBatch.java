@@ -0,0 +1,95 @@
+package io.gamemachine.routing;
+
+import io.gamemachine.messages.ClientConnection;
+import io.gamemachine.messages.ClientMessage;
+
+import java.util.Arrays;
+
+/*
+ * One ClientMessage built up as bytes for PlayerOutgoing's aggregation window.  The clientConnection field is written once, then
+ * each entity as a length delimited field 1, the same bytes ClientMessage.addEntity would produce.
+ *
+ * maxBytes is a soft limit, a single entity larger then it still goes out on its own.  Not thread safe, owned by one actor.
+ */
+public final class ClientMessageBatch {
+
+	// ClientMessage.entity, length delimited
+	private static final int ENTITY_TAG = (1 << 3) | 2;
+
+	private final int maxBytes;
+	private final int header;
+	private byte[] bytes;
+	private int length;
+
+	public ClientMessageBatch(ClientConnection clientConnection, int maxBytes) {
+		ClientMessage clientMessage = new ClientMessage();
+		clientMessage.setClientConnection(clientConnection);
+		byte[] headerBytes = clientMessage.toByteArray();
+		this.maxBytes = maxBytes;
+		this.header = headerBytes.length;
+		this.bytes = Arrays.copyOf(headerBytes, initialSize());
+		this.length = header;
+	}
+
+	private int initialSize() {
+		return Math.max(maxBytes, header + 64);
+	}
+
+	public boolean isEmpty() {
+		return length == header;
+	}
+
+	public int length() {
+		return length;
+	}
+
+	public boolean isFull() {
+		return length >= maxBytes;
+	}
+
+	// False if the batch has entities and adding entityBytes would take it past maxBytes
+	public boolean fits(byte[] entityBytes) {
+		return isEmpty() || length + size(entityBytes) <= maxBytes;
+	}
+
+	// entityBytes is a serialized Entity
+	public void add(byte[] entityBytes) {
+		int size = size(entityBytes);
+		if (length + size > bytes.length) {
+			bytes = Arrays.copyOf(bytes, length + size);
+		}
+
+		bytes[length++] = (byte) ENTITY_TAG;
+		int value = entityBytes.length;
+		while ((value & ~0x7f) != 0) {
+			bytes[length++] = (byte) ((value & 0x7f) | 0x80);
+			value >>>= 7;
+		}
+		bytes[length++] = (byte) value;
+		System.arraycopy(entityBytes, 0, bytes, length, entityBytes.length);
+		length += entityBytes.length;
+	}
+
+	// The serialized ClientMessage, the batch starts over empty.  A buffer grown for an oversized entity is not kept around
+	public byte[] take() {
+		byte[] message = Arrays.copyOf(bytes, length);
+		length = header;
+		if (bytes.length > maxBytes * 4) {
+			bytes = Arrays.copyOf(bytes, initialSize());
+		}
+		return message;
+	}
+
+	private static int size(byte[] entityBytes) {
+		return 1 + varintSize(entityBytes.length) + entityBytes.length;
+	}
+
+	private static int varintSize(int value) {
+		int size = 1;
+		while ((value & ~0x7f) != 0) {
+			value >>>= 7;
+			size++;
+		}
+		return size;
+	}
+}
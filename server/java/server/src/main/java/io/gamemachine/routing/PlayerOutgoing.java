@@ -16,15 +16,40 @@ import akka.actor.UntypedActor;
 import akka.event.Logging;
 import akka.event.LoggingAdapter;
 
+/*
+ * Sends everything for one player to its connection.
+ *
+ * With client.aggregate_window set, entities for udp connections are not sent one ClientMessage each.  They are serialized into
+ * one pending ClientMessageBatch, which goes out when it reaches client.aggregate_bytes or aggregate_window ms after its first
+ * entity, whichever is first.
+ *
+ * Immediate entities and ClientMessages skip the window.  Anything pending is sent first so the player sees messages in order.
+ *
+ * Without aggregation senders write to the Connection directly and this actor only handles the idle timeout and disconnects.
+ * Direct sends count as activity through Connection.getLastDirectSend.
+ */
 public class PlayerOutgoing extends UntypedActor {
 
-		
+	// Sent instead of the Entity for messages that should not wait for the aggregation window
+	public static class Immediate {
+		public final Entity entity;
+
+		public Immediate(Entity entity) {
+			this.entity = entity;
+		}
+	}
+
 	private Connection connection;
 	private String playerId;
 	private ClientConnection clientConnection;
 	private int idleTimeout;
 	private long lastActivity;
 	private String gameId;
+
+	private final int aggregateWindow;
+	private final int aggregateBytes;
+	private ClientMessageBatch batch = null;
+	private boolean flushScheduled = false;
 	
 	private LoggingAdapter logger = Logging.getLogger(getContext().system(), this);
 	
@@ -37,8 +62,21 @@ public class PlayerOutgoing extends UntypedActor {
 		logger.debug("Player idle timeout = "+this.idleTimeout);
 		this.lastActivity = System.currentTimeMillis() / 1000l;
 		tick(1000l,"idle_timeout");
+
+		if (connection.isUdp()) {
+			this.aggregateWindow = AppConfig.Client.getAggregateWindow();
+		} else {
+			this.aggregateWindow = 0;
+		}
+		this.aggregateBytes = AppConfig.Client.getAggregateBytes();
+		if (this.aggregateWindow > 0) {
+			this.batch = new ClientMessageBatch(clientConnection, this.aggregateBytes);
+		}
 		
 		sendConnectedMessage();
+
+		// Without aggregation nothing needs this actor in the data path, see PlayerCommands.sendToPlayer
+		connection.setDirectSend(this.aggregateWindow == 0);
 		logger.debug("Player gateway created for "+playerId);
 	}
 	
@@ -55,8 +93,37 @@ public class PlayerOutgoing extends UntypedActor {
 	}
 	
 	private void sendToClient(ClientMessage clientMessage) {
+		flushBatch();
 		connection.sendToClient(clientMessage);
 	}
+
+	private void sendEntity(Entity entity) {
+		ClientMessage clientMessage = createClientMessage();
+		clientMessage.addEntity(entity);
+		sendToClient(clientMessage);
+	}
+
+	private void addToBatch(Entity entity) {
+		byte[] bytes = entity.toByteArray();
+		if (!batch.fits(bytes)) {
+			flushBatch();
+		}
+		batch.add(bytes);
+
+		if (batch.isFull()) {
+			flushBatch();
+		} else if (!flushScheduled) {
+			flushScheduled = true;
+			tick(aggregateWindow, "flush_batch");
+		}
+	}
+
+	private void flushBatch() {
+		if (batch == null || batch.isEmpty()) {
+			return;
+		}
+		connection.sendEncoded(batch.take());
+	}
 	
 	public void tick(long delay, String message) {
 		getContext()
@@ -67,7 +134,9 @@ public class PlayerOutgoing extends UntypedActor {
 	}
 	
 	private void unregisterIfIdle() {
-		if (((System.currentTimeMillis() / 1000l) - lastActivity) > idleTimeout) {
+		// Neighbors and direct sends go around this actor, see Connection
+		long last = Math.max(lastActivity, connection.getLastDirectSend());
+		if (((System.currentTimeMillis() / 1000l) - last) > idleTimeout) {
 			unregister();
 		}
 		tick(1000l,"idle_timeout");
@@ -75,6 +144,8 @@ public class PlayerOutgoing extends UntypedActor {
 	
 	private void unregister() {
 		logger.info("Player "+playerId+" timed out");
+		flushBatch();
+		connection.setDirectSend(false);
 		ClientMessage clientMessage = createClientMessage();
 		clientMessage.setPlayer(new Player().setId(playerId));
 		Connection.removeConnection(playerId);
@@ -88,16 +159,32 @@ public class PlayerOutgoing extends UntypedActor {
 			String msg = (String)message;
 			if (msg.equals("idle_timeout")) {
 				unregisterIfIdle();
+			} else if (msg.equals("flush_batch")) {
+				flushScheduled = false;
+				flushBatch();
 			} else if (msg.equals(this.gameId)) {
 				unregister();
 			}
+		} else if (message instanceof ClientMessage) {
+			// Entities already batched by the sender, see PlayerCommands.sendTrackDataResponses
+			lastActivity = System.currentTimeMillis() / 1000l;
+			ClientMessage clientMessage = (ClientMessage)message;
+			clientMessage.setClientConnection(clientConnection);
+			sendToClient(clientMessage);
+		} else if (message instanceof Immediate) {
+			lastActivity = System.currentTimeMillis() / 1000l;
+			Entity entity = ((Immediate)message).entity;
+			entity.setSendToPlayer(true);
+			sendEntity(entity);
 		} else {
 			lastActivity = System.currentTimeMillis() / 1000l;
-			ClientMessage clientMessage = createClientMessage();
 			Entity entity = (Entity)message;
 			entity.setSendToPlayer(true);
-			clientMessage.addEntity(entity);
-			sendToClient(clientMessage);
+			if (aggregateWindow > 0) {
+				addToBatch(entity);
+			} else {
+				sendEntity(entity);
+			}
 		}
 	}
 
@@ -19,6 +19,7 @@ public class ProximityGrid {
 	private double convFactor;
 	private int width;
 	private int cellCount;
+	private double cellHeight = 0;
 
 	private static final Logger logger = LoggerFactory.getLogger(ProximityGrid.class);
 
@@ -36,6 +37,12 @@ public class ProximityGrid {
 		this.cellCount = this.width * this.width;
 	}
 
+	// With a cell height neighbors(x, y, z) only returns values within one layer of cellHeight above or below z
+	public ProximityGrid(int max, int cellSize, double cellHeight) {
+		this(max, cellSize);
+		this.cellHeight = cellHeight;
+	}
+
 	public class GridValue {
 		public double x;
 		public double y;
@@ -70,6 +77,14 @@ public class ProximityGrid {
 		return this.cellCount;
 	}
 
+	public double getCellHeight() {
+		return this.cellHeight;
+	}
+
+	private int layer(double z) {
+		return (int) Math.floor(z / this.cellHeight);
+	}
+
 	public Set<Integer> cellsWithinBounds(double x, double y) {
 		Set<Integer> cells = new HashSet<Integer>();
 
@@ -114,6 +129,22 @@ public class ProximityGrid {
 		return result;
 	}
 
+	public ArrayList<GridValue> neighbors(double x, double y, double z) {
+		ArrayList<GridValue> result = neighbors(x, y);
+		if (this.cellHeight <= 0) {
+			return result;
+		}
+
+		int observerLayer = layer(z);
+		for (int i = result.size() - 1; i >= 0; i--) {
+			int valueLayer = layer(result.get(i).z);
+			if (valueLayer < observerLayer - 1 || valueLayer > observerLayer + 1) {
+				result.remove(i);
+			}
+		}
+		return result;
+	}
+
 	public Collection<GridValue> gridValuesInCell(int cell) {
 		ConcurrentHashMap<Integer, GridValue> cellGridValues = cells.get(cell);
 
@@ -47,6 +47,23 @@ module GameMachine
       JavaLib::AppConfig::set_game_config(config.game)
             
       JavaLib::AppConfig::Client.setIdleTimeout(config.client.idle_timeout)
+      JavaLib::AppConfig::Client.setAggregateWindow(config.client.aggregate_window)
+      JavaLib::AppConfig::Client.setAggregateBytes(config.client.aggregate_bytes)
+
+      JavaLib::AppConfig::Tracking.set_router_size(config.routers.entity_tracking)
+      JavaLib::AppConfig::Tracking.set_sharded(config.routers.entity_tracking_sharded)
+
+      JavaLib::AppConfig::GridSnapshot.set_interval(config.grid_snapshot.interval)
+      JavaLib::AppConfig::GridSnapshot.set_max_age(config.grid_snapshot.max_age)
+      JavaLib::AppConfig::GridSnapshot.set_path(config.grid_snapshot.path)
+
+      JavaLib::AppConfig::Udp.set_epoll(config.udp.epoll)
+      JavaLib::AppConfig::Udp.set_threads(config.udp.threads)
+      JavaLib::AppConfig::Udp.set_flush_micros(config.udp.flush_micros)
+
+      JavaLib::AppConfig::Movement.set_max_speed(config.movement.max_speed)
+      JavaLib::AppConfig::Movement.set_navigation(config.movement.navigation)
+      JavaLib::AppConfig::Movement.set_navigation_path(config.movement.navigation_path)
     end
 
     def set_config_from_env
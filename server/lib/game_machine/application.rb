@@ -186,6 +186,8 @@ module GameMachine
       def start_game_systems
         Actor::Builder.new(GameSystems::Devnull).start
         JavaLib::GameMachineLoader.StartEntityTracking
+        JavaLib::GameMachineLoader.StartGridReplication
+        JavaLib::GameMachineLoader.StartGridSnapshots
         Actor::Builder.new(GameSystems::LocalEcho).with_router(JavaLib::RoundRobinRouter,1).start
         Actor::Builder.new(GameSystems::LocalEcho).with_name('DistributedLocalEcho').distributed(2).start
         Actor::Builder.new(GameSystems::StressTest).with_router(JavaLib::RoundRobinRouter,1).start
@@ -38,6 +38,13 @@ module GameMachine
         aoe_grid.set(id,x.to_f,y.to_f,z,entity_type)
       end
 
+      # Places an entity server side, such as a teleport or respawn.  Movement
+      # verification continues from the new position instead of rejecting it.
+      def teleport(id,x,y,z,entity_type=MessageLib::TrackData::EntityType::PLAYER)
+        JavaLib::EntityTracking.reset_movement(id,x.to_i,y.to_i)
+        track(id,x,y,z,entity_type)
+      end
+
     end
   end
 end
@@ -11,7 +11,7 @@ module GameMachine
       file = File.join(ENV['APP_ROOT'],'config',"#{ENV['GAME_ENV']}.conf")
       data = File.read(file)
       config = ConfigFactory.parseString(data).getConfig('gamemachine')
-      top = [:handlers, :routers, :jdbc, :datastore, :gamecloud, :grids, :couchbase, :http, :udp, :tcp, :akka, :admin, :regions, :client]
+      top = [:handlers, :routers, :jdbc, :datastore, :gamecloud, :grids, :couchbase, :http, :udp, :tcp, :akka, :admin, :regions, :client, :grid_snapshot, :movement]
       conf = OpenStruct.new
       top.each {|t| conf.send("#{t}=",OpenStruct.new)}
 
@@ -27,6 +27,16 @@ module GameMachine
 
       conf.client.protocol = config.get_string('client.protocol')
       conf.client.idle_timeout = config.get_int('client.idle_timeout')
+      conf.client.aggregate_window = config.get_int('client.aggregate_window')
+      conf.client.aggregate_bytes = config.get_int('client.aggregate_bytes')
+
+      conf.grid_snapshot.interval = config.get_int('grid_snapshot.interval')
+      conf.grid_snapshot.max_age = config.get_int('grid_snapshot.max_age')
+      conf.grid_snapshot.path = File.join(ENV['APP_ROOT'],'db','grids.snapshot')
+
+      conf.movement.max_speed = config.get_int('movement.max_speed')
+      conf.movement.navigation = config.get_boolean('movement.navigation')
+      conf.movement.navigation_path = File.join(ENV['APP_ROOT'],'db','grid_data.bin')
 
       conf.handlers.team = config.get_string('handlers.team')
       conf.handlers.auth = config.get_string('handlers.auth')
@@ -35,6 +45,8 @@ module GameMachine
       conf.routers.request_handler = config.get_int('routers.request_handler')
       conf.routers.incoming = config.get_int('routers.incoming')
       conf.routers.objectdb = config.get_int('routers.objectdb')
+      conf.routers.entity_tracking = config.get_int('routers.entity_tracking')
+      conf.routers.entity_tracking_sharded = config.get_boolean('routers.entity_tracking_sharded')
 
       conf.datastore.store = config.get_string('datastore.store')
       conf.datastore.serialization = config.get_string('datastore.serialization')
@@ -72,6 +84,9 @@ module GameMachine
       conf.udp.enabled = config.get_boolean('udp.enabled')
       conf.udp.host = config.get_string('udp.host')
       conf.udp.port = config.get_int('udp.port')
+      conf.udp.epoll = config.get_boolean('udp.epoll')
+      conf.udp.threads = config.get_int('udp.threads')
+      conf.udp.flush_micros = config.get_int('udp.flush_micros')
 
       conf.akka.host = config.get_string('akka.host')
       conf.akka.port = config.get_int('akka.port')
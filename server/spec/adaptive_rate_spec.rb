@@ -0,0 +1,93 @@
+require 'spec_helper_minimal'
+module GameMachine
+  describe JavaLib::AdaptiveRate do
+
+    let(:player_type) {MessageLib::TrackData::EntityType::PLAYER}
+
+    # At most 1000 ms between updates, 10% of the distance as allowed error, no bandwidth limit
+    subject do
+      JavaLib::AdaptiveRate.new(1000,10,0)
+    end
+
+    def track_data(x,y,speed=nil,direction=nil)
+      track_data = MessageLib::TrackData.new.set_id('t').set_x(x).set_y(y)
+      track_data.set_speed(speed) if speed
+      track_data.set_direction(MessageLib::Vector3.new.set_x(direction[0]).set_y(direction[1])) if direction
+      track_data
+    end
+
+    # Target at x,y, last sent at last_x,0, distance to an observer at 0,0
+    def due?(target,last_x,elapsed,observer=nil,load=1.0)
+      distance_squared = target.x * target.x + target.y * target.y
+      subject.is_due(observer,target,distance_squared,last_x,0,elapsed,load,100)
+    end
+
+    it "is always due after the max interval" do
+      expect(due?(track_data(10000,0),10000,1000)).to be_truthy
+    end
+
+    it "is never due for targets that did not move and have no speed" do
+      expect(due?(track_data(10000,0),10000,999)).to be_falsey
+    end
+
+    it "is due once the distance moved passes the allowed error" do
+      expect(due?(track_data(12000,0),10000,100)).to be_truthy
+      expect(due?(track_data(10500,0),10000,100)).to be_falsey
+    end
+
+    it "sends near targets more often then far ones moving at the same speed" do
+      expect(due?(track_data(200,0,5.0),200,100)).to be_truthy
+      expect(due?(track_data(4000,0,5.0),4000,100)).to be_falsey
+      expect(due?(track_data(4000,0,5.0),4000,900)).to be_truthy
+    end
+
+    it "uses the speed relative to the observer when both have a direction" do
+      observer = track_data(0,0,5.0,[1.0,0.0])
+      expect(due?(track_data(1000,0,5.0,[1.0,0.0]),1000,500,observer)).to be_falsey
+      expect(due?(track_data(1000,0,5.0,[-1.0,0.0]),1000,150,observer)).to be_truthy
+    end
+
+    it "adds up the speeds when only one side has a direction" do
+      observer = track_data(0,0,5.0)
+      expect(due?(track_data(1000,0,5.0,[1.0,0.0]),1000,150)).to be_falsey
+      expect(due?(track_data(1000,0,5.0,[1.0,0.0]),1000,150,observer)).to be_truthy
+    end
+
+    it "holds back observers over their bandwidth" do
+      expect(due?(track_data(15000,0),10000,400,nil,2.0)).to be_falsey
+      expect(due?(track_data(15000,0),10000,600,nil,2.0)).to be_truthy
+    end
+
+    it "has no load for players without a connection or without a bandwidth" do
+      expect(subject.load('nobody')).to eq(1.0)
+      expect(JavaLib::AdaptiveRate.new(1000,10,1000).load('nobody')).to eq(1.0)
+    end
+
+    describe "on a grid" do
+      let(:grid) do
+        grid = JavaLib::Grid.new(2000,25)
+        grid.set_adaptive_rate(subject)
+        grid.set('observer',10000,10000,0,player_type)
+        grid.set('near',10100,10000,0,player_type)
+        grid.set('far',12000,10000,0,player_type)
+        grid
+      end
+
+      def query(grid,opts)
+        short_ids = {grid.find_short_id('near') => 'near',grid.find_short_id('far') => 'far'}
+        grid.neighbors('observer',10000,10000,nil,opts).map {|t| t.id ? t.id : short_ids[t.short_id]}.sort
+      end
+
+      [JavaLib::Grid::NEIGHBORS_DELTA,JavaLib::Grid::NEIGHBORS_DIFF].each do |opts|
+        it "skips targets that are not due yet in mode #{opts}" do
+          expect(query(grid,opts)).to eq(['far','near'])
+          grid.set('near',10150,10000,0,player_type)
+          grid.set('far',12020,10000,0,player_type)
+          # Nothing has moved yet when no time has passed since the last query
+          sleep 0.01
+          expect(query(grid,opts)).to eq(['near'])
+        end
+      end
+    end
+  end
+end
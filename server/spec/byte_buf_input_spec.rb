@@ -0,0 +1,63 @@
+require 'spec_helper_minimal'
+module GameMachine
+  describe Java::IoGamemachineNet::ByteBufInput do
+
+    let(:unpooled) {Java::IoNettyBuffer::Unpooled}
+
+    let(:client_message) do
+      track_data = MessageLib::TrackData.new.set_id("npc élève").set_x(-15000).set_y(2500).set_z(-1).
+        set_ix(-300).set_iy(70000).set_speed(2.5).set_short_id(400000).
+        set_entity_type(MessageLib::TrackData::EntityType::NPC)
+      track_data.set_direction(MessageLib::Vector3.new.set_x(-0.5).set_y(1.0).set_xi(-7))
+      track_data.set_dynamic_message(MessageLib::DynamicMessage.new.set_type('test').set_message(Java::IoProtostuff::ByteString.copy_from([0,1,255].pack("C*").to_java_bytes)))
+      entity = MessageLib::Entity.new.set_id('player1').set_player(MessageLib::Player.new.set_id('player1')).
+        set_track_data(track_data).set_send_to_player(true)
+      MessageLib::ClientMessage.new.set_client_connection(MessageLib::ClientConnection.new.set_id('c1').set_type('udp')).
+        add_entity(entity).add_entity(MessageLib::Entity.new.set_id('second')).set_sent_at(1234567890123)
+    end
+
+    def decode(buf)
+      Java::IoGamemachineNet::ByteBufInput.merge_from(buf,MessageLib::ClientMessage.new,MessageLib::ClientMessage.get_schema)
+    end
+
+    def bytes_of(message)
+      String.from_java_bytes(message.to_byte_array)
+    end
+
+    it "decodes the same message as parseFrom from a heap buffer" do
+      decoded = decode(unpooled.wrapped_buffer(client_message.to_byte_array))
+      expect(bytes_of(decoded)).to eq(bytes_of(client_message))
+      expect(decoded.entity_list[0].track_data.id).to eq("npc élève")
+      expect(decoded.entity_list[0].track_data.x).to eq(-15000)
+      expect(decoded.entity_list[0].track_data.direction.xi).to eq(-7)
+      expect(decoded.entity_list[1].id).to eq('second')
+    end
+
+    it "reads from the reader index of a direct buffer" do
+      bytes = client_message.to_byte_array
+      buf = unpooled.direct_buffer(bytes.length + 10)
+      buf.write_zero(7)
+      buf.write_bytes(bytes)
+      buf.reader_index(7)
+      decoded = decode(buf)
+      expect(bytes_of(decoded)).to eq(bytes_of(client_message))
+      expect(buf.readable_bytes).to eq(0)
+      buf.release
+    end
+
+    it "skips fields it does not know" do
+      bytes = client_message.to_byte_array
+      buf = unpooled.buffer
+      buf.write_bytes(bytes)
+      # Field 999 as a varint, then as a length delimited value
+      buf.write_bytes([0xb8,0x3e,0x96,0x01,0xba,0x3e,0x02,0x41,0x42].pack("C*").to_java_bytes)
+      expect(bytes_of(decode(buf))).to eq(bytes_of(client_message))
+    end
+
+    it "fails on truncated messages" do
+      bytes = client_message.to_byte_array
+      buf = unpooled.wrapped_buffer(bytes,0,bytes.length - 3)
+      expect {decode(buf)}.to raise_error(Java::IoProtostuff::ProtobufException)
+    end
+  end
+end
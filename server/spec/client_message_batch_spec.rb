@@ -0,0 +1,85 @@
+require 'spec_helper_minimal'
+module GameMachine
+  describe Java::IoGamemachineRouting::ClientMessageBatch do
+
+    let(:client_connection) {MessageLib::ClientConnection.new.set_id('client1').set_gateway('gateway1').set_type('udp')}
+
+    subject do
+      Java::IoGamemachineRouting::ClientMessageBatch.new(client_connection,200)
+    end
+
+    def entity(id,padding=0)
+      entity = MessageLib::Entity.new.set_id(id).set_send_to_player(true)
+      entity.set_player(MessageLib::Player.new.set_id('x' * padding)) if padding > 0
+      entity
+    end
+
+    def bytes_of(message)
+      String.from_java_bytes(message.to_byte_array)
+    end
+
+    # What PlayerOutgoing sent before aggregation, one ClientMessage with every entity added
+    def expected(*entities)
+      client_message = MessageLib::ClientMessage.new.set_client_connection(client_connection)
+      entities.each {|e| client_message.add_entity(e)}
+      bytes_of(client_message)
+    end
+
+    def taken
+      MessageLib::ClientMessage.parse_from(subject.take)
+    end
+
+    it "starts out empty" do
+      expect(subject.is_empty).to be_truthy
+      expect(subject.is_full).to be_falsey
+    end
+
+    it "builds the same ClientMessage as adding the entities one by one" do
+      entities = [entity('a'),entity('b'),entity('c',20)]
+      entities.each {|e| subject.add(e.to_byte_array)}
+      expect(subject.is_empty).to be_falsey
+      message = taken
+      expect(bytes_of(message)).to eq(expected(*entities))
+      expect(message.client_connection.gateway).to eq('gateway1')
+      expect(message.entity_list.map {|e| e.id}).to eq(['a','b','c'])
+    end
+
+    it "writes lengths over 127 bytes as multi byte varints" do
+      big = entity('big',300)
+      subject.add(big.to_byte_array)
+      expect(bytes_of(taken)).to eq(expected(big))
+    end
+
+    it "starts over empty after take" do
+      subject.add(entity('a').to_byte_array)
+      subject.take
+      expect(subject.is_empty).to be_truthy
+      subject.add(entity('b').to_byte_array)
+      expect(taken.entity_list.map {|e| e.id}).to eq(['b'])
+    end
+
+    it "does not fit entities that would take it past max bytes" do
+      subject.add(entity('a',100).to_byte_array)
+      expect(subject.fits(entity('b',20).to_byte_array)).to be_truthy
+      expect(subject.fits(entity('b',100).to_byte_array)).to be_falsey
+    end
+
+    it "always fits an entity when empty, even one larger then max bytes" do
+      big = entity('big',1000)
+      expect(subject.fits(big.to_byte_array)).to be_truthy
+      subject.add(big.to_byte_array)
+      expect(subject.is_full).to be_truthy
+      expect(bytes_of(taken)).to eq(expected(big))
+      subject.add(entity('a').to_byte_array)
+      expect(bytes_of(taken)).to eq(expected(entity('a')))
+    end
+
+    it "is full once it reaches max bytes" do
+      subject.add(entity('a',90).to_byte_array)
+      expect(subject.is_full).to be_falsey
+      subject.add(entity('b',90).to_byte_array)
+      expect(subject.length).to be >= 200
+      expect(subject.is_full).to be_truthy
+    end
+  end
+end
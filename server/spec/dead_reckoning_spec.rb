@@ -0,0 +1,109 @@
+require 'spec_helper_minimal'
+module GameMachine
+  describe JavaLib::DeadReckoning do
+
+    let(:npc_type) {MessageLib::TrackData::EntityType::NPC}
+
+    # Positions are scaled by 100 like TrackData from clients, speeds are in units per second
+    let(:grid) do
+      grid = JavaLib::Grid.new(2000,25)
+      grid.enable_dead_reckoning(2000)
+      grid
+    end
+
+    let(:reckoning) {grid.get_dead_reckoning}
+
+    def track_data(id,x,y,speed=nil,direction=nil)
+      track_data = MessageLib::TrackData.new.set_id(id).set_x(x).set_y(y).set_entity_type(npc_type)
+      track_data.set_velocity(speed) if speed
+      track_data.set_direction(MessageLib::Vector3.new.set_x(direction[0]).set_y(direction[1])) if direction
+      track_data
+    end
+
+    def delta(id,ix,iy)
+      MessageLib::TrackData.new.set_id(id).set_ix(ix).set_iy(iy)
+    end
+
+    # Moves the grid's entities to where they should be ms after now
+    def advance(ms)
+      reckoning.advance(grid,java.lang.System.current_time_millis + ms,200000)
+    end
+
+    it "moves entities that reported a velocity and direction along the direction" do
+      grid.set(track_data('n1',10000,10000,2.0,[1.0,0.0]))
+      expect(reckoning.size).to eq(1)
+      advance(1000)
+      expect(grid.get('n1').x).to be_within(5).of(10200)
+      expect(grid.get('n1').y).to eq(10000)
+    end
+
+    it "normalizes the direction" do
+      grid.set(track_data('n1',10000,10000,5.0,[3.0,4.0]))
+      advance(1000)
+      expect(grid.get('n1').x).to be_within(5).of(10300)
+      expect(grid.get('n1').y).to be_within(5).of(10400)
+    end
+
+    it "does not move entities without a velocity or direction" do
+      grid.set(track_data('n1',10000,10000))
+      grid.set(track_data('n2',10000,10000,2.0))
+      grid.set(track_data('n3',10000,10000,0.0,[1.0,0.0]))
+      expect(reckoning.size).to eq(0)
+      advance(1000)
+      expect(grid.get('n2').x).to eq(10000)
+    end
+
+    it "stops moving an entity when an update has no velocity" do
+      grid.set(track_data('n1',10000,10000,2.0,[1.0,0.0]))
+      grid.set(track_data('n1',11000,10000))
+      expect(reckoning.size).to eq(0)
+      advance(1000)
+      expect(grid.get('n1').x).to eq(11000)
+    end
+
+    it "applies deltas to the position the entity last reported" do
+      grid.set(track_data('n1',10000,10000,2.0,[1.0,0.0]))
+      advance(1000)
+      grid.set(delta('n1',50,0))
+      expect(grid.get('n1').x).to eq(10050)
+      expect(reckoning.size).to eq(0)
+    end
+
+    it "stops after max extrapolation" do
+      grid.set(track_data('n1',10000,10000,2.0,[1.0,0.0]))
+      advance(5000)
+      expect(grid.get('n1').x).to be_within(5).of(10400)
+      expect(reckoning.size).to eq(0)
+    end
+
+    it "keeps entities on the grid" do
+      grid.set(track_data('n1',199900,10000,10.0,[1.0,0.0]))
+      advance(1000)
+      expect(grid.get('n1').x).to eq(199999)
+    end
+
+    it "forgets removed entities" do
+      grid.set(track_data('n1',10000,10000,2.0,[1.0,0.0]))
+      grid.remove('n1')
+      expect(reckoning.size).to eq(0)
+      advance(1000)
+      expect(grid.get('n1')).to be_nil
+    end
+
+    it "moves entities into their new cell for neighbor queries" do
+      grid.set(track_data('n1',10000,10000,200.0,[1.0,0.0]))
+      expect(grid.neighbors('observer',30000,10000,nil,JavaLib::Grid::NEIGHBORS_FULL)).to be_empty
+      advance(1000)
+      ids = grid.neighbors('observer',30000,10000,nil,JavaLib::Grid::NEIGHBORS_FULL).map {|t| t.id}
+      expect(ids).to eq(['n1'])
+    end
+
+    it "is not used by grids without dead reckoning" do
+      grid = JavaLib::Grid.new(2000,25)
+      grid.set(track_data('n1',10000,10000,2.0,[1.0,0.0]))
+      grid.advance_reckoned
+      expect(grid.get_dead_reckoning).to be_nil
+      expect(grid.get('n1').x).to eq(10000)
+    end
+  end
+end
@@ -0,0 +1,107 @@
+require 'spec_helper_minimal'
+module GameMachine
+  describe JavaLib::DeltaTable do
+    subject do
+      JavaLib::DeltaTable.new(8)
+    end
+
+    # Targets whose home slot in an empty table of 8 is slot
+    def targets_homed_at(slot,count)
+      targets = []
+      target = 1
+      while targets.size < count
+        targets << target if JavaLib::DeltaTable.new(8).insert(target,0,0,0,0) == slot
+        target += 1
+      end
+      targets
+    end
+
+    it "wraps probe chains around the end of the table" do
+      a,b,c = targets_homed_at(subject.capacity - 1,3)
+      expect(subject.insert(a,1,1,0,0)).to eq(7)
+      expect(subject.insert(b,2,2,0,0)).to eq(0)
+      expect(subject.insert(c,3,3,0,0)).to eq(1)
+      expect(subject.size).to eq(3)
+    end
+
+    it "shifts wrapped entries back on remove" do
+      a,b,c = targets_homed_at(subject.capacity - 1,3)
+      [a,b,c].each_with_index {|target,i| subject.insert(target,i,i,0,0)}
+
+      subject.remove(a)
+      expect(subject.find(a)).to eq(-1)
+      expect(subject.find(b)).to eq(7)
+      expect(subject.find(c)).to eq(0)
+      expect(subject.x(subject.find(c))).to eq(2)
+
+      subject.remove(b)
+      expect(subject.find(c)).to eq(7)
+      expect(subject.size).to eq(1)
+    end
+
+    it "keeps entries when it grows" do
+      (1..20).each {|target| subject.insert(target,target,target,0,0)}
+      expect(subject.capacity).to be > 8
+      (1..20).each {|target| expect(subject.y(subject.find(target))).to eq(target)}
+    end
+
+    it "marks released targets" do
+      subject.insert(5,0,0,0,1)
+      subject.mark_released(5)
+      expect(subject.seen(subject.find(5))).to eq(JavaLib::DeltaTable::RELEASED)
+    end
+  end
+
+  describe "delta queries" do
+    let(:player_type) {MessageLib::TrackData::EntityType::PLAYER}
+    let(:grid) {JavaLib::Grid.new(2000,25)}
+
+    # The first query sends b in full, moves within 100ms after it are sent as deltas
+    def delta_query(grid)
+      grid.neighbors('a',1000,1000,nil,JavaLib::Grid::NEIGHBORS_DELTA).to_a
+    end
+
+    before(:each) do
+      grid.set('a',1000,1000,0,player_type)
+      grid.set('b',1500,1500,0,player_type)
+      delta_query(grid)
+    end
+
+    it "sends moves as deltas from the last position sent" do
+      grid.set('b',1600,1400,0,player_type)
+      delta = delta_query(grid).first
+      expect(delta.id).to be_nil
+      expect(delta.short_id).to eq(grid.find_short_id('b'))
+      expect(delta.ix).to eq(100)
+      expect(delta.iy).to eq(-100)
+      expect(delta.entity_type).to eq(player_type)
+    end
+
+    it "reuses the deltas of the previous query on the same thread" do
+      grid.set('b',1600,1600,0,player_type)
+      first = delta_query(grid).first
+      grid.set('b',1700,1700,0,player_type)
+      second = delta_query(grid).first
+      expect(second).to equal(first)
+      expect(second.ix).to eq(100)
+    end
+
+    it "copies deltas that are kept past the next query" do
+      grid.set('b',1600,1600,0,player_type)
+      results = java.util.ArrayList.new(delta_query(grid))
+      JavaLib::Grid.detach_deltas(results)
+      grid.set('b',1800,1800,0,player_type)
+      delta_query(grid)
+      expect(results.first.ix).to eq(100)
+      expect(results.first.short_id).to eq(grid.find_short_id('b'))
+    end
+
+    it "leaves full entries in place when detaching" do
+      grid.set('c',1200,1200,0,player_type)
+      results = java.util.ArrayList.new(delta_query(grid))
+      full = results.find {|track_data| track_data.id == 'c'}
+      JavaLib::Grid.detach_deltas(results)
+      expect(results.to_a.find {|track_data| track_data.id == 'c'}).to equal(full)
+    end
+  end
+end
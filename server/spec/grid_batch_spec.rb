@@ -0,0 +1,75 @@
+require 'spec_helper_minimal'
+module GameMachine
+  describe JavaLib::Grid do
+
+    let(:npc_type) {MessageLib::TrackData::EntityType::NPC}
+
+    def track_data(id,x,y)
+      MessageLib::TrackData.new.set_id(id).set_x(x).set_y(y).set_entity_type(npc_type)
+    end
+
+    def delta(id,ix,iy)
+      MessageLib::TrackData.new.set_id(id).set_ix(ix).set_iy(iy)
+    end
+
+    def batch(*track_datas)
+      java.util.ArrayList.new(track_datas)
+    end
+
+    [false,true].each do |reckoning|
+      describe "#set_batch#{reckoning ? ' with dead reckoning' : ''}" do
+        let(:grid) do
+          grid = JavaLib::Grid.new(2000,25,'array')
+          grid.enable_dead_reckoning(2000) if reckoning
+          grid
+        end
+
+        it "sets every entity in the batch" do
+          failed = grid.set_batch(batch(track_data('n1',1000,1000),track_data('n2',150000,150000),track_data('n3',1200,1000)))
+          expect(failed).to be_empty
+          expect(grid.get_object_count).to eq(3)
+          expect(grid.get('n2').x).to eq(150000)
+          ids = grid.neighbors('n1',1000,1000,nil,JavaLib::Grid::NEIGHBORS_FULL).map {|t| t.id}
+          expect(ids).to eq(['n3'])
+        end
+
+        it "resolves deltas against the current position" do
+          grid.set_batch(batch(track_data('n1',1000,1000)))
+          failed = grid.set_batch(batch(delta('n1',300,-200)))
+          expect(failed).to be_empty
+          expect(grid.get('n1').x).to eq(1300)
+          expect(grid.get('n1').y).to eq(800)
+        end
+
+        it "returns deltas for entities the grid does not have" do
+          unknown = delta('unknown',100,100)
+          failed = grid.set_batch(batch(track_data('n1',1000,1000),unknown))
+          expect(failed.map {|t| t.id}).to eq(['unknown'])
+          expect(grid.get('unknown')).to be_nil
+          expect(grid.get('n1')).not_to be_nil
+        end
+
+        it "returns entities that did not get a short id" do
+          grid = JavaLib::Grid.new(2000,25,'array',2)
+          grid.enable_dead_reckoning(2000) if reckoning
+          failed = grid.set_batch(batch(track_data('n1',1000,1000),track_data('n2',1000,1000),track_data('n3',1000,1000)))
+          expect(failed.map {|t| t.id}).to eq(['n3'])
+          expect(grid.get_object_count).to eq(2)
+        end
+
+        it "keeps the last position of an entity that is in the batch twice" do
+          grid.set_batch(batch(track_data('n1',150000,150000),track_data('n1',1000,1000)))
+          expect(grid.get('n1').x).to eq(1000)
+          expect(grid.get_object_count).to eq(1)
+          expect(grid.neighbors('other',1000,1000,nil,JavaLib::Grid::NEIGHBORS_FULL).map {|t| t.id}).to eq(['n1'])
+        end
+
+        it "records the batch in the delta log" do
+          grid.enable_delta_log(16)
+          grid.set_batch(batch(track_data('n1',1000,1000),track_data('n2',1200,1200)))
+          expect(grid.get_delta_log.get_sequence).to eq(2)
+        end
+      end
+    end
+  end
+end
@@ -0,0 +1,83 @@
+require 'spec_helper_minimal'
+module GameMachine
+  describe JavaLib::Grid do
+
+    let(:player_type) {MessageLib::TrackData::EntityType::PLAYER}
+
+    # Positions are scaled by 100 like TrackData from clients, the query radius is the cell size of 25
+    let(:grid) {JavaLib::Grid.new(2000,25)}
+
+    def diff
+      grid.neighbors('observer',10000,10000,nil,JavaLib::Grid::NEIGHBORS_DIFF).map do |track_data|
+        if track_data.x == -1
+          [:left,track_data.short_id]
+        elsif track_data.id
+          [:entered,track_data.id,track_data.x,track_data.y]
+        else
+          [:moved,track_data.short_id,track_data.ix,track_data.iy]
+        end
+      end
+    end
+
+    before(:each) do
+      grid.set('observer',10000,10000,0,player_type)
+      grid.set('a',11000,10000,0,player_type)
+    end
+
+    describe "NEIGHBORS_DIFF" do
+      it "sends entities in range with their full position the first time" do
+        expect(diff).to eq([[:entered,'a',11000,10000]])
+      end
+
+      it "sends nothing for entities that did not move" do
+        diff
+        expect(diff).to be_empty
+      end
+
+      it "sends moves as a delta from the position last sent" do
+        diff
+        grid.set('a',11500,9800,0,player_type)
+        expect(diff).to eq([[:moved,grid.find_short_id('a'),500,-200]])
+        grid.set('a',11600,9800,0,player_type)
+        expect(diff).to eq([[:moved,grid.find_short_id('a'),100,0]])
+      end
+
+      it "sends entities that went out of range as left" do
+        diff
+        short_id = grid.find_short_id('a')
+        grid.set('a',30000,30000,0,player_type)
+        expect(diff).to eq([[:left,short_id]])
+        expect(diff).to be_empty
+      end
+
+      it "sends entities that came back into range in full again" do
+        diff
+        grid.set('a',30000,30000,0,player_type)
+        diff
+        grid.set('a',10500,10000,0,player_type)
+        expect(diff).to eq([[:entered,'a',10500,10000]])
+      end
+
+      it "sends removed entities as left" do
+        diff
+        short_id = grid.find_short_id('a')
+        grid.remove('a')
+        expect(diff).to eq([[:left,short_id]])
+      end
+
+      it "sends the left before the new entity when a short id is reused" do
+        diff
+        short_id = grid.find_short_id('a')
+        grid.remove('a')
+        grid.set('b',10500,10000,0,player_type)
+        expect(grid.find_short_id('b')).to eq(short_id)
+        expect(diff).to eq([[:left,short_id],[:entered,'b',10500,10000]])
+      end
+
+      it "leaves out the observer itself" do
+        grid.remove('a')
+        expect(diff).to be_empty
+      end
+    end
+  end
+end
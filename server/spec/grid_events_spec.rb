@@ -0,0 +1,160 @@
+require 'spec_helper_minimal'
+module GameMachine
+  describe JavaLib::GridEvents do
+
+    class GridEventRecorder
+      include JavaLib::GridWatcher::Listener
+      include JavaLib::GridEvents::CellListener
+
+      attr_reader :events
+
+      def initialize
+        @events = []
+      end
+
+      def entered(watcher,track_data)
+        @events << [:entered,watcher.id,track_data.id]
+      end
+
+      def left(watcher,track_data)
+        @events << [:left,watcher.id,track_data.id]
+      end
+
+      def cellChanged(track_data,from_cell,to_cell)
+        @events << [:cell,track_data.id,from_cell,to_cell]
+      end
+
+      def take
+        taken = @events
+        @events = []
+        taken
+      end
+    end
+
+    let(:player_type) {MessageLib::TrackData::EntityType::PLAYER}
+    let(:npc_type) {MessageLib::TrackData::EntityType::NPC}
+    let(:no_cell) {JavaLib::GridEvents::NO_CELL}
+
+    # Positions and radii are scaled by 100 like TrackData from clients
+    let(:grid) {JavaLib::Grid.new(2000,25)}
+    let(:events) {grid.enable_events}
+    let(:recorder) {GridEventRecorder.new}
+
+    it "is only created once per grid" do
+      expect(grid.enable_events).to equal(events)
+      expect(grid.get_events).to equal(events)
+    end
+
+    describe "cell listeners" do
+      before(:each) do
+        events.add_cell_listener(recorder)
+      end
+
+      it "are told when entities enter, change and leave cells" do
+        grid.set('a',1000,1000,0,player_type)
+        cell = grid.hash(10,10)
+        expect(recorder.take).to eq([[:cell,'a',no_cell,cell]])
+        grid.set('a',1100,1000,0,player_type)
+        expect(recorder.take).to be_empty
+        grid.set('a',5000,1000,0,player_type)
+        new_cell = grid.hash(50,10)
+        expect(recorder.take).to eq([[:cell,'a',cell,new_cell]])
+        grid.remove('a')
+        expect(recorder.take).to eq([[:cell,'a',new_cell,no_cell]])
+      end
+
+      it "are no longer told once removed" do
+        events.remove_cell_listener(recorder)
+        grid.set('a',1000,1000,0,player_type)
+        expect(recorder.events).to be_empty
+      end
+    end
+
+    describe "box watchers" do
+      before(:each) do
+        events.watch(JavaLib::GridWatcher.box('region',10000,10000,20000,20000,nil,recorder))
+      end
+
+      it "are told when entities enter and leave the box" do
+        grid.set('a',5000,5000,0,player_type)
+        expect(recorder.take).to be_empty
+        grid.set('a',15000,15000,0,player_type)
+        expect(recorder.take).to eq([[:entered,'region','a']])
+        grid.set('a',16000,15000,0,player_type)
+        expect(recorder.take).to be_empty
+        expect(events.get_members('region')).to eq(['a'])
+        grid.set('a',25000,15000,0,player_type)
+        expect(recorder.take).to eq([[:left,'region','a']])
+        expect(events.get_members('region')).to be_empty
+      end
+
+      it "are told when entities inside are removed" do
+        grid.set('a',15000,15000,0,player_type)
+        recorder.take
+        grid.remove('a')
+        expect(recorder.take).to eq([[:left,'region','a']])
+      end
+
+      it "enter entities already inside when they start watching" do
+        grid.set('b',12000,12000,0,player_type)
+        recorder.take
+        events.watch(JavaLib::GridWatcher.box('region2',10000,10000,13000,13000,nil,recorder))
+        expect(recorder.take).to eq([[:entered,'region2','b']])
+      end
+
+      it "go quiet once unwatched" do
+        events.unwatch('region')
+        grid.set('a',15000,15000,0,player_type)
+        expect(recorder.events).to be_empty
+        expect(events.get_watcher('region')).to be_nil
+      end
+    end
+
+    describe "circle watchers" do
+      it "only enter entities within the radius and of their type" do
+        events.watch(JavaLib::GridWatcher.circle('aggro',10000,10000,1000,player_type,recorder))
+        grid.set('corner',10900,10900,0,player_type)
+        grid.set('npc',10100,10000,0,npc_type)
+        expect(recorder.take).to be_empty
+        grid.set('near',10500,10500,0,player_type)
+        expect(recorder.take).to eq([[:entered,'aggro','near']])
+      end
+    end
+
+    describe "following watchers" do
+      before(:each) do
+        events.watch(JavaLib::GridWatcher.following('aggro','npc',1000,nil,recorder))
+        grid.set('p1',10500,10000,0,player_type)
+      end
+
+      it "watch nothing until the entity they follow is on the grid" do
+        expect(recorder.take).to be_empty
+      end
+
+      it "move with the entity they follow" do
+        grid.set('npc',10000,10000,0,npc_type)
+        expect(recorder.take).to eq([[:entered,'aggro','p1']])
+        grid.set('npc',30000,10000,0,npc_type)
+        expect(recorder.take).to eq([[:left,'aggro','p1']])
+        grid.set('p2',30500,10000,0,player_type)
+        expect(recorder.take).to eq([[:entered,'aggro','p2']])
+      end
+
+      it "never enter the entity they follow" do
+        grid.set('npc',10000,10000,0,npc_type)
+        expect(events.get_members('aggro')).to eq(['p1'])
+      end
+
+      it "go quiet while the entity they follow is gone" do
+        grid.set('npc',10000,10000,0,npc_type)
+        recorder.take
+        grid.remove('npc')
+        expect(recorder.take).to eq([[:left,'aggro','p1']])
+        grid.set('p1',10100,10000,0,player_type)
+        expect(recorder.take).to be_empty
+        grid.set('npc',10000,10000,0,npc_type)
+        expect(recorder.take).to eq([[:entered,'aggro','p1']])
+      end
+    end
+  end
+end
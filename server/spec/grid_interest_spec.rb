@@ -0,0 +1,66 @@
+require 'spec_helper_minimal'
+module GameMachine
+  describe JavaLib::GridInterest do
+
+    let(:player_type) {MessageLib::TrackData::EntityType::PLAYER}
+    let(:npc_type) {MessageLib::TrackData::EntityType::NPC}
+    let(:agent) {MessageLib::Player.new.set_id('agent').set_role('agent_controller')}
+    let(:player) {MessageLib::Player.new.set_id('player').set_role('player')}
+
+    subject do
+      JavaLib::GridInterest.new(100,0,4)
+    end
+
+    def entity_ids(interest)
+      interest.get_subscriptions.map {|subscription| subscription.entityId}.sort
+    end
+
+    it "keeps one subscription per entity a player asks for" do
+      subject.subscribe(agent,'npc1',player_type,JavaLib::Grid::NEIGHBORS_FULL)
+      subject.subscribe(agent,'npc2',player_type,JavaLib::Grid::NEIGHBORS_FULL)
+      subject.subscribe(player,'player',npc_type,JavaLib::Grid::NEIGHBORS_FULL)
+      expect(subject.get_subscription_count).to eq(3)
+      expect(entity_ids(subject)).to eq(['npc1','npc2','player'])
+    end
+
+    it "refreshes an existing subscription instead of adding another" do
+      subject.subscribe(agent,'npc1',player_type,JavaLib::Grid::NEIGHBORS_FULL)
+      subject.subscribe(agent,'npc1',npc_type,JavaLib::Grid::NEIGHBORS_DELTA)
+      expect(subject.get_subscription_count).to eq(1)
+      subscription = subject.get_subscriptions.first
+      expect(subscription.entityType).to eq(npc_type)
+      expect(subscription.optsFlag).to eq(JavaLib::Grid::NEIGHBORS_DELTA)
+    end
+
+    it "removes every subscription of a player on unsubscribe" do
+      subject.subscribe(agent,'npc1',player_type,JavaLib::Grid::NEIGHBORS_FULL)
+      subject.subscribe(agent,'npc2',player_type,JavaLib::Grid::NEIGHBORS_FULL)
+      subject.subscribe(player,'player',npc_type,JavaLib::Grid::NEIGHBORS_FULL)
+      subject.unsubscribe('agent')
+      expect(entity_ids(subject)).to eq(['player'])
+    end
+
+    it "expires subscriptions that were not refreshed" do
+      subject.subscribe(agent,'npc1',player_type,JavaLib::Grid::NEIGHBORS_FULL)
+      subject.subscribe(agent,'npc2',player_type,JavaLib::Grid::NEIGHBORS_FULL)
+      subject.get_subscriptions.each do |subscription|
+        subscription.lastRequest = 0 if subscription.entityId == 'npc1'
+      end
+      subject.expire(JavaLib::GridInterest::SUBSCRIPTION_TIMEOUT + 1)
+      expect(entity_ids(subject)).to eq(['npc2'])
+
+      subject.expire(java.lang.System.current_time_millis + JavaLib::GridInterest::SUBSCRIPTION_TIMEOUT + 1)
+      expect(subject.get_subscription_count).to eq(0)
+    end
+
+    it "includes far entities every far_ticks ticks" do
+      interest = JavaLib::GridInterest.new(100,50,4)
+      ticks = (1..8).map {interest.next_tick}
+      expect(ticks).to eq([false,false,false,true,false,false,false,true])
+    end
+
+    it "always includes far entities without a far radius" do
+      expect((1..3).map {subject.next_tick}).to eq([true,true,true])
+    end
+  end
+end
@@ -0,0 +1,76 @@
+require 'spec_helper_minimal'
+module GameMachine
+  describe JavaLib::Grid do
+
+    let(:player_type) {MessageLib::TrackData::EntityType::PLAYER}
+
+    # Positions are scaled by 100 like TrackData from clients, a cell height of 10 makes layers 1000 high
+    subject do
+      grid = JavaLib::Grid.new(2000,25)
+      grid.set_cell_height(10)
+      grid.set('observer',10000,10000,500,player_type)
+      grid.set('same',10100,10000,900,player_type)
+      grid.set('above',10200,10000,1500,player_type)
+      grid.set('below',10300,10000,-500,player_type)
+      grid.set('far_above',10400,10000,2500,player_type)
+      grid.set('far_below',10500,10000,-1500,player_type)
+      grid
+    end
+
+    def neighbor_ids(grid,z,opts=JavaLib::Grid::NEIGHBORS_FULL)
+      grid.neighbors('observer',10000,10000,z,nil,opts,0).map {|t| t.id}.sort
+    end
+
+    it "returns the observer's layer and the layers directly above and below" do
+      expect(neighbor_ids(subject,500)).to eq(['above','below','same'])
+    end
+
+    it "puts negative z in the layers below 0" do
+      expect(neighbor_ids(subject,-1500)).to eq(['below','far_below'])
+    end
+
+    it "ignores layers when the query has no z" do
+      expect(neighbor_ids(subject,JavaLib::Grid::NO_Z).size).to eq(5)
+      expect(subject.neighbors('observer',10000,10000,nil,JavaLib::Grid::NEIGHBORS_FULL).size).to eq(5)
+    end
+
+    it "ignores layers without a cell height" do
+      subject.set_cell_height(0)
+      expect(neighbor_ids(subject,500).size).to eq(5)
+    end
+
+    it "leaves out other layers from radius queries" do
+      expect(neighbor_ids(subject,500,JavaLib::Grid::NEIGHBORS_RADIUS)).to eq(['above','below','same'])
+    end
+
+    it "leaves out other layers from nearest queries" do
+      subject.set_nearest_count(10)
+      expect(neighbor_ids(subject,500,JavaLib::Grid::NEIGHBORS_NEAREST)).to eq(['above','below','same'])
+    end
+
+    it "uses the z of the entity for getNeighborsFor" do
+      ids = subject.get_neighbors_for('observer','far_above',nil,JavaLib::Grid::NEIGHBORS_FULL).map {|t| t.id}.sort
+      expect(ids).to eq(['above','far_above'])
+    end
+  end
+
+  describe Java::IoGamemachinePathfinding::ProximityGrid do
+    subject do
+      grid = Java::IoGamemachinePathfinding::ProximityGrid.new(100,10,5.0)
+      grid.set(1,10.0,10.0,0.0)
+      grid.set(2,11.0,10.0,4.0)
+      grid.set(3,12.0,10.0,7.0)
+      grid.set(4,13.0,10.0,12.0)
+      grid
+    end
+
+    it "returns values within one layer of z" do
+      expect(subject.neighbors(10.0,10.0,1.0).map {|v| v.id}.sort).to eq([1,2,3])
+      expect(subject.neighbors(10.0,10.0,11.0).map {|v| v.id}.sort).to eq([3,4])
+    end
+
+    it "returns every layer for 2d queries" do
+      expect(subject.neighbors(10.0,10.0).size).to eq(4)
+    end
+  end
+end
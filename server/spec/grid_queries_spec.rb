@@ -0,0 +1,76 @@
+require 'spec_helper_minimal'
+module GameMachine
+  describe JavaLib::Grid do
+
+    let(:player_type) {MessageLib::TrackData::EntityType::PLAYER}
+    let(:npc_type) {MessageLib::TrackData::EntityType::NPC}
+
+    # Positions and radii are scaled by 100 like TrackData from clients
+    subject do
+      grid = JavaLib::Grid.new(2000,25)
+      grid.set('near',10000,10300,0,player_type)
+      grid.set('mid',10000,14000,0,player_type)
+      grid.set('far',16000,10000,0,player_type)
+      grid.set('npc',10200,10000,0,npc_type)
+      grid
+    end
+
+    def ids(track_datas)
+      track_datas.map {|track_data| track_data.id}
+    end
+
+    describe "#neighbors_within_radius" do
+      it "returns only entities within the radius" do
+        expect(ids(subject.neighbors_within_radius(10000,10000,4000,nil)).sort).to eq(['mid','near','npc'])
+      end
+
+      it "includes entities exactly on the radius" do
+        expect(ids(subject.neighbors_within_radius(10000,10000,300,nil)).sort).to eq(['near','npc'])
+      end
+
+      it "reaches into cells a bounds query would not" do
+        expect(ids(subject.neighbors_within_radius(10000,10000,6000,nil)).sort).to eq(['far','mid','near','npc'])
+      end
+
+      it "filters by entity type" do
+        expect(ids(subject.neighbors_within_radius(10000,10000,4000,player_type)).sort).to eq(['mid','near'])
+      end
+
+      it "returns nothing around empty space" do
+        expect(subject.neighbors_within_radius(150000,150000,2500,nil)).to be_empty
+      end
+    end
+
+    describe "#k_nearest" do
+      it "returns the k closest entities ordered by distance" do
+        expect(ids(subject.k_nearest(10000,10000,3,nil))).to eq(['npc','near','mid'])
+      end
+
+      it "widens the search until it found k entities" do
+        expect(ids(subject.k_nearest(10000,10000,4,nil))).to eq(['npc','near','mid','far'])
+      end
+
+      it "returns everything there is when k is larger" do
+        expect(subject.k_nearest(10000,10000,10,nil).size).to eq(4)
+      end
+
+      it "filters by entity type" do
+        expect(ids(subject.k_nearest(10000,10000,1,player_type))).to eq(['near'])
+      end
+    end
+
+    describe "neighbor queries" do
+      it "answers NEIGHBORS_RADIUS with the grid's query radius and leaves out the observer" do
+        subject.set_query_radius(45)
+        result = subject.neighbors('near',10000,10300,nil,JavaLib::Grid::NEIGHBORS_RADIUS)
+        expect(ids(result).sort).to eq(['mid','npc'])
+      end
+
+      it "answers NEIGHBORS_NEAREST with the grid's nearest count and leaves out the observer" do
+        subject.set_nearest_count(2)
+        result = subject.neighbors('near',10000,10300,nil,JavaLib::Grid::NEIGHBORS_NEAREST)
+        expect(ids(result)).to eq(['npc','mid'])
+      end
+    end
+  end
+end
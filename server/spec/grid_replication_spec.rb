@@ -0,0 +1,140 @@
+require 'spec_helper_minimal'
+module GameMachine
+  describe JavaLib::Grid do
+    let(:player_type) {MessageLib::TrackData::EntityType::PLAYER}
+
+    # Coordinates below are scaled by 100 like TrackData from clients
+    def neighbor_ids(grid,id,x,y,opts=JavaLib::Grid::NEIGHBORS_FULL)
+      grid.neighbors(id,x,y,nil,opts).map {|track_data| track_data.id}.sort
+    end
+
+    describe "replicas" do
+      let(:local) {JavaLib::Grid.new(2000,25)}
+      let(:replica) {JavaLib::Grid.new(2000,25)}
+
+      def full_delta(grid)
+        delta = JavaLib::GridDelta.new('game','default')
+        delta.set_full(true)
+        grid.get_all.each {|track_data| delta.add(track_data)}
+        JavaLib::GridDelta.decode(delta.encode)
+      end
+
+      before(:each) do
+        source = JavaLib::Grid.new(2000,25)
+        source.set('r1',1200,1200,0,player_type)
+        source.set('r2',1400,1400,0,nil)
+        full_delta(source).apply_to(replica)
+      end
+
+      it "builds the replica from a full delta" do
+        expect(replica.get_object_count).to eq(2)
+        expect(replica.get('r1').x).to eq(1200)
+        expect(replica.get('r1').entity_type).to eq(player_type)
+        expect(replica.get('r2').entity_type).to be_nil
+      end
+
+      it "applies moves and removes from an incremental delta" do
+        delta = JavaLib::GridDelta.new('game','default')
+        delta.add('r1',1300,1300,0,player_type.ordinal)
+        delta.add('r2',0,0,0,JavaLib::GridDelta::REMOVED)
+        JavaLib::GridDelta.decode(delta.encode).apply_to(replica)
+        expect(replica.get('r1').x).to eq(1300)
+        expect(replica.get('r2')).to be_nil
+      end
+
+      it "keeps a missing entity type through an incremental delta from the delta log" do
+        source = JavaLib::Grid.new(2000,25)
+        source.enable_delta_log(16)
+        source.set('r2',1500,1500,0,nil)
+        delta = JavaLib::GridDelta.new('game','default')
+        source.get_delta_log.changes_since(0,delta)
+        JavaLib::GridDelta.decode(delta.encode).apply_to(replica)
+        expect(replica.get('r2').x).to eq(1500)
+        expect(replica.get('r2').entity_type).to be_nil
+      end
+
+      it "includes replica entities with a short id in neighbors" do
+        local.set_replica('node2',replica)
+        local.set('p',1000,1000,0,player_type)
+        expect(neighbor_ids(local,'p',1000,1000,JavaLib::Grid::NEIGHBORS_DELTA)).to be_empty
+
+        local.assign_replica_short_id('r1')
+        local.assign_replica_short_id('r2')
+        expect(neighbor_ids(local,'p',1000,1000,JavaLib::Grid::NEIGHBORS_DELTA)).to eq(['r1','r2'])
+      end
+
+      it "releases replica short ids once the entity left every replica" do
+        local.set_replica('node2',replica)
+        local.assign_replica_short_id('r1')
+        local.release_replica_short_id('r1')
+        expect(local.find_short_id('r1')).not_to be_nil
+
+        replica.remove('r1')
+        local.release_replica_short_id('r1')
+        expect(local.find_short_id('r1')).to be_nil
+      end
+    end
+  end
+
+  describe JavaLib::GridDelta do
+    let(:player_type) {MessageLib::TrackData::EntityType::PLAYER}
+
+    it "encodes and decodes every entry" do
+      delta = JavaLib::GridDelta.new('game','default')
+      delta.set_full(true)
+      delta.add('a',100,200,3,player_type.ordinal)
+      delta.add('b',0,0,0,JavaLib::GridDelta::REMOVED)
+      delta.add('c',300,400,0,JavaLib::GridDelta::NO_TYPE)
+
+      decoded = JavaLib::GridDelta.decode(delta.encode)
+      expect(decoded.get_game_id).to eq('game')
+      expect(decoded.get_grid_name).to eq('default')
+      expect(decoded.is_full).to be_truthy
+      expect(decoded.size).to eq(3)
+      expect((0...3).map {|i| decoded.get_id(i)}).to eq(['a','b','c'])
+      expect((0...3).map {|i| decoded.is_removed(i)}).to eq([false,true,false])
+    end
+
+    it "grows past its initial capacity" do
+      delta = JavaLib::GridDelta.new('game','default')
+      (1..200).each {|i| delta.add("e#{i}",i,i,0,player_type.ordinal)}
+      decoded = JavaLib::GridDelta.decode(delta.encode)
+      expect(decoded.size).to eq(200)
+      expect(decoded.get_id(199)).to eq('e200')
+    end
+  end
+
+  describe JavaLib::GridDeltaLog do
+    let(:player_type) {MessageLib::TrackData::EntityType::PLAYER}
+
+    subject do
+      JavaLib::GridDeltaLog.new(4)
+    end
+
+    def track_data(id,x)
+      MessageLib::TrackData.new.set_id(id).set_x(x).set_y(0).set_entity_type(player_type)
+    end
+
+    def changes_since(since)
+      delta = JavaLib::GridDelta.new('game','default')
+      sequence = subject.changes_since(since,delta)
+      [sequence,(0...delta.size).map {|i| [delta.get_id(i),delta.is_removed(i)]}]
+    end
+
+    it "returns the latest change of each entity since a sequence" do
+      subject.record_set(track_data('a',100))
+      subject.record_set(track_data('b',100))
+      subject.record_set(track_data('a',200))
+      subject.record_remove('b')
+      expect(changes_since(0)).to eq([4,[['b',true],['a',false]]])
+      expect(changes_since(3)).to eq([4,[['b',true]]])
+      expect(changes_since(4)).to eq([4,[]])
+    end
+
+    it "returns -1 once changes since the sequence were overwritten" do
+      6.times {|i| subject.record_set(track_data("e#{i}",i))}
+      expect(changes_since(1).first).to eq(-1)
+      expect(changes_since(2).first).to eq(6)
+    end
+  end
+end
@@ -0,0 +1,115 @@
+require 'spec_helper_minimal'
+require 'tmpdir'
+module GameMachine
+  describe JavaLib::GridSnapshot do
+
+    let(:player_type) {MessageLib::TrackData::EntityType::PLAYER}
+    let(:game_id) {'snapshot_spec'}
+    let(:path) {File.join(Dir.tmpdir,"grid_snapshot_spec_#{Process.pid}.bin")}
+
+    def install_grid
+      grid = JavaLib::Grid.new(2000,25)
+      grids = java.util.concurrent.ConcurrentHashMap.new
+      grids.put('default',grid)
+      JavaLib::GameGrid.get_game_grids.put(game_id,grids)
+      grid
+    end
+
+    # Position of the byte right after the last entity, from the length in the header
+    def snapshot_length
+      File.binread(path)[8,4].unpack('N').first
+    end
+
+    def patch(offset,bytes)
+      data = File.binread(path)
+      data[offset,bytes.bytesize] = bytes
+      File.binwrite(path,data)
+    end
+
+    before(:each) do
+      grid = install_grid
+      grid.set('a',1000,1200,3,player_type)
+      grid.set('b',1500,1500,0,nil)
+    end
+
+    after(:each) do
+      JavaLib::GameGrid.remove_grids_for_game(game_id)
+      File.delete(path) if File.exist?(path)
+    end
+
+    it "restores entities with their short id, position and type" do
+      short_id = JavaLib::GameGrid.get_game_grid(game_id,'default').find_short_id('a')
+      JavaLib::GridSnapshot.write(path)
+      grid = install_grid
+
+      restored = JavaLib::GridSnapshot.restore(path,60000)
+      expect(restored.map {|r| r.trackData.id}.sort).to eq(['a','b'])
+      expect(grid.find_short_id('a')).to eq(short_id)
+      expect(grid.get('a').x).to eq(1000)
+      expect(grid.get('a').y).to eq(1200)
+      expect(grid.get('a').z).to eq(3)
+      expect(grid.get('a').entity_type).to eq(player_type)
+      expect(grid.get('b').entity_type).to be_nil
+    end
+
+    it "grows the mapped file for ids longer then estimated" do
+      grid = JavaLib::GameGrid.get_game_grid(game_id,'default')
+      long_id = 'x' * 2000
+      grid.set(long_id,1000,1000,0,player_type)
+      JavaLib::GridSnapshot.write(path)
+      install_grid
+
+      restored = JavaLib::GridSnapshot.restore(path,60000)
+      expect(restored.map {|r| r.trackData.id}).to include(long_id)
+    end
+
+    it "does not restore snapshots older then max age" do
+      JavaLib::GridSnapshot.write(path)
+      grid = install_grid
+      patch(12,[0,0].pack('NN'))
+      expect(JavaLib::GridSnapshot.restore(path,60000)).to be_empty
+      expect(grid.get_object_count).to eq(0)
+    end
+
+    it "skips files that are not a snapshot" do
+      File.binwrite(path,'not a grid snapshot at all')
+      grid = install_grid
+      expect(JavaLib::GridSnapshot.restore(path,60000)).to be_empty
+      expect(grid.get_object_count).to eq(0)
+    end
+
+    it "skips snapshots of another version" do
+      JavaLib::GridSnapshot.write(path)
+      grid = install_grid
+      patch(4,[1].pack('N'))
+      expect(JavaLib::GridSnapshot.restore(path,60000)).to be_empty
+      expect(grid.get_object_count).to eq(0)
+    end
+
+    it "skips snapshots with a length past the end of the file" do
+      JavaLib::GridSnapshot.write(path)
+      grid = install_grid
+      patch(8,[File.size(path) + 1].pack('N'))
+      expect(JavaLib::GridSnapshot.restore(path,60000)).to be_empty
+      expect(grid.get_object_count).to eq(0)
+    end
+
+    it "keeps what was restored from a snapshot that ends early" do
+      JavaLib::GridSnapshot.write(path)
+      grid = install_grid
+      patch(8,[snapshot_length - 1].pack('N'))
+      restored = JavaLib::GridSnapshot.restore(path,60000)
+      expect(restored.size).to eq(1)
+      expect(grid.get_object_count).to eq(1)
+    end
+
+    it "skips entities with an unknown entity type" do
+      JavaLib::GridSnapshot.write(path)
+      grid = install_grid
+      patch(snapshot_length - 1,[100].pack('C'))
+      restored = JavaLib::GridSnapshot.restore(path,60000)
+      expect(restored.size).to eq(1)
+      expect(grid.get_object_count).to eq(1)
+    end
+  end
+end
@@ -0,0 +1,106 @@
+require 'spec_helper_minimal'
+module GameMachine
+  describe JavaLib::HierarchicalGridIndex do
+
+    let(:player_type) {MessageLib::TrackData::EntityType::PLAYER}
+    let(:npc_type) {MessageLib::TrackData::EntityType::NPC}
+
+    # 16 x 16 cells, so 2 x 2 blocks of 8 x 8
+    subject do
+      JavaLib::HierarchicalGridIndex.new(16)
+    end
+
+    def track_data(id,type=player_type)
+      MessageLib::TrackData.new.set_id(id).set_x(0).set_y(0).set_entity_type(type)
+    end
+
+    def cell(row,col)
+      row + col * 16
+    end
+
+    def collect(cell,type=nil)
+      result = java.util.ArrayList.new
+      subject.collect(cell,type,result)
+      result.map {|track_data| track_data.id}.sort
+    end
+
+    def private_field(object,name)
+      field = object.java_class.to_java.get_declared_field(name)
+      field.set_accessible(true)
+      field.get(object)
+    end
+
+    def block(index)
+      private_field(subject,'blocks')[index]
+    end
+
+    def split?(index)
+      !private_field(block(index),'cells').nil?
+    end
+
+    # Fills the first block with count entities spread over its first two cells
+    def fill(count)
+      (0...count).each {|i| subject.set(track_data("e#{i}"),cell(i % 2,0))}
+    end
+
+    it "only creates blocks that have members" do
+      subject.set(track_data('a'),cell(9,9))
+      expect(block(0)).to be_nil
+      expect(block(3)).not_to be_nil
+      subject.remove('a')
+      expect(block(3)).to be_nil
+    end
+
+    it "splits a block once it has more then SPLIT_SIZE members" do
+      fill(JavaLib::HierarchicalGridIndex::SPLIT_SIZE)
+      expect(split?(0)).to be_falsey
+      subject.set(track_data('one_more'),cell(2,0))
+      expect(split?(0)).to be_truthy
+    end
+
+    it "returns only the members of the cell asked for, split or not" do
+      fill(10)
+      expect(collect(cell(1,0)).size).to eq(5)
+      fill(40)
+      expect(split?(0)).to be_truthy
+      expect(collect(cell(1,0)).size).to eq(20)
+      expect(collect(cell(0,0)).size).to eq(20)
+      expect(collect(cell(2,0))).to be_empty
+    end
+
+    it "merges a split block back when it drops below half of SPLIT_SIZE" do
+      fill(40)
+      (0...24).each {|i| subject.remove("e#{i}")}
+      expect(split?(0)).to be_truthy
+      subject.remove('e24')
+      expect(split?(0)).to be_falsey
+      expect(collect(cell(0,0)).size + collect(cell(1,0)).size).to eq(15)
+    end
+
+    it "moves entities between cells and blocks" do
+      fill(40)
+      subject.set(track_data('e0'),cell(9,9))
+      expect(collect(cell(0,0))).not_to include('e0')
+      expect(collect(cell(9,9))).to eq(['e0'])
+      expect(subject.size).to eq(40)
+    end
+
+    it "keeps a bucket per entity type in both modes" do
+      subject.set(track_data('npc',npc_type),cell(0,0))
+      fill(4)
+      expect(collect(cell(0,0),npc_type)).to eq(['npc'])
+      fill(40)
+      expect(collect(cell(0,0),npc_type)).to eq(['npc'])
+      expect(collect(cell(0,0),player_type).size).to eq(20)
+    end
+
+    it "keeps entities outside of the grid in the overflow index" do
+      subject.set(track_data('out'),1000)
+      expect(subject.get('out').id).to eq('out')
+      expect(collect(1000)).to eq(['out'])
+      subject.set(track_data('out'),cell(0,0))
+      expect(collect(1000)).to be_empty
+      expect(collect(cell(0,0))).to eq(['out'])
+    end
+  end
+end
@@ -39,26 +39,33 @@ module GameMachine
         subject.set('blah',0,0,3,player_type)
         subject.remove('blah')
         points = subject.grid_values_in_cell(0)
-        expect(points).to be_empty
-        expect(subject.neighbors(0,0,25,nil)).to be_empty
+        expect(points).to be_nil
+        expect(subject.neighbors('other',0,0,nil,JavaLib::Grid::NEIGHBORS_FULL)).to be_empty
       end
     end
 
-    describe "#cells_within_radius" do
+    describe "#cells_within_bounds" do
       it "returns the correct cells" do
-        subject.cellsWithinRadius(0,0,50)
+        cells = subject.cells_within_bounds(50,50).to_a
+        expected = [[25,25],[25,50],[50,25],[50,50]].map {|x,y| subject.hash(x,y)}
+        expect(cells).to match_array(expected)
       end
     end
 
+    # Positions are scaled by 100 like TrackData from clients
     describe "#neighbors" do
 
+      def neighbors(x,y,type)
+        subject.neighbors('observer',x * 100,y * 100,type,JavaLib::Grid::NEIGHBORS_FULL)
+      end
+
       it "returns empty array when no neighbors found" do
-        expect(subject.neighbors(0,0,nil)).to be_empty
+        expect(neighbors(0,0,nil)).to be_empty
       end
 
       it "returns all objects within given radius of cell" do
         subject.set('blah',0,0,0,player_type)
-        points = subject.neighbors(0,0,nil)
+        points = neighbors(0,0,nil)
         tdata = points.first
         cell = subject.hash(tdata.x,tdata.y)
         expect(cell).to eq(0)
@@ -66,31 +73,27 @@ module GameMachine
 
       it "returns entities of the correct type" do
         subject.set('blah',0,0,0,player_type)
-        points = subject.neighbors(0,0,player_type)
-        tdata = points.first
-        cell = subject.hash(tdata.x,tdata.y)
-        expect(cell).to eq(0)
+        subject.set('npc',0,0,0,MessageLib::TrackData::EntityType::NPC)
+        points = neighbors(0,0,player_type)
+        expect(points.map {|tdata| tdata.id}).to eq(['blah'])
       end
 
       it "does not return cells out of range" do
         subject.set('blah',0,0,0,player_type)
-        expect(subject.neighbors(50,50,nil)).to be_empty
+        expect(neighbors(50,50,nil)).to be_empty
       end
 
       it "returns multiple points in the same cell" do
-        subject.set('blah',3,3,0,player_type)
-        subject.set('blah2',4,4,0,player_type)
-        points = subject.neighbors(0,0,nil).to_a
-        expect(points.last.x).to eq(3)
-        expect(points.first.x).to eq(4)
+        subject.set('blah',300,300,0,player_type)
+        subject.set('blah2',400,400,0,player_type)
+        points = neighbors(0,0,nil).to_a
+        expect(points.map {|tdata| tdata.x}).to match_array([300,400])
       end
 
       it "returns correct entities 2" do
-        subject.set('blah',40,40,0,player_type)
-        subject.set('blah2',4,4,0,player_type)
-        points = subject.neighbors(78,78,nil).to_a
-        v1 = Vector.new(40,40)
-        v2 = Vector.new(78,78)
+        subject.set('blah',4000,4000,0,player_type)
+        subject.set('blah2',400,400,0,player_type)
+        points = neighbors(78,78,nil).to_a
         expect(points).to be_empty
       end
 
@@ -129,19 +132,114 @@ module GameMachine
           entities << v1 = Vector.new(60,60)
           entities << v1 = Vector.new(140,140)
           entities.each do |entity|
-            grid.set('blah',entity.x,entity.y,0,player_type)
-            puts "Entity #{entity.x}.#{entity.y} distance=#{v3.distance(entity)}"
+            grid.set('blah',entity.x * 100,entity.y * 100,0,player_type)
           end
-          
-          puts grid.cells_within_radius(v3.x,v3.y).to_a.inspect
-          results = grid.neighbors(v3.x,v3.y,nil).to_a
-          results.each do |point|
-            puts "got #{point.x} #{point.y} #{Vector.new(point.x,point.y).distance(v3)}"
-          end
-          
+
+          results = grid.neighbors('observer',v3.x * 100,v3.y * 100,nil,JavaLib::Grid::NEIGHBORS_FULL).to_a
           expect(results).to be_empty
         end
       end
     end
+
+    # Coordinates below are scaled by 100 like TrackData from clients
+    def neighbor_ids(grid,id,x,y,opts=JavaLib::Grid::NEIGHBORS_FULL)
+      grid.neighbors(id,x,y,nil,opts).map {|track_data| track_data.id}.sort
+    end
+
+    [['hash',0],['array',0],['hierarchical',0],['hash',8],['array',8],['hierarchical',8]].each do |index_type,shard_cells|
+      describe "with a #{index_type} index and shard_cells #{shard_cells}" do
+        let(:grid) {JavaLib::Grid.new(2000,25,index_type,65535,shard_cells)}
+
+        before(:each) do
+          grid.set('a',1000,1000,0,player_type)
+          grid.set('b',1500,1500,0,player_type)
+          grid.set('c',150000,150000,0,player_type)
+        end
+
+        it "finds entities in neighboring cells only" do
+          expect(neighbor_ids(grid,'a',1000,1000)).to eq(['b'])
+          expect(neighbor_ids(grid,'c',150000,150000)).to be_empty
+        end
+
+        it "moves entities between cells" do
+          grid.set('b',149000,149000,0,player_type)
+          expect(neighbor_ids(grid,'a',1000,1000)).to be_empty
+          expect(neighbor_ids(grid,'c',150000,150000)).to eq(['b'])
+          expect(grid.get_object_count).to eq(3)
+        end
+
+        it "applies delta updates to the current position" do
+          delta = MessageLib::TrackData.new
+          delta.set_id('b')
+          delta.set_ix(500)
+          delta.set_iy(-500)
+          expect(grid.set(delta)).to be_truthy
+          expect(grid.get('b').x).to eq(2000)
+          expect(grid.get('b').y).to eq(1000)
+        end
+
+        it "drops removed entities from neighbors" do
+          grid.remove('b')
+          expect(grid.get('b')).to be_nil
+          expect(neighbor_ids(grid,'a',1000,1000)).to be_empty
+          expect(grid.get_object_count).to eq(2)
+        end
+
+        it "returns new neighbors with their full position to delta queries" do
+          first = grid.neighbors('a',1000,1000,nil,JavaLib::Grid::NEIGHBORS_DELTA).to_a
+          expect(first.map {|track_data| track_data.id}).to eq(['b'])
+          expect(first.first.x).to eq(1500)
+        end
+      end
+    end
+  end
+
+  describe JavaLib::ArrayGridIndex do
+    let(:player_type) {MessageLib::TrackData::EntityType::PLAYER}
+
+    subject do
+      JavaLib::ArrayGridIndex.new(16,16)
+    end
+
+    def track_data(id)
+      MessageLib::TrackData.new.set_id(id).set_x(0).set_y(0).set_entity_type(player_type)
+    end
+
+    def cell_ids(cell)
+      (subject.cell_members(cell) || []).map {|track_data| track_data.id}.sort
+    end
+
+    it "grows past its initial capacity" do
+      (0...40).each {|i| subject.set(track_data("e#{i}"),i % 16)}
+      expect(subject.size).to eq(40)
+      (0...40).each {|i| expect(subject.get("e#{i}").id).to eq("e#{i}")}
+      expect(cell_ids(3)).to eq(['e19','e3','e35'])
+    end
+
+    it "reuses the slots of removed entities" do
+      (0...20).each {|i| subject.set(track_data("e#{i}"),i % 16)}
+      (0...10).each {|i| subject.remove("e#{i}")}
+      (20...30).each {|i| subject.set(track_data("e#{i}"),5)}
+      expect(subject.size).to eq(20)
+      expect(subject.get('e0')).to be_nil
+      expect(cell_ids(5)).to eq((20...30).map {|i| "e#{i}"}.sort)
+    end
+
+    it "moves entities between cells" do
+      subject.set(track_data('a'),1)
+      subject.set(track_data('a'),2)
+      expect(cell_ids(1)).to be_empty
+      expect(cell_ids(2)).to eq(['a'])
+      expect(subject.size).to eq(1)
+    end
+
+    it "keeps entities outside of the cell range out of every cell" do
+      subject.set(track_data('out'),99)
+      expect(subject.get('out').id).to eq('out')
+      result = java.util.ArrayList.new
+      subject.collect_all(result)
+      expect(result.map {|track_data| track_data.id}).to eq(['out'])
+      expect((0...16).map {|cell| cell_ids(cell)}.flatten).to be_empty
+    end
   end
 end
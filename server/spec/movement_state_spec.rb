@@ -0,0 +1,108 @@
+require 'spec_helper_minimal'
+module GameMachine
+  describe JavaLib::MovementState do
+
+    let(:state) {JavaLib::MovementState.new(3)}
+
+    def samples(stripe,slot)
+      (0...stripe.count(slot)).map {|age| [stripe.x(slot,age),stripe.y(slot,age),stripe.time(slot,age)]}
+    end
+
+    it "maps ids to slots on first use" do
+      stripe = state.stripe('p1')
+      expect(stripe.find('p1')).to eq(JavaLib::MovementState::NONE)
+      slot = stripe.allocate('p1')
+      expect(stripe.find('p1')).to eq(slot)
+      expect(stripe.count(slot)).to eq(0)
+    end
+
+    it "keeps the last window samples, latest first" do
+      stripe = state.stripe('p1')
+      slot = stripe.allocate('p1')
+      (1..4).each {|i| stripe.add(slot,i,i * 10,i * 100)}
+      expect(samples(stripe,slot)).to eq([[4,40,400],[3,30,300],[2,20,200]])
+    end
+
+    it "reuses the slots of removed ids" do
+      stripe = state.stripe('p1')
+      slot = stripe.allocate('p1')
+      stripe.add(slot,1,1,1)
+      state.remove('p1')
+      expect(stripe.find('p1')).to eq(JavaLib::MovementState::NONE)
+      expect(stripe.allocate('p1')).to eq(slot)
+      expect(stripe.count(slot)).to eq(0)
+    end
+
+    it "grows past its initial capacity" do
+      ids = (1..2000).map {|i| "p#{i}"}
+      ids.each_with_index do |id,i|
+        stripe = state.stripe(id)
+        stripe.add(stripe.allocate(id),i,-i,i)
+      end
+      ids.each_with_index do |id,i|
+        stripe = state.stripe(id)
+        expect(samples(stripe,stripe.find(id))).to eq([[i,-i,i]])
+      end
+    end
+
+    it "drops the old samples on reset" do
+      stripe = state.stripe('p1')
+      slot = stripe.allocate('p1')
+      stripe.add(slot,1,1,1)
+      stripe.add(slot,2,2,2)
+      state.reset('p1',5,6,7)
+      expect(samples(stripe,slot)).to eq([[5,6,7]])
+      state.reset('p2',8,9,10)
+      expect(samples(state.stripe('p2'),state.stripe('p2').find('p2'))).to eq([[8,9,10]])
+    end
+  end
+
+  describe JavaLib::DefaultMovementVerifier do
+
+    # 1000 units per second
+    let(:verifier) {JavaLib::DefaultMovementVerifier.new(1000.0)}
+
+    it "accepts the first position of an entity" do
+      expect(verifier.verify('p1',100000,100000)).to be_truthy
+    end
+
+    it "allows MIN_ELAPSED worth of movement for updates that arrive together" do
+      verifier.verify('p1',0,0)
+      expect(verifier.verify('p1',90,0)).to be_truthy
+      expect(verifier.verify('p1',500,0)).to be_falsey
+    end
+
+    it "checks speed at sub second granularity" do
+      verifier.verify('p1',0,0)
+      sleep 0.6
+      expect(verifier.verify('p1',500,0)).to be_truthy
+      expect(verifier.verify('p1',1500,0)).to be_falsey
+    end
+
+    it "lets deltas through for NavMovementVerifier to resolve" do
+      verifier.verify('p1',0,0)
+      expect(verifier.verify(MessageLib::TrackData.new.set_id('p1').set_ix(100000))).to be_truthy
+    end
+
+    it "starts over from a reset or removed position" do
+      verifier.verify('p1',0,0)
+      verifier.reset('p1',100000,0)
+      expect(verifier.verify('p1',100050,0)).to be_truthy
+      verifier.remove('p1')
+      expect(verifier.verify('p1',0,0)).to be_truthy
+    end
+
+    it "keeps entities apart" do
+      verifier.verify('p1',0,0)
+      verifier.verify('p2',100000,0)
+      expect(verifier.verify('p1',50,0)).to be_truthy
+      expect(verifier.verify('p2',100050,0)).to be_truthy
+    end
+  end
+
+  describe JavaLib::EntityTracking do
+    it "counts no rejected moves for games without any" do
+      expect(JavaLib::EntityTracking.get_rejected_moves('no_such_game')).to eq(0)
+    end
+  end
+end
@@ -0,0 +1,81 @@
+require 'spec_helper_minimal'
+module GameMachine
+  describe Java::IoGamemachineNet::NeighborEncoder do
+
+    let(:entity_type) {MessageLib::TrackData::EntityType}
+
+    let(:client_connection) do
+      MessageLib::ClientConnection.new.set_id('client1').set_gateway('gateway1').set_server('server1').set_type('udp')
+    end
+
+    subject do
+      Java::IoGamemachineNet::NeighborEncoder.new('player1',client_connection)
+    end
+
+    let(:track_datas) do
+      full = MessageLib::TrackData.new.set_id('npc1').set_x(15000).set_y(-2500).set_z(-70000).
+        set_entity_type(entity_type::NPC).set_neighbor_entity_type(entity_type::ALL).set_grid_name('default').
+        set_get_neighbors(1).set_speed(2.5).set_velocity(-1.25).set_short_id(12)
+      full.set_direction(MessageLib::Vector3.new.set_x(0.5).set_y(-0.5).set_z(1.0).set_xi(-3).set_yi(4).set_zi(300))
+      full.set_dynamic_message(MessageLib::DynamicMessage.new.set_type('test').set_message(Java::IoProtostuff::ByteString.copy_from('abc'.to_java_bytes)))
+      delta = MessageLib::TrackData.new.set_ix(-300).set_iy(20000).set_iz(0).set_short_id(13)
+      unicode = MessageLib::TrackData.new.set_id("élève 中文 \u{1F600}").set_x(0).set_y(1).set_short_id(200000)
+      java.util.ArrayList.new([full,delta,unicode])
+    end
+
+    # What the actor path sends, a ClientMessage holding one Entity with Neighbors
+    def expected(track_datas)
+      neighbors = MessageLib::Neighbors.new
+      track_datas.each {|track_data| neighbors.add_track_data(track_data)}
+      entity = MessageLib::Entity.new.set_id('player1').set_player(MessageLib::Player.new.set_id('player1')).
+        set_send_to_player(true).set_neighbors(neighbors)
+      MessageLib::ClientMessage.new.set_client_connection(client_connection).add_entity(entity)
+    end
+
+    def decode(buf)
+      bytes = Java::byte[buf.readable_bytes].new
+      buf.get_bytes(buf.reader_index,bytes)
+      buf.release
+      MessageLib::ClientMessage.parse_from(bytes)
+    end
+
+    it "encodes a batch that decodes to the same ClientMessage the actor path builds" do
+      buf = subject.encode(Java::IoNettyBuffer::UnpooledByteBufAllocator::DEFAULT,track_datas,0,3)
+      message = decode(buf)
+      expect(String.from_java_bytes(message.to_byte_array)).to eq(String.from_java_bytes(expected(track_datas).to_byte_array))
+    end
+
+    it "keeps the fields of every track data" do
+      message = decode(subject.encode(Java::IoNettyBuffer::UnpooledByteBufAllocator::DEFAULT,track_datas,0,3))
+      decoded = message.entity_list[0].neighbors.track_data_list
+      expect(message.entity_list[0].player.id).to eq('player1')
+      expect(message.client_connection.gateway).to eq('gateway1')
+      expect(decoded.size).to eq(3)
+      expect(decoded[0].y).to eq(-2500)
+      expect(decoded[0].z).to eq(-70000)
+      expect(decoded[0].direction.xi).to eq(-3)
+      expect(decoded[0].dynamicMessage.type).to eq('test')
+      expect(decoded[1].ix).to eq(-300)
+      expect(decoded[1].iy).to eq(20000)
+      expect(decoded[1].id).to be_nil
+      expect(decoded[2].id).to eq("élève 中文 \u{1F600}")
+      expect(decoded[2].short_id).to eq(200000)
+    end
+
+    it "only encodes the track datas from from up to to" do
+      message = decode(subject.encode(Java::IoNettyBuffer::UnpooledByteBufAllocator::DEFAULT,track_datas,1,2))
+      decoded = message.entity_list[0].neighbors.track_data_list
+      expect(decoded.size).to eq(1)
+      expect(decoded[0].short_id).to eq(13)
+    end
+
+    it "encodes batches too large for a one byte length" do
+      many = java.util.ArrayList.new
+      Java::IoGamemachineNet::NeighborEncoder::BATCH_SIZE.times do |i|
+        many.add(MessageLib::TrackData.new.set_id("entity#{i}").set_x(i * 1000).set_y(-i * 1000).set_short_id(i))
+      end
+      message = decode(subject.encode(Java::IoNettyBuffer::UnpooledByteBufAllocator::DEFAULT,many,0,many.size))
+      expect(String.from_java_bytes(message.to_byte_array)).to eq(String.from_java_bytes(expected(many).to_byte_array))
+    end
+  end
+end
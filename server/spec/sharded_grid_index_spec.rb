@@ -0,0 +1,84 @@
+require 'spec_helper_minimal'
+module GameMachine
+  describe JavaLib::ShardedGridIndex do
+
+    let(:player_type) {MessageLib::TrackData::EntityType::PLAYER}
+    let(:grid) {JavaLib::Grid.new(2000,25,'hash',65535,8)}
+
+    def track_data(id,x,y)
+      MessageLib::TrackData.new.set_id(id).set_x(x).set_y(y).set_entity_type(player_type)
+    end
+
+    # Blocks are 8 cells of 25 units, 20000 scaled
+    it "moves entities across shard boundaries" do
+      grid.set('a',19900,100,0,player_type)
+      expect(grid.shard_for(19900,100)).to eq(0)
+      old_cell = grid.hash(199,1)
+
+      grid.set('a',20100,100,0,player_type)
+      expect(grid.shard_for(20100,100)).to eq(1)
+      expect(grid.get('a').x).to eq(20100)
+      expect(grid.get_object_count).to eq(1)
+      expect(grid.get_all.size).to eq(1)
+      expect(grid.grid_values_in_cell(old_cell)).to be_nil
+      expect(grid.grid_values_in_cell(grid.hash(201,1)).size).to eq(1)
+    end
+
+    it "finds neighbors on the other side of a shard boundary" do
+      grid.set('a',19900,100,0,player_type)
+      grid.set('b',20100,100,0,player_type)
+      ids = grid.neighbors('a',19900,100,nil,JavaLib::Grid::NEIGHBORS_RADIUS).map {|track_data| track_data.id}
+      expect(ids).to eq(['b'])
+      ids = grid.neighbors('b',20100,100,nil,JavaLib::Grid::NEIGHBORS_RADIUS).map {|track_data| track_data.id}
+      expect(ids).to eq(['a'])
+    end
+
+    it "removes entities that moved across shards" do
+      grid.set('a',19900,100,0,player_type)
+      grid.set('a',20100,100,0,player_type)
+      grid.remove('a')
+      expect(grid.get('a')).to be_nil
+      expect(grid.get_object_count).to eq(0)
+      expect(grid.get_all).to be_empty
+    end
+
+    it "always finds an entity that is moving between shards" do
+      grid.set('a',19900,100,0,player_type)
+      mover = java.lang.Thread.new do
+        5000.times do |i|
+          grid.set('a',(i.even? ? 20100 : 19900),100,0,player_type)
+        end
+      end
+      mover.start
+      missed = 0
+      missed += 1 while mover.is_alive && grid.get('a').nil?
+      mover.join
+      expect(missed).to eq(0)
+      expect(grid.get_all.size).to eq(1)
+    end
+
+    describe "routing" do
+      # Updates for an entity crossing a block edge have to reach the same routee to be applied in order
+      it "keys every update for an entity the same on both sides of a block edge" do
+        keys = [19900,20100,19900,40100].map do |x|
+          JavaLib::EntityTracking.shard_key(track_data('a',x,100))
+        end
+        expect(keys.uniq).to eq(['a'])
+      end
+
+      it "keys entities carrying one track data by the entity it is for" do
+        entity = MessageLib::Entity.new.set_id('0')
+        entity.set_player(MessageLib::Player.new.set_id('agent'))
+        entity.set_track_data(track_data('npc1',20100,100))
+        expect(JavaLib::EntityTracking.shard_key(entity)).to eq('npc1')
+      end
+
+      it "keys agent batches by player" do
+        entity = MessageLib::Entity.new.set_id('0')
+        entity.set_player(MessageLib::Player.new.set_id('agent'))
+        entity.set_agent_track_data(MessageLib::AgentTrackData.new)
+        expect(JavaLib::EntityTracking.shard_key(entity)).to eq('agent')
+      end
+    end
+  end
+end
@@ -0,0 +1,84 @@
+require 'spec_helper_minimal'
+module GameMachine
+  describe JavaLib::ShortIdAllocator do
+    subject do
+      JavaLib::ShortIdAllocator.new(10)
+    end
+
+    it "hands out every id up to the ceiling and never 0" do
+      ids = (1..10).map {subject.allocate}
+      expect(ids.sort).to eq((1..10).to_a)
+      expect(subject.allocate).to eq(-1)
+      expect(subject.get_allocated_count).to eq(10)
+    end
+
+    it "reuses released ids" do
+      10.times {subject.allocate}
+      subject.release(4)
+      expect(subject.allocate).to eq(4)
+      expect(subject.allocate).to eq(-1)
+    end
+
+    it "claims specific ids once" do
+      expect(subject.claim(7)).to be_truthy
+      expect(subject.claim(7)).to be_falsey
+      expect(subject.claim(0)).to be_falsey
+      expect(subject.claim(11)).to be_falsey
+      ids = (1..9).map {subject.allocate}
+      expect(ids).not_to include(7)
+    end
+
+    it "hands out ids past the initial active range" do
+      allocator = JavaLib::ShortIdAllocator.new(5000)
+      ids = (1..5000).map {allocator.allocate}
+      expect(ids.uniq.size).to eq(5000)
+      expect(ids.max).to eq(5000)
+      expect(allocator.allocate).to eq(-1)
+    end
+
+    it "never hands out the same id to two threads" do
+      allocator = JavaLib::ShortIdAllocator.new(20000)
+      results = java.util.concurrent.ConcurrentLinkedQueue.new
+      threads = (1..4).map do
+        java.lang.Thread.new do
+          4000.times {results.add(allocator.allocate)}
+        end
+      end
+      threads.each {|thread| thread.start}
+      threads.each {|thread| thread.join}
+      ids = results.to_a
+      expect(ids).not_to include(-1)
+      expect(ids.uniq.size).to eq(16000)
+      expect(allocator.get_allocated_count).to eq(16000)
+    end
+  end
+
+  describe JavaLib::Grid do
+    let(:player_type) {MessageLib::TrackData::EntityType::PLAYER}
+
+    describe "short ids" do
+      let(:grid) {JavaLib::Grid.new(2000,25,'hash',3)}
+
+      it "refuses new entities once short ids run out" do
+        %w(a b c).each {|id| expect(grid.set(id,1000,1000,0,player_type)).to be_truthy}
+        expect(grid.set('d',1000,1000,0,player_type)).to be_falsey
+        expect(grid.get('d')).to be_nil
+      end
+
+      it "reuses the short id of removed entities" do
+        %w(a b c).each {|id| grid.set(id,1000,1000,0,player_type)}
+        short_id = grid.find_short_id('b')
+        grid.remove('b')
+        expect(grid.find_short_id('b')).to be_nil
+        expect(grid.set('d',1000,1000,0,player_type)).to be_truthy
+        expect(grid.find_short_id('d')).to eq(short_id)
+      end
+    end
+
+    it "gives more then 999 entities a short id" do
+      grid = JavaLib::Grid.new(2000,25)
+      (1..2000).each {|i| expect(grid.set("e#{i}",1000,1000,0,player_type)).to be_truthy}
+      expect((1..2000).map {|i| grid.find_short_id("e#{i}")}.uniq.size).to eq(2000)
+    end
+  end
+end
@@ -0,0 +1,88 @@
+require 'spec_helper_minimal'
+module GameMachine
+  describe JavaLib::TypeBuckets do
+
+    let(:player_type) {MessageLib::TrackData::EntityType::PLAYER}
+    let(:npc_type) {MessageLib::TrackData::EntityType::NPC}
+    let(:other_type) {MessageLib::TrackData::EntityType::OTHER}
+
+    it "gives every entity type and entities without a type a bucket of their own" do
+      buckets = MessageLib::TrackData::EntityType.values.map {|type| JavaLib::TypeBuckets.bucket(type)}
+      buckets << JavaLib::TypeBuckets.bucket(nil)
+      expect(buckets.uniq.size).to eq(JavaLib::TypeBuckets::COUNT)
+      expect(buckets.max).to eq(JavaLib::TypeBuckets::COUNT - 1)
+    end
+
+    {
+      'hash' => lambda {JavaLib::HashGridIndex.new},
+      'array' => lambda {JavaLib::ArrayGridIndex.new(256,16)},
+      'hierarchical' => lambda {JavaLib::HierarchicalGridIndex.new(16)},
+      'sharded' => lambda {JavaLib::ShardedGridIndex.new(16,8,'array',16)}
+    }.each do |name,factory|
+      describe "#{name} index" do
+        let(:index) {factory.call}
+
+        def track_data(id,type,x=1000,y=1000)
+          MessageLib::TrackData.new.set_id(id).set_x(x).set_y(y).set_entity_type(type)
+        end
+
+        def collect(index,cell,type)
+          result = java.util.ArrayList.new
+          index.collect(cell,type,result)
+          result.map {|t| t.id}.sort
+        end
+
+        def collect_within_radius(index,cell,type)
+          result = java.util.ArrayList.new
+          index.collect_within_radius(cell,type,1000,1000,250000,result)
+          result.map {|t| t.id}.sort
+        end
+
+        before(:each) do
+          index.set(track_data('p1',player_type),5)
+          index.set(track_data('p2',player_type),5)
+          index.set(track_data('n1',npc_type),5)
+          index.set(track_data('o1',other_type),5)
+          index.set(track_data('u1',nil),5)
+        end
+
+        it "returns only members of the type asked for" do
+          expect(collect(index,5,player_type)).to eq(['p1','p2'])
+          expect(collect(index,5,npc_type)).to eq(['n1'])
+          expect(collect_within_radius(index,5,other_type)).to eq(['o1'])
+        end
+
+        it "returns every member, with or without a type, when no type is given" do
+          expect(collect(index,5,nil)).to eq(['n1','o1','p1','p2','u1'])
+          expect(collect_within_radius(index,5,nil)).to eq(['n1','o1','p1','p2','u1'])
+          expect(index.cell_members(5).size).to eq(5)
+        end
+
+        it "moves an entity to its new bucket when its type changes" do
+          index.set(track_data('n1',player_type),5)
+          expect(collect(index,5,npc_type)).to be_empty
+          expect(collect(index,5,player_type)).to eq(['n1','p1','p2'])
+          expect(index.size).to eq(5)
+        end
+
+        it "takes removed entities out of their bucket" do
+          index.remove('p1')
+          expect(collect(index,5,player_type)).to eq(['p2'])
+          index.remove('u1')
+          expect(collect(index,5,nil)).to eq(['n1','o1','p2'])
+        end
+      end
+    end
+
+    it "lets typed grid queries skip other types" do
+      grid = JavaLib::Grid.new(2000,25)
+      grid.set('p1',10000,10000,0,player_type)
+      grid.set('p2',10100,10000,0,player_type)
+      grid.set('n1',10200,10000,0,npc_type)
+      ids = grid.neighbors('p1',10000,10000,player_type,JavaLib::Grid::NEIGHBORS_FULL).map {|t| t.id}
+      expect(ids).to eq(['p2'])
+      ids = grid.neighbors('p1',10000,10000,npc_type,JavaLib::Grid::NEIGHBORS_FULL).map {|t| t.id}
+      expect(ids).to eq(['n1'])
+    end
+  end
+end
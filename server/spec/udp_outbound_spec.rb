@@ -0,0 +1,90 @@
+require 'spec_helper_minimal'
+module GameMachine
+  describe Java::IoGamemachineNetUdp::UdpOutbound do
+
+    # Counts the flushes that reach the channel
+    class UdpFlushCounter < Java::IoNettyChannel::ChannelOutboundHandlerAdapter
+      attr_reader :flushes
+
+      def initialize
+        super
+        @flushes = 0
+      end
+
+      def flush(ctx)
+        @flushes += 1
+        super
+      end
+    end
+
+    # Holds on to its context for UdpOutbound, like NettyUdpServerHandler does
+    class UdpContextHolder < Java::IoNettyChannel::ChannelInboundHandlerAdapter
+      attr_reader :ctx
+
+      def handlerAdded(ctx)
+        @ctx = ctx
+      end
+    end
+
+    let(:counter) {UdpFlushCounter.new}
+    let(:holder) {UdpContextHolder.new}
+    let(:channel) {Java::IoNettyChannelEmbedded::EmbeddedChannel.new(counter,holder)}
+    let(:outbound) {Java::IoGamemachineNetUdp::UdpOutbound.new(holder.ctx)}
+
+    def packet(i)
+      content = Java::IoNettyBuffer::Unpooled.copy_int(i)
+      Java::IoNettyChannelSocket::DatagramPacket.new(content,java.net.InetSocketAddress.new('127.0.0.1',24130))
+    end
+
+    def written
+      result = []
+      while (message = channel.read_outbound)
+        result << message.content.get_int(0)
+        message.release
+      end
+      result
+    end
+
+    before(:each) do
+      JavaLib::AppConfig::Udp.set_flush_micros(0)
+      channel
+    end
+
+    it "writes nothing until the event loop drains the queue" do
+      outbound.write(packet(1))
+      expect(channel.outbound_messages).to be_empty
+      expect(counter.flushes).to eq(0)
+    end
+
+    it "writes everything queued in order with a single flush" do
+      (1..5).each {|i| outbound.write(packet(i))}
+      channel.run_pending_tasks
+      expect(written).to eq([1,2,3,4,5])
+      expect(counter.flushes).to eq(1)
+    end
+
+    it "schedules another drain for writes after a drain" do
+      outbound.write(packet(1))
+      channel.run_pending_tasks
+      outbound.write(packet(2))
+      outbound.write(packet(3))
+      channel.run_pending_tasks
+      expect(written).to eq([1,2,3])
+      expect(counter.flushes).to eq(2)
+    end
+
+    it "does not flush when there was nothing to write" do
+      outbound.run
+      expect(counter.flushes).to eq(0)
+    end
+
+    it "releases queued packets once the channel is closed" do
+      queued = packet(1)
+      outbound.write(queued)
+      channel.close
+      channel.run_pending_tasks
+      expect(queued.ref_cnt).to eq(0)
+      expect(counter.flushes).to eq(0)
+    end
+  end
+end
@@ -0,0 +1,116 @@
+require 'spec_helper_minimal'
+module GameMachine
+  describe JavaLib::WalkabilityMap do
+
+    # 10 x 10 cells at height 0.  A wall at x 5 from y 0 to 7, a ledge at 7,2 too high to step onto, and a slope at 3,8
+    # too steep to walk.
+    let(:graph) do
+      graph = Java::IoGamemachinePathfinding::GridGraph.new(10,10)
+      (0...10).each do |x|
+        (0...10).each do |y|
+          next if x == 5 && y < 8
+          node = Java::IoGamemachinePathfinding::Node.new
+          node.position = Java::IoGamemachineUtil::Vector3.new(x,y,(x == 7 && y == 2) ? 1.0 : 0.0)
+          node.slope = (x == 3 && y == 8) ? 40.0 : 0.0
+          graph.nodes[x][y] = node
+        end
+      end
+      graph
+    end
+
+    let(:map) do
+      JavaLib::WalkabilityMap.from_graph(graph)
+    end
+
+    it "knows which cells are walkable" do
+      expect(map.is_walkable(0,0)).to be_truthy
+      expect(map.is_walkable(5,3)).to be_falsey
+      expect(map.is_walkable(3,8)).to be_falsey
+      expect(map.is_walkable(7,2)).to be_truthy
+      expect(map.is_walkable(-1,0)).to be_falsey
+      expect(map.is_walkable(10,0)).to be_falsey
+    end
+
+    it "allows moves that only cross walkable cells" do
+      expect(map.can_walk(0.5,0.5,4.5,4.5)).to be_truthy
+      expect(map.can_walk(4.5,4.5,0.5,0.5)).to be_truthy
+      expect(map.can_walk(2.5,1.5,2.5,1.7)).to be_truthy
+      expect(map.can_walk(4.5,9.5,6.5,9.5)).to be_truthy
+    end
+
+    it "rejects moves through unwalkable cells" do
+      expect(map.can_walk(4.5,3.5,6.5,3.5)).to be_falsey
+      expect(map.can_walk(6.5,3.5,4.5,3.5)).to be_falsey
+      expect(map.can_walk(2.5,8.5,4.5,8.5)).to be_falsey
+    end
+
+    it "rejects moves that start or end outside of the map" do
+      expect(map.can_walk(-0.5,0.5,1.5,0.5)).to be_falsey
+      expect(map.can_walk(8.5,0.5,10.5,0.5)).to be_falsey
+    end
+
+    it "rejects steps higher then GridGraph.maxStep" do
+      expect(map.can_walk(6.5,2.5,7.5,2.5)).to be_falsey
+      expect(map.can_walk(7.5,1.5,7.5,2.5)).to be_falsey
+      expect(map.can_walk(7.5,3.5,7.5,2.5)).to be_falsey
+      expect(map.can_walk(6.5,1.5,8.5,1.5)).to be_truthy
+    end
+
+    it "checks every cell a diagonal touches, not just the cells on the line" do
+      # Passes the corner of the wall at 5,7 through cell 5,7
+      expect(map.can_walk(4.5,6.5,5.5,8.5)).to be_falsey
+      expect(map.can_walk(4.5,8.5,6.5,9.5)).to be_truthy
+    end
+
+    describe JavaLib::NavMovementVerifier do
+      let(:verifier) do
+        JavaLib::NavMovementVerifier.new(map,JavaLib::DefaultMovementVerifier.new(1000000.0))
+      end
+
+      def track_data(x,y)
+        MessageLib::TrackData.new.set_id('p1').set_x(x).set_y(y)
+      end
+
+      it "accepts the first position of an entity" do
+        expect(verifier.verify(track_data(650,350))).to be_truthy
+      end
+
+      it "checks moves from the last accepted position" do
+        verifier.verify(track_data(450,350))
+        expect(verifier.verify(track_data(650,350))).to be_falsey
+        expect(verifier.verify(track_data(450,450))).to be_truthy
+        expect(verifier.verify(track_data(450,950))).to be_truthy
+        expect(verifier.verify(track_data(650,950))).to be_truthy
+      end
+
+      it "resolves deltas against the last accepted position" do
+        verifier.verify(track_data(450,350))
+        expect(verifier.verify(MessageLib::TrackData.new.set_id('p1').set_ix(200).set_iy(0))).to be_falsey
+        expect(verifier.verify(MessageLib::TrackData.new.set_id('p1').set_ix(-200).set_iy(0))).to be_truthy
+        expect(verifier.verify(track_data(250,350))).to be_truthy
+      end
+
+      it "leaves deltas of unknown entities to the grid" do
+        expect(verifier.verify(MessageLib::TrackData.new.set_id('p1').set_ix(200).set_iy(0))).to be_truthy
+      end
+
+      it "starts over from a reset position" do
+        verifier.verify(track_data(450,350))
+        verifier.reset('p1',650,350)
+        expect(verifier.verify(track_data(750,350))).to be_truthy
+      end
+
+      it "starts over after a remove" do
+        verifier.verify(track_data(450,350))
+        verifier.remove('p1')
+        expect(verifier.verify(track_data(650,350))).to be_truthy
+      end
+
+      it "fails moves the speed verifier fails" do
+        verifier = JavaLib::NavMovementVerifier.new(map,JavaLib::DefaultMovementVerifier.new(1.0))
+        verifier.verify(track_data(50,50))
+        expect(verifier.verify(track_data(450,50))).to be_falsey
+      end
+    end
+  end
+end